@@ -0,0 +1,90 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.benchmark;
+
+import com.github.xingshuangs.iot.common.buff.ByteWriteBuff;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基准测试用的FMP4数据样本
+ *
+ * @author xingshuang
+ */
+public class Fmp4Samples {
+
+    private Fmp4Samples() {
+        // NOOP
+    }
+
+    /**
+     * 构建只有一个样本的媒体片段，moof + mdat
+     *
+     * @param keyFrame 是否关键帧
+     * @param dataSize mdat数据大小
+     * @return 媒体片段
+     */
+    public static byte[] createMediaSegment(boolean keyFrame, int dataSize) {
+        // is_leading(2) depends_on(2) | is_depended_on(2) has_redundancy(2) padding(3) non_sync(1) | priority(16)
+        int sampleFlags = keyFrame ? 0x02000000 : 0x01010000;
+        byte[] mfhd = box("mfhd", ByteWriteBuff.newInstance(8).putInteger(0).putInteger(1).getData());
+        byte[] tfhd = box("tfhd", ByteWriteBuff.newInstance(8).putInteger(0).putInteger(1).getData());
+        byte[] tfdt = box("tfdt", ByteWriteBuff.newInstance(8).putInteger(0).putInteger(0).getData());
+        byte[] trun = box("trun", ByteWriteBuff.newInstance(28)
+                .putInteger(0x000F01)
+                .putInteger(1)
+                .putInteger(0)
+                .putInteger(3600)
+                .putInteger(dataSize)
+                .putInteger(sampleFlags)
+                .putInteger(0)
+                .getData());
+        byte[] traf = box("traf", concat(tfhd, tfdt, trun));
+        byte[] moof = box("moof", concat(mfhd, traf));
+        byte[] mdat = box("mdat", new byte[dataSize]);
+        return concat(moof, mdat);
+    }
+
+    private static byte[] box(String type, byte[] content) {
+        return ByteWriteBuff.newInstance(8 + content.length)
+                .putInteger(8 + content.length)
+                .putBytes(type.getBytes(StandardCharsets.US_ASCII))
+                .putBytes(content)
+                .getData();
+    }
+
+    private static byte[] concat(byte[]... items) {
+        int length = 0;
+        for (byte[] item : items) {
+            length += item.length;
+        }
+        ByteWriteBuff buff = ByteWriteBuff.newInstance(length);
+        for (byte[] item : items) {
+            buff.putBytes(item);
+        }
+        return buff.getData();
+    }
+}
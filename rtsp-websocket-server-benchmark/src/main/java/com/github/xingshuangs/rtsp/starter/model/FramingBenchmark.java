@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.benchmark.Fmp4Samples;
+import com.github.xingshuangs.rtsp.starter.benchmark.NoopWebSocketSession;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 二进制消息封帧的基准测试，通道编号 + FMP4数据
+ *
+ * @author xingshuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FramingBenchmark {
+
+    private static final Integer CHANNEL_NUMBER = 1001;
+
+    @Param({"1024", "65536", "1048576"})
+    private int fragmentSize;
+
+    private byte[] fmp4Data;
+
+    private Fmp4Frame fmp4Frame;
+
+    private WebsocketConnection websocketConnection;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.fmp4Data = Fmp4Samples.createMediaSegment(true, this.fragmentSize);
+        this.fmp4Frame = Fmp4Frame.create(CHANNEL_NUMBER, this.fmp4Data);
+        this.websocketConnection = new WebsocketConnection(new NoopWebSocketSession("0"),
+                Runnable::run, new WebsocketProperties());
+        this.websocketConnection.addChannelNumber(CHANNEL_NUMBER);
+    }
+
+    @Benchmark
+    public Fmp4Frame create() {
+        return Fmp4Frame.create(CHANNEL_NUMBER, this.fmp4Data);
+    }
+
+    @Benchmark
+    public BinaryMessage toBinaryMessage() {
+        return this.fmp4Frame.toBinaryMessage();
+    }
+
+    @Benchmark
+    public boolean sendFrame() {
+        return this.websocketConnection.sendFrame(Fmp4Frame.create(CHANNEL_NUMBER, this.fmp4Data));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.benchmark.NoopWebSocketSession;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 订阅者注册表的竞争基准测试，数据帧发布与订阅变化并发执行，对比原有加锁的HashSet实现和当前的写时复制快照实现
+ *
+ * @author xingshuang
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriberRegistryBenchmark {
+
+    private static final int CHANNEL_NUMBER = 1001;
+
+    @Param({"locked", "snapshot"})
+    private String registryType;
+
+    @Param({"1", "10", "100", "1000"})
+    private int subscribers;
+
+    private Registry registry;
+
+    private WebsocketConnection[] churnConnections;
+
+    private int churnIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.registry = "locked".equals(this.registryType) ? new LockedRegistry() : new SnapshotRegistry();
+        for (int i = 0; i < this.subscribers; i++) {
+            this.registry.add(createConnection("s" + i));
+        }
+        this.churnConnections = new WebsocketConnection[8];
+        for (int i = 0; i < this.churnConnections.length; i++) {
+            this.churnConnections[i] = createConnection("c" + i);
+        }
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(1)
+    public void publish(Blackhole blackhole) {
+        this.registry.foreach(x -> blackhole.consume(x.containChannelNumber(CHANNEL_NUMBER)));
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(1)
+    public boolean churn() {
+        WebsocketConnection connection = this.churnConnections[this.churnIndex++ & 7];
+        this.registry.add(connection);
+        boolean contained = this.registry.contains(connection);
+        this.registry.remove(connection);
+        return contained;
+    }
+
+    private static WebsocketConnection createConnection(String id) {
+        WebsocketConnection connection = new WebsocketConnection(new NoopWebSocketSession(id), Runnable::run, new WebsocketProperties());
+        connection.addChannelNumber(CHANNEL_NUMBER);
+        return connection;
+    }
+
+    private interface Registry {
+
+        void add(WebsocketConnection connection);
+
+        void remove(WebsocketConnection connection);
+
+        boolean contains(WebsocketConnection connection);
+
+        void foreach(Consumer<WebsocketConnection> consumer);
+    }
+
+    /**
+     * 原有的实现，HashSet + 单个对象锁，遍历期间持有锁
+     */
+    private static class LockedRegistry implements Registry {
+
+        private final Object objLock = new Object();
+
+        private final Set<WebsocketConnection> connections = new HashSet<>();
+
+        @Override
+        public void add(WebsocketConnection connection) {
+            synchronized (this.objLock) {
+                this.connections.add(connection);
+            }
+        }
+
+        @Override
+        public void remove(WebsocketConnection connection) {
+            synchronized (this.objLock) {
+                this.connections.remove(connection);
+            }
+        }
+
+        @Override
+        public boolean contains(WebsocketConnection connection) {
+            synchronized (this.objLock) {
+                return this.connections.stream().anyMatch(x -> x.getSink().getId().equals(connection.getSink().getId()));
+            }
+        }
+
+        @Override
+        public void foreach(Consumer<WebsocketConnection> consumer) {
+            synchronized (this.objLock) {
+                for (WebsocketConnection connection : this.connections) {
+                    consumer.accept(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前的实现，RtspConnection的写时复制快照
+     */
+    private static class SnapshotRegistry implements Registry {
+
+        private final RtspConnection rtspConnection = new RtspConnection();
+
+        @Override
+        public void add(WebsocketConnection connection) {
+            this.rtspConnection.addWebsocketConnection(connection);
+        }
+
+        @Override
+        public void remove(WebsocketConnection connection) {
+            this.rtspConnection.removeWebsocketConnection(connection);
+        }
+
+        @Override
+        public boolean contains(WebsocketConnection connection) {
+            return this.rtspConnection.containWebsocketConnection(connection);
+        }
+
+        @Override
+        public void foreach(Consumer<WebsocketConnection> consumer) {
+            this.rtspConnection.foreachConnections(consumer);
+        }
+    }
+}
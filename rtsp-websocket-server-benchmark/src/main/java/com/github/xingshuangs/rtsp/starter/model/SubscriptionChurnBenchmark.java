@@ -0,0 +1,86 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.benchmark.NoopWebSocketSession;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅和取消订阅频繁变化的基准测试，可与数据帧发布并发执行，观察订阅者快照重建对发布的影响
+ *
+ * @author xingshuang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionChurnBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int subscribers;
+
+    private RtspConnection rtspConnection;
+
+    private WebsocketConnection churnConnection;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        WebsocketProperties properties = new WebsocketProperties();
+        this.rtspConnection = new RtspConnection();
+        for (int i = 0; i < this.subscribers; i++) {
+            this.rtspConnection.addWebsocketConnection(new WebsocketConnection(
+                    new NoopWebSocketSession(String.valueOf(i)), Runnable::run, properties));
+        }
+        this.churnConnection = new WebsocketConnection(new NoopWebSocketSession("churn"), Runnable::run, properties);
+    }
+
+    @Benchmark
+    public void subscribeUnsubscribe() {
+        this.rtspConnection.addWebsocketConnection(this.churnConnection);
+        this.rtspConnection.removeWebsocketConnection(this.churnConnection);
+    }
+
+    @Benchmark
+    @Group("churnWithPublish")
+    @GroupThreads(1)
+    public void churn() {
+        this.rtspConnection.addWebsocketConnection(this.churnConnection);
+        this.rtspConnection.removeWebsocketConnection(this.churnConnection);
+    }
+
+    @Benchmark
+    @Group("churnWithPublish")
+    @GroupThreads(1)
+    public void publish(Blackhole blackhole) {
+        this.rtspConnection.foreachConnections(blackhole::consume);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.config;
+
+
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程池的配置
+ *
+ * @author xingshuang
+ */
+@Configuration
+public class ThreadPoolConfig {
+
+    /**
+     * websocket发送线程池，线程只负责取出消息和发起容器的异步发送，不等待慢速连接的网络写入，响应式传输不需要
+     *
+     * @param rtspProperties rtsp配置
+     * @return ExecutorService
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public ExecutorService websocketSendExecutor(RtspProperties rtspProperties) {
+        int threads = rtspProperties.getWebsocket().getSendThreads();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("ws-send-"));
+    }
+
+    /**
+     * rtsp连接线程池，握手在此完成，不占用websocket的处理线程
+     *
+     * @param rtspProperties rtsp配置
+     * @return ExecutorService
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService rtspConnectExecutor(RtspProperties rtspProperties) {
+        int threads = rtspProperties.getConnect().getThreads();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("rtsp-connect-"));
+    }
+
+    /**
+     * rtsp定时任务线程池，用于握手超时等定时任务
+     *
+     * @return ScheduledExecutorService
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService rtspScheduledExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("rtsp-schedule-"));
+        // 取消的任务立即移出队列，避免大量已取消的超时任务堆积
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * websocket批量发送的定时线程池，攒批刷新频繁，与rtsp的停止、重连、丢包检查等定时任务隔离
+     *
+     * @return ScheduledExecutorService
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService websocketBatchExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("ws-batch-"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 回看的定时线程池，按录制节奏读取缓存文件并发送，与rtsp的定时任务隔离
+     *
+     * @return ScheduledExecutorService
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService dvrPlaybackExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("dvr-playback-"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -26,6 +26,7 @@ package com.github.xingshuangs.rtsp.starter.config;
 
 
 import com.github.xingshuangs.rtsp.starter.service.RtspWebsocketHandler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
@@ -38,6 +39,7 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
  */
 @Configuration
 @EnableWebSocket
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WebsocketConfig implements WebSocketConfigurer {
 
     private final RtspWebsocketHandler rtspWebsocketHandler;
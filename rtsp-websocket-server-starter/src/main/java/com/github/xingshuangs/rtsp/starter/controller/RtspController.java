@@ -25,11 +25,16 @@
 package com.github.xingshuangs.rtsp.starter.controller;
 
 
+import com.github.xingshuangs.rtsp.starter.model.ChannelStatus;
+import com.github.xingshuangs.rtsp.starter.model.ClusterMember;
 import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
 import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import com.github.xingshuangs.rtsp.starter.service.RtspManager;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.List;
@@ -44,8 +49,11 @@ public class RtspController {
 
     private final RtspProperties rtspProperties;
 
-    public RtspController(RtspProperties rtspProperties) {
+    private final RtspManager rtspManager;
+
+    public RtspController(RtspProperties rtspProperties, RtspManager rtspManager) {
         this.rtspProperties = rtspProperties;
+        this.rtspManager = rtspManager;
     }
 
     @GetMapping("/channel/number")
@@ -53,4 +61,23 @@ public class RtspController {
         List<Integer> numbers = this.rtspProperties.getAddresses().stream().map(RtspAddress::getNumber).collect(Collectors.toList());
         return ResponseEntity.ok(numbers);
     }
+
+    @GetMapping("/channel/status")
+    public ResponseEntity<List<ChannelStatus>> getChannelStatus() {
+        return ResponseEntity.ok(this.rtspManager.getChannelStatuses());
+    }
+
+    @GetMapping("/cluster/members")
+    public ResponseEntity<List<ClusterMember>> getClusterMembers() {
+        return ResponseEntity.ok(this.rtspManager.getClusterMembers());
+    }
+
+    @PutMapping("/cluster/members")
+    public ResponseEntity<List<ClusterMember>> updateClusterMembers(@RequestBody List<ClusterMember> members) {
+        if (!this.rtspProperties.getCluster().isEnabled()) {
+            return ResponseEntity.badRequest().build();
+        }
+        this.rtspManager.updateClusterMembers(members);
+        return ResponseEntity.ok(this.rtspManager.getClusterMembers());
+    }
 }
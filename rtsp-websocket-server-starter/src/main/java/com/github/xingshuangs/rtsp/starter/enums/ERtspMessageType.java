@@ -36,6 +36,11 @@ public enum ERtspMessageType {
      */
     SUBSCRIBE,
 
+    /**
+     * 订阅已受理，rtsp连接中
+     */
+    PENDING,
+
     /**
      * 取消订阅
      */
@@ -46,6 +51,21 @@ public enum ERtspMessageType {
      */
     QUERY,
 
+    /**
+     * 批量发送，content为攒批间隔的毫秒数，0表示关闭
+     */
+    BATCH,
+
+    /**
+     * 回看，content为回看的秒数，0表示回到实时，响应的content为实际回看的秒数
+     */
+    SEEK,
+
+    /**
+     * 重定向，视频通道属于集群中的其他节点，content为该节点的websocket地址
+     */
+    REDIRECT,
+
     /**
      * 错误
      */
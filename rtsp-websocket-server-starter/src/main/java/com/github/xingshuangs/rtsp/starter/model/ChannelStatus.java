@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 视频通道的状态快照
+ *
+ * @author xingshuang
+ */
+@Data
+public class ChannelStatus {
+
+    /**
+     * 视频通道编号
+     */
+    private Integer number;
+
+    /**
+     * 码流名称
+     */
+    private String variant;
+
+    /**
+     * 是否预热的常驻通道
+     */
+    private boolean prewarm;
+
+    /**
+     * 所属集群成员标识，未开启集群则为null
+     */
+    private String owner;
+
+    /**
+     * 是否已构建rtsp连接
+     */
+    private boolean connected;
+
+    /**
+     * 是否正在推流，即视频头已下发
+     */
+    private boolean streaming;
+
+    /**
+     * 视频编码
+     */
+    private String codec;
+
+    /**
+     * 当前rtsp会话的开始时间
+     */
+    private LocalDateTime startTime;
+
+    /**
+     * 码率，单位bit/s
+     */
+    private long bitrate;
+
+    /**
+     * 累计重连次数
+     */
+    private long reconnectCount;
+
+    /**
+     * 当前的传输协议，UDP或TCP
+     */
+    private String transport;
+
+    /**
+     * 源节点的websocket地址，边缘节点从源节点转发时有值
+     */
+    private String origin;
+
+    /**
+     * 可回看的时长，单位秒，未开启回看则为0
+     */
+    private long dvrSeconds;
+
+    /**
+     * 最近一个统计周期的RTP丢包率，0~1，TCP传输时为0
+     */
+    private double rtpLossRate;
+
+    /**
+     * 订阅者数量
+     */
+    private int subscriberCount;
+
+    /**
+     * 订阅者
+     */
+    private List<SubscriberStatus> subscribers;
+}
@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import com.github.xingshuangs.rtsp.starter.properties.ClusterProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * 集群路由，视频通道编号按一致性哈希(ketama)分配给集群成员，成员增减时只有少量通道的归属发生变化；
+ * 未开启集群或成员列表为空时所有通道都属于本节点
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class ClusterRouter {
+
+    /**
+     * 本节点的成员标识
+     */
+    private final String selfId;
+
+    /**
+     * 每个成员的虚拟节点数量
+     */
+    private final int virtualNodes;
+
+    /**
+     * 哈希环，整体替换，读取无需加锁
+     */
+    private volatile NavigableMap<Long, ClusterMember> ring = Collections.emptyNavigableMap();
+
+    /**
+     * 成员列表
+     */
+    private volatile List<ClusterMember> members = Collections.emptyList();
+
+    public ClusterRouter(ClusterProperties properties) {
+        this.selfId = properties.getSelfId();
+        this.virtualNodes = Math.max(4, properties.getVirtualNodes());
+        if (properties.isEnabled()) {
+            this.update(properties.getMembers());
+        }
+    }
+
+    /**
+     * 更新成员列表，重建哈希环
+     *
+     * @param members 成员列表
+     */
+    public synchronized void update(List<ClusterMember> members) {
+        NavigableMap<Long, ClusterMember> newRing = new TreeMap<>();
+        for (ClusterMember member : members) {
+            // 每个摘要产生4个虚拟节点
+            for (int i = 0; i < this.virtualNodes / 4; i++) {
+                byte[] digest = md5(member.getId() + "-" + i);
+                for (int j = 0; j < 4; j++) {
+                    newRing.put(hash(digest, j), member);
+                }
+            }
+        }
+        if (!members.isEmpty() && members.stream().noneMatch(x -> x.getId().equals(this.selfId))) {
+            log.warn("本节点[{}]不在集群成员列表中，不负责任何视频通道", this.selfId);
+        }
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+        this.ring = newRing;
+    }
+
+    /**
+     * 获取视频通道编号所属的成员
+     *
+     * @param channelNumber 视频通道编号
+     * @return 成员，未开启集群则为null
+     */
+    public ClusterMember ownerOf(Integer channelNumber) {
+        NavigableMap<Long, ClusterMember> current = this.ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, ClusterMember> entry = current.ceilingEntry(hash(md5(String.valueOf(channelNumber)), 0));
+        return entry == null ? current.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * 视频通道编号是否属于本节点
+     *
+     * @param channelNumber 视频通道编号
+     * @return true：属于本节点，false：属于其他成员
+     */
+    public boolean isLocal(Integer channelNumber) {
+        ClusterMember owner = this.ownerOf(channelNumber);
+        return owner == null || owner.getId().equals(this.selfId);
+    }
+
+    /**
+     * 是否开启了集群
+     *
+     * @return true：开启，false：未开启
+     */
+    public boolean isEnabled() {
+        return !this.ring.isEmpty();
+    }
+
+    public String getSelfId() {
+        return selfId;
+    }
+
+    public List<ClusterMember> getMembers() {
+        return members;
+    }
+
+    /**
+     * 摘要中第index组4个字节组成的无符号整数
+     *
+     * @param digest 摘要
+     * @param index  组序号，0~3
+     * @return 哈希值
+     */
+    private static long hash(byte[] digest, int index) {
+        return ((long) (digest[3 + index * 4] & 0xFF) << 24)
+                | ((long) (digest[2 + index * 4] & 0xFF) << 16)
+                | ((long) (digest[1 + index * 4] & 0xFF) << 8)
+                | (digest[index * 4] & 0xFF);
+    }
+
+    private static byte[] md5(String key) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
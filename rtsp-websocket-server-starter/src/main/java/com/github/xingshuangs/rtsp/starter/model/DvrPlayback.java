@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * 单个订阅者单个视频通道的回放，从回看缓存中按录制时的时间节奏读取媒体片段
+ *
+ * @author xingshuang
+ */
+public class DvrPlayback {
+
+    /**
+     * 视频通道编号
+     */
+    private final Integer channelNumber;
+
+    /**
+     * 回看缓存
+     */
+    private final DvrRing ring;
+
+    /**
+     * 读取位置
+     */
+    private final DvrRing.Cursor cursor;
+
+    /**
+     * 回放起点的录制时间，单位毫秒
+     */
+    private final long startRecordTime;
+
+    /**
+     * 回放开始的时间，单位纳秒
+     */
+    private final long startNanoTime = System.nanoTime();
+
+    /**
+     * 定时发送的任务
+     */
+    private volatile ScheduledFuture<?> future;
+
+    public DvrPlayback(Integer channelNumber, DvrRing ring, DvrRing.Cursor cursor) {
+        this.channelNumber = channelNumber;
+        this.ring = ring;
+        this.cursor = cursor;
+        this.startRecordTime = cursor.getTime();
+    }
+
+    /**
+     * 读取下一个已到发送时间的媒体片段
+     *
+     * @return FMP4媒体片段，没有则为null
+     */
+    public byte[] next() {
+        long until = this.startRecordTime + (System.nanoTime() - this.startNanoTime) / 1_000_000;
+        return this.ring.read(this.cursor, until);
+    }
+
+    /**
+     * 是否已失效，回放位置的数据已被覆盖或缓存已重置
+     *
+     * @return true：失效，false：有效
+     */
+    public boolean isExpired() {
+        return !this.cursor.isValid();
+    }
+
+    /**
+     * 停止回放
+     */
+    public void cancel() {
+        ScheduledFuture<?> current = this.future;
+        if (current != null) {
+            current.cancel(false);
+        }
+    }
+
+    public Integer getChannelNumber() {
+        return channelNumber;
+    }
+
+    public long getStartRecordTime() {
+        return startRecordTime;
+    }
+
+    public void setFuture(ScheduledFuture<?> future) {
+        this.future = future;
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 回看的环形缓存，FMP4媒体片段依次写入预分配的内存映射分段文件，写满后覆盖最旧的分段，磁盘占用固定，数据不在堆内存中；
+ * 关键帧的时间索引保存在堆内存中，每个关键帧一条。
+ * 记录格式：4个字节数据长度 + 8个字节录制时间(毫秒) + FMP4数据，长度为0表示该分段结束
+ *
+ * @author xingshuang
+ */
+public class DvrRing {
+
+    /**
+     * 记录头的长度
+     */
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /**
+     * 单个分段的大小
+     */
+    private final int segmentSize;
+
+    /**
+     * 内存映射的分段
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * 每个分段当前数据的代数，每开始写一个分段加1，相邻分段的代数连续，读取时据此判断数据是否已被覆盖
+     */
+    private final long[] generations;
+
+    /**
+     * 关键帧的时间索引，按时间顺序
+     */
+    private final ArrayDeque<KeyFrameIndex> index = new ArrayDeque<>();
+
+    /**
+     * 最新的代数
+     */
+    private long generation;
+
+    /**
+     * 重置的次数，重置后之前的读取位置全部失效
+     */
+    private long epoch;
+
+    /**
+     * 当前写入的分段
+     */
+    private int writeSegment;
+
+    /**
+     * 当前分段的写入位置
+     */
+    private int writeOffset;
+
+    /**
+     * 最新记录的录制时间
+     */
+    private long lastTime;
+
+    public DvrRing(Path directory, int segmentSize, int segmentCount) throws IOException {
+        if (segmentCount < 2) {
+            throw new IllegalArgumentException("分段数量不能小于2");
+        }
+        Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.segments = new MappedByteBuffer[segmentCount];
+        this.generations = new long[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // 预分配文件并映射，映射在文件关闭后仍然有效
+            try (RandomAccessFile file = new RandomAccessFile(directory.resolve("segment-" + i + ".dat").toFile(), "rw")) {
+                file.setLength(segmentSize);
+                this.segments[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+        }
+        this.generations[0] = ++this.generation;
+        this.segments[0].putInt(0, 0);
+    }
+
+    /**
+     * 追加媒体片段，超过单个分段大小的片段忽略
+     *
+     * @param fmp4Data FMP4媒体片段
+     * @param keyFrame 是否为关键帧片段
+     * @param time     录制时间，单位毫秒
+     * @return true：已写入，false：忽略
+     */
+    public synchronized boolean append(byte[] fmp4Data, boolean keyFrame, long time) {
+        int size = RECORD_HEADER_SIZE + fmp4Data.length;
+        // 预留4个字节的结束标记
+        if (size + 4 > this.segmentSize) {
+            return false;
+        }
+        if (this.writeOffset + size + 4 > this.segmentSize) {
+            this.advance();
+        }
+        if (keyFrame) {
+            this.index.addLast(new KeyFrameIndex(time, this.writeSegment, this.writeOffset, this.generations[this.writeSegment]));
+        }
+        MappedByteBuffer segment = this.segments[this.writeSegment];
+        ByteBuffer dst = segment.duplicate();
+        dst.position(this.writeOffset + 4);
+        dst.putLong(time);
+        dst.put(fmp4Data);
+        segment.putInt(this.writeOffset + size, 0);
+        // 最后写长度，读取不会看到不完整的记录
+        segment.putInt(this.writeOffset, fmp4Data.length);
+        this.writeOffset += size;
+        this.lastTime = time;
+        return true;
+    }
+
+    /**
+     * 清空，视频头变化(重新拉流)后之前的数据无法与新的视频头一起播放
+     */
+    public synchronized void reset() {
+        this.epoch++;
+        this.index.clear();
+        this.advance();
+    }
+
+    /**
+     * 定位到指定时间之前最近的关键帧，早于最旧的数据则定位到最旧的关键帧
+     *
+     * @param time 时间，单位毫秒
+     * @return 读取位置，没有数据则为null
+     */
+    public synchronized Cursor seek(long time) {
+        KeyFrameIndex found = this.index.peekFirst();
+        if (found == null) {
+            return null;
+        }
+        Iterator<KeyFrameIndex> iterator = this.index.descendingIterator();
+        while (iterator.hasNext()) {
+            KeyFrameIndex entry = iterator.next();
+            if (entry.time <= time) {
+                found = entry;
+                break;
+            }
+        }
+        return new Cursor(found.segment, found.offset, found.generation, this.epoch, found.time);
+    }
+
+    /**
+     * 读取下一条录制时间不晚于指定时间的记录，并移动读取位置
+     *
+     * @param cursor 读取位置
+     * @param until  最晚的录制时间，单位毫秒
+     * @return FMP4媒体片段，已读到最新位置或未到时间则为null，数据已被覆盖则读取位置失效
+     */
+    public synchronized byte[] read(Cursor cursor, long until) {
+        while (cursor.valid) {
+            if (cursor.epoch != this.epoch || this.generations[cursor.segment] != cursor.generation) {
+                cursor.valid = false;
+                break;
+            }
+            if (cursor.segment == this.writeSegment && cursor.offset == this.writeOffset) {
+                return null;
+            }
+            MappedByteBuffer segment = this.segments[cursor.segment];
+            int length = segment.getInt(cursor.offset);
+            if (length == 0) {
+                // 分段结束，相邻分段的代数连续则继续读取，否则已被覆盖
+                cursor.segment = (cursor.segment + 1) % this.segments.length;
+                cursor.offset = 0;
+                cursor.generation++;
+                continue;
+            }
+            long time = segment.getLong(cursor.offset + 4);
+            if (time > until) {
+                return null;
+            }
+            byte[] data = new byte[length];
+            ByteBuffer src = segment.duplicate();
+            src.position(cursor.offset + RECORD_HEADER_SIZE);
+            src.get(data);
+            cursor.offset += RECORD_HEADER_SIZE + length;
+            cursor.time = time;
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * 可回看的时长
+     *
+     * @return 时长，单位毫秒
+     */
+    public synchronized long getDuration() {
+        KeyFrameIndex first = this.index.peekFirst();
+        return first == null ? 0 : this.lastTime - first.time;
+    }
+
+    /**
+     * 关键帧索引的数量
+     *
+     * @return 数量
+     */
+    public synchronized int getKeyFrameCount() {
+        return this.index.size();
+    }
+
+    /**
+     * 开始写下一个分段，丢弃该分段中旧数据的索引
+     */
+    private void advance() {
+        this.segments[this.writeSegment].putInt(this.writeOffset, 0);
+        this.writeSegment = (this.writeSegment + 1) % this.segments.length;
+        this.writeOffset = 0;
+        this.generations[this.writeSegment] = ++this.generation;
+        this.segments[this.writeSegment].putInt(0, 0);
+        while (!this.index.isEmpty() && this.index.peekFirst().segment == this.writeSegment) {
+            this.index.pollFirst();
+        }
+    }
+
+    /**
+     * 关键帧的索引
+     */
+    private static class KeyFrameIndex {
+
+        private final long time;
+
+        private final int segment;
+
+        private final int offset;
+
+        private final long generation;
+
+        KeyFrameIndex(long time, int segment, int offset, long generation) {
+            this.time = time;
+            this.segment = segment;
+            this.offset = offset;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 读取位置，由单个回放独占
+     */
+    public static class Cursor {
+
+        private int segment;
+
+        private int offset;
+
+        private long generation;
+
+        private final long epoch;
+
+        /**
+         * 最近读取的记录的录制时间，初始为定位到的关键帧的时间
+         */
+        private long time;
+
+        /**
+         * 是否有效，数据被覆盖或缓存被重置后失效
+         */
+        private boolean valid = true;
+
+        Cursor(int segment, int offset, long generation, long epoch, long time) {
+            this.segment = segment;
+            this.offset = offset;
+            this.generation = generation;
+            this.epoch = epoch;
+            this.time = time;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+    }
+}
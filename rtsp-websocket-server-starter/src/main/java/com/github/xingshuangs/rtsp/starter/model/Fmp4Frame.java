@@ -0,0 +1,262 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import com.github.xingshuangs.iot.common.buff.ByteWriteBuff;
+import com.github.xingshuangs.rtsp.starter.utils.Fmp4Util;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 带视频通道编号前缀的FMP4数据帧，一帧数据只构建一次，所有订阅者共享，不拷贝原始数据；
+ * 带前缀的堆内存数据只在servlet等堆内存传输首次使用时拼接，Netty传输直接使用直接内存
+ *
+ * @author xingshuang
+ */
+public class Fmp4Frame {
+
+    /**
+     * 视频通道编号
+     */
+    private final Integer channelNumber;
+
+    /**
+     * 原始的视频数据，所有订阅者共享，不能修改
+     */
+    private final byte[] data;
+
+    /**
+     * 视频通道编号和box头，最多12个字节，用于丢帧判定和统计，不含完整数据
+     */
+    private final ByteBuffer summary;
+
+    /**
+     * 是否为关键帧片段
+     */
+    private final boolean keyFrame;
+
+    /**
+     * 是否为媒体片段
+     */
+    private final boolean mediaSegment;
+
+    /**
+     * 是否为ftyp+moov的视频头
+     */
+    private final boolean initSegment;
+
+    /**
+     * 只读数据，前4个字节是视频通道编号，后面的是视频数据，首次使用时拼接，受this锁保护
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Netty传输使用的直接内存数据，4个字节视频通道编号和视频数据两部分组成，订阅者之间通过引用计数共享，受this锁保护
+     */
+    private CompositeByteBuf directBuffer;
+
+    /**
+     * 共享直接内存数据的持有者数量，初始为创建方，视频头和GOP缓存缓存期间也各持有一份，归零后释放，受this锁保护
+     */
+    private int holders = 1;
+
+    private Fmp4Frame(Integer channelNumber, byte[] data, boolean keyFrame, boolean mediaSegment, boolean initSegment) {
+        this.channelNumber = channelNumber;
+        this.data = data;
+        int headerLength = Math.min(8, data.length);
+        this.summary = ByteBuffer.allocate(4 + headerLength)
+                .putInt(channelNumber)
+                .put(data, 0, headerLength);
+        this.summary.flip();
+        this.keyFrame = keyFrame;
+        this.mediaSegment = mediaSegment;
+        this.initSegment = initSegment;
+    }
+
+    /**
+     * 创建H.264的数据帧
+     *
+     * @param channelNumber 视频通道编号
+     * @param fmp4Data      FMP4的数据
+     * @return Fmp4Frame
+     */
+    public static Fmp4Frame create(Integer channelNumber, byte[] fmp4Data) {
+        return create(channelNumber, fmp4Data, false);
+    }
+
+    /**
+     * 创建数据帧，直接引用FMP4的数据，调用方之后不能修改
+     *
+     * @param channelNumber 视频通道编号
+     * @param fmp4Data      FMP4的数据
+     * @param hevc          是否为H.265
+     * @return Fmp4Frame
+     */
+    public static Fmp4Frame create(Integer channelNumber, byte[] fmp4Data, boolean hevc) {
+        return new Fmp4Frame(channelNumber, fmp4Data,
+                Fmp4Util.isKeyFrame(fmp4Data, hevc), Fmp4Util.isMediaSegment(fmp4Data), Fmp4Util.isInitSegment(fmp4Data));
+    }
+
+    public Integer getChannelNumber() {
+        return channelNumber;
+    }
+
+    public boolean isKeyFrame() {
+        return keyFrame;
+    }
+
+    public boolean isMediaSegment() {
+        return mediaSegment;
+    }
+
+    public boolean isInitSegment() {
+        return initSegment;
+    }
+
+    /**
+     * 获取数据长度，包含4个字节的视频通道编号
+     *
+     * @return 数据长度
+     */
+    public int getLength() {
+        return 4 + this.data.length;
+    }
+
+    /**
+     * 以批量记录的格式写入：4个字节视频通道编号 + 4个字节视频数据长度 + 视频数据
+     *
+     * @param dst 目标缓存
+     */
+    public void writeRecord(ByteBuffer dst) {
+        dst.putInt(this.channelNumber);
+        dst.putInt(this.data.length);
+        dst.put(this.data);
+    }
+
+    /**
+     * 获取视频通道编号和box头的只读视图
+     *
+     * @return 只读数据，独立的position
+     */
+    public ByteBuffer getSummary() {
+        return this.summary.asReadOnlyBuffer();
+    }
+
+    /**
+     * 增加一个直接内存数据的持有者，视频头和GOP缓存在缓存期间持有，避免回放时重新申请
+     *
+     * @return true：成功，false：共享数据已释放
+     */
+    public boolean retainDirectBuffer() {
+        synchronized (this) {
+            if (this.holders <= 0) {
+                return false;
+            }
+            this.holders++;
+            return true;
+        }
+    }
+
+    /**
+     * 获取直接内存数据的引用，首次调用时从分配器申请，之后的订阅者共享同一份数据，调用方负责释放返回的引用；
+     * 所有持有者都已释放(如淘汰出GOP缓存后仍在补发)时单独申请一份，由调用方独占
+     *
+     * @param allocator 内存分配器
+     * @return 直接内存数据，独立的读写索引
+     */
+    public ByteBuf retainedDirectBuffer(ByteBufAllocator allocator) {
+        synchronized (this) {
+            if (this.holders <= 0) {
+                return this.createDirectBuffer(allocator);
+            }
+            if (this.directBuffer == null) {
+                this.directBuffer = this.createDirectBuffer(allocator);
+            }
+            return this.directBuffer.retainedDuplicate();
+        }
+    }
+
+    /**
+     * 释放一个持有者，创建方在分发完成后调用，视频头和GOP缓存在移除时调用，最后一个持有者释放共享的直接内存，
+     * 已分发的引用不受影响
+     */
+    public void releaseDirectBuffer() {
+        synchronized (this) {
+            if (this.holders <= 0 || --this.holders > 0) {
+                return;
+            }
+            if (this.directBuffer != null) {
+                this.directBuffer.release();
+                this.directBuffer = null;
+            }
+        }
+    }
+
+    /**
+     * 申请直接内存，视频通道编号和视频数据作为两个组件，视频数据只拷贝一次
+     *
+     * @param allocator 内存分配器
+     * @return 直接内存数据
+     */
+    private CompositeByteBuf createDirectBuffer(ByteBufAllocator allocator) {
+        ByteBuf prefix = allocator.directBuffer(4).writeInt(this.channelNumber);
+        ByteBuf content = allocator.directBuffer(this.data.length).writeBytes(this.data);
+        return allocator.compositeDirectBuffer(2).addComponents(true, prefix, content);
+    }
+
+    /**
+     * 转换为websocket的二进制消息，发送会移动缓存的position，因此每个订阅者使用独立的视图，底层数据共享
+     *
+     * @return BinaryMessage
+     */
+    public BinaryMessage toBinaryMessage() {
+        synchronized (this) {
+            if (this.payload == null) {
+                // 前4个字节是视频通道编号，后面的是视频数据
+                byte[] buff = ByteWriteBuff.newInstance(4 + this.data.length)
+                        .putInteger(this.channelNumber)
+                        .putBytes(this.data)
+                        .getData();
+                this.payload = ByteBuffer.wrap(buff).asReadOnlyBuffer();
+            }
+            return new BinaryMessage(this.payload.duplicate());
+        }
+    }
+
+    /**
+     * 转换为只有视频数据的二进制消息，不含视频通道编号，用于HTTP流等只有一个视频通道的传输；
+     * 直接包装原始数据，便于以数组方式写出，底层数据共享，调用方不能修改
+     *
+     * @return BinaryMessage
+     */
+    public BinaryMessage toDataMessage() {
+        return new BinaryMessage(ByteBuffer.wrap(this.data));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import com.github.xingshuangs.rtsp.starter.utils.Fmp4Util;
+import org.springframework.web.socket.BinaryMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * 多个视频通道的数据帧合并为一个二进制消息，非线程安全，由调用方加锁
+ * <p>
+ * 格式：4个字节的批量标识(0xFFFFFFFF，不是合法的视频通道编号)，之后是若干条记录，
+ * 每条记录为4个字节视频通道编号 + 4个字节视频数据长度 + 视频数据，均为大端；
+ * 只有一个数据帧时直接使用原有的单帧格式：4个字节视频通道编号 + 视频数据
+ *
+ * @author xingshuang
+ */
+public class Fmp4FrameBatch {
+
+    /**
+     * 批量标识
+     */
+    public static final int BATCH_MARKER = 0xFFFFFFFF;
+
+    /**
+     * 待合并的数据帧
+     */
+    private final List<Fmp4Frame> frames = new ArrayList<>();
+
+    /**
+     * 合并后的字节数
+     */
+    private int bytes = 4;
+
+    /**
+     * 添加数据帧
+     *
+     * @param frame 数据帧
+     */
+    public void add(Fmp4Frame frame) {
+        this.frames.add(frame);
+        // 数据帧的长度已包含4个字节的视频通道编号，再加4个字节的视频数据长度
+        this.bytes += frame.getLength() + 4;
+    }
+
+    public boolean isEmpty() {
+        return this.frames.isEmpty();
+    }
+
+    public int size() {
+        return this.frames.size();
+    }
+
+    /**
+     * 获取合并后的字节数
+     *
+     * @return 字节数
+     */
+    public int getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * 合并为一个二进制消息并清空
+     *
+     * @return BinaryMessage
+     */
+    public BinaryMessage toBinaryMessage() {
+        BinaryMessage message;
+        if (this.frames.size() == 1) {
+            message = this.frames.get(0).toBinaryMessage();
+        } else {
+            ByteBuffer buff = ByteBuffer.allocate(this.bytes);
+            buff.putInt(BATCH_MARKER);
+            for (Fmp4Frame frame : this.frames) {
+                frame.writeRecord(buff);
+            }
+            buff.flip();
+            message = new BinaryMessage(buff);
+        }
+        this.frames.clear();
+        this.bytes = 4;
+        return message;
+    }
+
+    /**
+     * 二进制消息是否只包含媒体片段，兼容单帧和批量两种格式，包含视频头则必须送达
+     *
+     * @param payload 二进制消息的数据，不会移动position
+     * @return true：是，false：否
+     */
+    public static boolean isMediaOnly(ByteBuffer payload) {
+        int index = payload.position();
+        if (payload.remaining() < 4 || payload.getInt(index) != BATCH_MARKER) {
+            return Fmp4Util.isMediaSegment(payload, index + 4);
+        }
+        index += 4;
+        while (index + 8 <= payload.limit()) {
+            if (!Fmp4Util.isMediaSegment(payload, index + 8)) {
+                return false;
+            }
+            index += 8 + payload.getInt(index + 4);
+        }
+        return true;
+    }
+
+    /**
+     * 遍历二进制消息中的视频通道编号，兼容单帧和批量两种格式
+     *
+     * @param payload  二进制消息的数据，不会移动position
+     * @param consumer 视频通道编号的动作
+     */
+    public static void foreachChannelNumber(ByteBuffer payload, IntConsumer consumer) {
+        if (payload.remaining() < 4) {
+            return;
+        }
+        int index = payload.position();
+        int first = payload.getInt(index);
+        if (first != BATCH_MARKER) {
+            consumer.accept(first);
+            return;
+        }
+        index += 4;
+        while (index + 8 <= payload.limit()) {
+            consumer.accept(payload.getInt(index));
+            index += 8 + payload.getInt(index + 4);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * GOP缓存，缓存最近一个关键帧以来的所有数据帧，新订阅者加入后立即回放，无需等待下一个关键帧；
+ * 缓存期间持有数据帧共享的直接内存，回放时不再重新申请，移除时释放
+ * 非线程安全，由RtspConnection负责加锁
+ *
+ * @author xingshuang
+ */
+public class GopCache {
+
+    /**
+     * 单个视频通道的内存上限，单位字节
+     */
+    private final long maxBytes;
+
+    /**
+     * 全局内存预算
+     */
+    private final GopCacheBudget budget;
+
+    /**
+     * 缓存的数据帧，第一帧为关键帧
+     */
+    private final List<Fmp4Frame> frames = new ArrayList<>();
+
+    /**
+     * 当前缓存的字节数
+     */
+    private long bytes;
+
+    /**
+     * 当前GOP是否完整缓存，超出上限后失效，直到下一个关键帧
+     */
+    private boolean valid;
+
+    public GopCache(long maxBytes, GopCacheBudget budget) {
+        this.maxBytes = maxBytes;
+        this.budget = budget;
+    }
+
+    /**
+     * 添加数据帧，遇到关键帧则重新开始缓存
+     *
+     * @param frame 数据帧
+     */
+    public void add(Fmp4Frame frame) {
+        if (frame.isKeyFrame()) {
+            this.clear();
+            this.valid = true;
+        }
+        if (!this.valid) {
+            return;
+        }
+        int length = frame.getLength();
+        // 超出上限的GOP不完整，回放会导致花屏，直接丢弃整个GOP
+        if (this.bytes + length > this.maxBytes || !this.budget.tryAcquire(length)) {
+            this.clear();
+            return;
+        }
+        this.frames.add(frame);
+        this.bytes += length;
+        frame.retainDirectBuffer();
+    }
+
+    /**
+     * 遍历缓存的数据帧
+     *
+     * @param consumer 动作
+     */
+    public void forEach(Consumer<Fmp4Frame> consumer) {
+        this.frames.forEach(consumer);
+    }
+
+    /**
+     * 清空缓存并释放内存
+     */
+    public void clear() {
+        this.budget.release(this.bytes);
+        this.frames.forEach(Fmp4Frame::releaseDirectBuffer);
+        this.frames.clear();
+        this.bytes = 0;
+        this.valid = false;
+    }
+
+    public int getFrameCount() {
+        return this.frames.size();
+    }
+
+    public long getBytes() {
+        return this.bytes;
+    }
+}
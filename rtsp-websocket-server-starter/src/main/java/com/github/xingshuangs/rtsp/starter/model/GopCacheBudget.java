@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GOP缓存的全局内存预算，所有视频通道共享
+ *
+ * @author xingshuang
+ */
+public class GopCacheBudget {
+
+    /**
+     * 内存上限，单位字节
+     */
+    private final long maxBytes;
+
+    /**
+     * 已使用的内存，单位字节
+     */
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    public GopCacheBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 尝试申请内存
+     *
+     * @param bytes 字节数
+     * @return true：申请成功，false：超出上限
+     */
+    public boolean tryAcquire(long bytes) {
+        while (true) {
+            long used = this.usedBytes.get();
+            if (used + bytes > this.maxBytes) {
+                return false;
+            }
+            if (this.usedBytes.compareAndSet(used, used + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放内存
+     *
+     * @param bytes 字节数
+     */
+    public void release(long bytes) {
+        this.usedBytes.addAndGet(-bytes);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+}
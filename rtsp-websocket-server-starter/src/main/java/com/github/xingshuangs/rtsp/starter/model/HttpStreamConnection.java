@@ -0,0 +1,284 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import com.github.xingshuangs.rtsp.starter.utils.Fmp4Util;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * HTTP流式响应的连接器，与websocket订阅者挂在同一个rtsp连接上，先收到视频头，再收到实时的媒体片段；
+ * 响应体是连续的FMP4数据，不含视频通道编号，不发送codec等文本消息；
+ * 以Servlet 3.1非阻塞方式写出，输出流不可写时消息在发送队列中积压，可写后由容器回调继续发送，不占用容器线程；
+ * 发送队列、溢出策略和高水位丢帧与websocket一致
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class HttpStreamConnection extends WebsocketConnection implements WriteListener {
+
+    /**
+     * HTTP流式响应的发送端
+     */
+    private final HttpStreamSink httpSink;
+
+    /**
+     * 响应的输出流
+     */
+    private final ServletOutputStream outputStream;
+
+    /**
+     * 输出流是否可写，isReady返回false后由容器回调onWritePossible恢复
+     */
+    private volatile boolean writable;
+
+    /**
+     * 是否有已写出但未刷新的数据
+     */
+    private volatile boolean unflushed;
+
+    /**
+     * 已发送的视频头
+     */
+    private final AtomicReference<Fmp4Frame> sentHeader = new AtomicReference<>();
+
+    public HttpStreamConnection(HttpStreamSink sink, Executor sendExecutor, WebsocketProperties properties) {
+        super(sink, sendExecutor, properties);
+        this.httpSink = sink;
+        this.outputStream = sink.getOutputStream();
+    }
+
+    /**
+     * 响应中只有一个视频头，重复的视频头不再发送；视频头变化(如重新拉流后编码参数变化)后之前的响应无法继续播放，
+     * 结束响应，由客户端重新请求；视频头之前的媒体片段和其他数据丢弃
+     *
+     * @param frame   数据帧
+     * @param catchUp 是否为加入时补发的GOP缓存
+     * @return true：已放入发送队列，false：被丢弃
+     */
+    @Override
+    public boolean sendFrame(Fmp4Frame frame, boolean catchUp) {
+        if (frame.isInitSegment()) {
+            Fmp4Frame sent = this.sentHeader.get();
+            if (sent == null && this.sentHeader.compareAndSet(null, frame)) {
+                return super.sendFrame(frame, catchUp);
+            }
+            sent = this.sentHeader.get();
+            if (sent != frame && !sent.toDataMessage().getPayload().equals(frame.toDataMessage().getPayload())) {
+                log.info("HTTP流[{}]视频通道编号[{}]的视频头变化，结束响应", this.getSink().getId(), frame.getChannelNumber());
+                this.httpSink.close(CloseStatus.NORMAL);
+            }
+            return false;
+        } else if (!frame.isMediaSegment() || this.sentHeader.get() == null) {
+            this.getDropCount().incrementAndGet();
+            return false;
+        }
+        return super.sendFrame(frame, catchUp);
+    }
+
+    /**
+     * 文本消息(codec、错误、重定向等)无法在响应体中表达，忽略
+     *
+     * @param message 消息数据
+     */
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        if (message instanceof BinaryMessage) {
+            super.sendMessage(message);
+        }
+    }
+
+    /**
+     * 视频通道被移除(rtsp连接关闭、集群迁移等)后响应没有后续数据，结束响应
+     *
+     * @param number 视频通道编号
+     * @return 移除的码流名称，未订阅则为null
+     */
+    @Override
+    public String removeChannelNumber(Integer number) {
+        String variant = super.removeChannelNumber(number);
+        if (variant != null && !this.hasChannelNumber()) {
+            this.httpSink.close(CloseStatus.NORMAL);
+        }
+        return variant;
+    }
+
+    /**
+     * 响应体只有视频数据，不含视频通道编号，不拷贝数据
+     *
+     * @param frame 数据帧
+     * @return 消息数据
+     */
+    @Override
+    protected WebSocketMessage<?> createFrameMessage(Fmp4Frame frame) {
+        return frame.toDataMessage();
+    }
+
+    /**
+     * 响应体中只有视频数据，以moof开头的为媒体片段
+     *
+     * @param message 消息数据
+     * @return true：可丢弃，false：不可丢弃
+     */
+    @Override
+    protected boolean isDroppable(WebSocketMessage<?> message) {
+        if (!(message.getPayload() instanceof ByteBuffer)) {
+            return false;
+        }
+        ByteBuffer payload = (ByteBuffer) message.getPayload();
+        return Fmp4Util.isMediaSegment(payload, payload.position());
+    }
+
+    /**
+     * 响应体中不含视频通道编号，只有一个订阅的视频通道
+     *
+     * @param message  消息数据
+     * @param consumer 视频通道编号的动作
+     */
+    @Override
+    protected void foreachChannelNumber(WebSocketMessage<?> message, IntConsumer consumer) {
+        this.foreachChannelNumbers(consumer);
+    }
+
+    /**
+     * 输出流可写，容器在注册监听器后及isReady返回false之后恢复可写时回调
+     */
+    @Override
+    public void onWritePossible() {
+        this.writable = true;
+        this.scheduleSend();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        log.debug("HTTP流[{}]写出失败，{}", this.getSink().getId(), throwable.getMessage());
+        this.httpSink.close(CloseStatus.SERVER_ERROR);
+        this.onClosed();
+    }
+
+    /**
+     * 异步请求结束，释放发送队列中的消息
+     */
+    public void onClosed() {
+        this.httpSink.onClosed();
+        this.clearSendQueue();
+    }
+
+    /**
+     * 调度到发送线程池中写出，同一时刻每个连接只有一个写出任务
+     */
+    @Override
+    protected void scheduleSend() {
+        if ((this.getSendQueue().isEmpty() && !this.unflushed) || !this.writable || !this.getSending().compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.getSendExecutor().execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            this.getSending().set(false);
+            log.error("HTTP流[{}]发送任务被拒绝", this.getSink().getId());
+        }
+    }
+
+    /**
+     * 写出发送队列中的消息，直到输出流不可写或达到单次调度的上限，剩余的消息重新调度，不长期占用发送线程；
+     * 先置为不可写再调用isReady，避免isReady返回false后容器的回调早于置位而丢失
+     */
+    private void drain() {
+        try {
+            WebSocketMessage<?> message;
+            int count = 0;
+            while (count < MAX_SEND_BATCH && this.getSink().isOpen() && !this.getSendQueue().isEmpty() && this.checkReady()
+                    && (message = this.getSendQueue().poll()) != null) {
+                int length = message.getPayloadLength();
+                this.httpSink.send(message, e -> this.onWritten(length, e));
+                count++;
+            }
+            // 数据写入容器的响应缓存，刷新后作为chunk发出
+            if (this.unflushed && this.getSink().isOpen() && this.checkReady()) {
+                this.httpSink.flush();
+                this.unflushed = false;
+            }
+            // 有积压但输出流不可写，从此刻开始计算发送超时，超过发送时间上限后入队时关闭连接
+            if (this.getSendQueue().isEmpty()) {
+                this.setSendStartTime(0);
+            } else if (count > 0 || this.getSendStartTime() == 0) {
+                this.setSendStartTime(System.currentTimeMillis());
+            }
+        } catch (Exception e) {
+            log.debug("HTTP流[{}]写出失败，{}", this.getSink().getId(), e.getMessage());
+            this.httpSink.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } finally {
+            this.getSending().set(false);
+        }
+        if (this.getSink().isOpen()) {
+            this.scheduleSend();
+        } else {
+            this.clearSendQueue();
+        }
+    }
+
+    /**
+     * 一条消息写入输出流完成，失败则结束响应
+     *
+     * @param length 消息字节数
+     * @param error  失败的异常，成功时为null
+     */
+    private void onWritten(int length, Throwable error) {
+        if (error != null) {
+            log.debug("HTTP流[{}]写出失败，{}", this.getSink().getId(), error.getMessage());
+            this.httpSink.close(CloseStatus.SESSION_NOT_RELIABLE);
+            return;
+        }
+        this.unflushed = true;
+        this.onMessageSent(length);
+    }
+
+    /**
+     * 输出流是否可写
+     *
+     * @return true：可写，false：不可写，等待容器回调
+     */
+    private boolean checkReady() {
+        this.writable = false;
+        if (!this.outputStream.isReady()) {
+            return false;
+        }
+        this.writable = true;
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * HTTP流式响应的发送端，消息的数据写入响应的输出流，由HttpStreamConnection按输出流的可写状态调度和刷新，关闭即结束异步响应
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class HttpStreamSink implements MessageSink {
+
+    /**
+     * 标识的序号，与websocket会话编号区分
+     */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final String id;
+
+    /**
+     * 异步请求的上下文
+     */
+    private final AsyncContext asyncContext;
+
+    /**
+     * 响应的输出流
+     */
+    private final ServletOutputStream outputStream;
+
+    /**
+     * 是否仍在响应中，异步请求结束、超时或出错后为false
+     */
+    private final AtomicBoolean open = new AtomicBoolean(true);
+
+    public HttpStreamSink(AsyncContext asyncContext) throws IOException {
+        this.id = "http-" + SEQUENCE.incrementAndGet();
+        this.asyncContext = asyncContext;
+        this.outputStream = asyncContext.getResponse().getOutputStream();
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * 异步请求已结束(客户端断开、超时或出错)，不再写出
+     */
+    public void onClosed() {
+        this.open.set(false);
+    }
+
+    /**
+     * 异步请求出错或超时，无论之前是否已关闭都结束异步响应，容器在回调后检查是否已结束，未结束则转发到错误页面
+     */
+    public void complete() {
+        this.open.set(false);
+        try {
+            this.asyncContext.complete();
+        } catch (Exception e) {
+            log.debug("HTTP流[{}]结束响应失败，{}", this.id, e.getMessage());
+        }
+    }
+
+    /**
+     * 刷新输出流，已写出的数据作为chunk发出
+     *
+     * @throws IOException 写出失败
+     */
+    public void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
+    @Override
+    public String getId() {
+        return this.id;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open.get();
+    }
+
+    /**
+     * 消息的数据写入输出流，调用方需确认输出流可写，写入容器的响应缓存即完成
+     *
+     * @param message  消息数据
+     * @param callback 发送完成的回调
+     */
+    @Override
+    public void send(WebSocketMessage<?> message, Consumer<Throwable> callback) {
+        ByteBuffer payload = (ByteBuffer) message.getPayload();
+        Throwable error = null;
+        try {
+            this.outputStream.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        } catch (Exception e) {
+            error = e;
+        }
+        callback.accept(error);
+    }
+
+    /**
+     * 结束异步响应，已写出的数据由容器发送完后以chunked的结束块结束
+     *
+     * @param status 关闭状态
+     */
+    @Override
+    public void close(CloseStatus status) {
+        if (!this.open.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            this.asyncContext.complete();
+        } catch (Exception e) {
+            log.debug("HTTP流[{}]结束响应失败，{}", this.id, e.getMessage());
+        }
+    }
+}
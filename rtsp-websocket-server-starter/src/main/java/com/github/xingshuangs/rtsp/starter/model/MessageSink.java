@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * 订阅者的发送端，屏蔽servlet websocket、响应式websocket、Netty websocket和HTTP流等传输方式的差异，
+ * WebsocketConnection及RtspManager只通过它发送消息、判断状态和关闭连接
+ *
+ * @author xingshuang
+ */
+public interface MessageSink {
+
+    /**
+     * 获取唯一标识
+     *
+     * @return 标识
+     */
+    String getId();
+
+    /**
+     * 是否打开
+     *
+     * @return true：打开，false：已关闭
+     */
+    boolean isOpen();
+
+    /**
+     * 发送消息，不抛出异常，结果通过回调通知；写入底层缓存的传输方式在调用线程内回调，
+     * 异步发送的传输方式在发送完成后回调，同一连接在回调之前不会发送下一条消息
+     *
+     * @param message  消息数据
+     * @param callback 发送完成的回调，成功时参数为null，失败时为异常
+     */
+    void send(WebSocketMessage<?> message, Consumer<Throwable> callback);
+
+    /**
+     * 关闭连接，重复关闭无影响
+     *
+     * @param status 关闭状态
+     */
+    void close(CloseStatus status);
+}
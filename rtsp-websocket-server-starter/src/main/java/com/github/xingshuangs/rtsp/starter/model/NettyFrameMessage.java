@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import io.netty.buffer.ByteBuf;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Netty传输的数据帧消息，payload只有视频通道编号和box头，用于丢帧时读取视频通道编号和判定是否为媒体片段，
+ * 长度为完整数据的长度，实际发送的是共享的直接内存数据，持有一个引用，发送后由Netty释放，未发送则需调用release
+ *
+ * @author xingshuang
+ */
+public class NettyFrameMessage implements WebSocketMessage<ByteBuffer> {
+
+    /**
+     * 视频通道编号和box头，用于丢帧判定，不含完整数据
+     */
+    private final ByteBuffer payload;
+
+    /**
+     * 数据长度，包含4个字节的视频通道编号
+     */
+    private final int length;
+
+    /**
+     * 直接内存数据
+     */
+    private final ByteBuf content;
+
+    public NettyFrameMessage(ByteBuffer payload, ByteBuf content) {
+        this.payload = payload;
+        this.content = content;
+        this.length = content.readableBytes();
+    }
+
+    @Override
+    public ByteBuffer getPayload() {
+        return payload;
+    }
+
+    @Override
+    public int getPayloadLength() {
+        return this.length;
+    }
+
+    @Override
+    public boolean isLast() {
+        return true;
+    }
+
+    public ByteBuf getContent() {
+        return content;
+    }
+
+    /**
+     * 释放直接内存数据的引用
+     */
+    public void release() {
+        this.content.release();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 独立Netty服务的websocket连接器，发送队列、溢出策略、高水位丢帧和批量发送与servlet方式一致，
+ * 区别在于在通道的事件循环中写出，不阻塞线程，通道不可写时消息在发送队列中积压，可写后继续发送；
+ * 数据帧使用共享的直接内存，发送时不再拷贝
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class NettyWebsocketConnection extends WebsocketConnection {
+
+    /**
+     * Netty websocket通道的发送端
+     */
+    private final NettyWebsocketSink nettySink;
+
+    /**
+     * Netty的通道
+     */
+    private final Channel channel;
+
+    public NettyWebsocketConnection(NettyWebsocketSink sink, WebsocketProperties properties) {
+        // 关闭连接不阻塞，直接在调用线程执行
+        super(sink, Runnable::run, properties);
+        this.nettySink = sink;
+        this.channel = sink.getChannel();
+    }
+
+    /**
+     * 通道恢复可写，继续发送
+     */
+    public void onWritable() {
+        this.scheduleSend();
+    }
+
+    /**
+     * 通道关闭，释放发送队列中的消息
+     */
+    public void onClosed() {
+        this.clearSendQueue();
+    }
+
+    @Override
+    protected WebSocketMessage<?> createFrameMessage(Fmp4Frame frame) {
+        return new NettyFrameMessage(frame.getSummary(), frame.retainedDirectBuffer(this.channel.alloc()));
+    }
+
+    @Override
+    protected void releaseMessage(WebSocketMessage<?> message) {
+        if (message instanceof NettyFrameMessage) {
+            ((NettyFrameMessage) message).release();
+        }
+    }
+
+    /**
+     * 调度到通道的事件循环中写出，同一时刻每个连接只有一个写出任务
+     */
+    @Override
+    protected void scheduleSend() {
+        if (this.getSendQueue().isEmpty() || !this.channel.isWritable() || !this.getSending().compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.channel.eventLoop().execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            this.getSending().set(false);
+            log.error("websocket[{}]发送任务被拒绝", this.getSink().getId());
+        }
+    }
+
+    /**
+     * 写出发送队列中的消息，直到通道不可写
+     */
+    private void drain() {
+        try {
+            WebSocketMessage<?> message;
+            int count = 0;
+            while (this.channel.isWritable() && this.channel.isActive() && (message = this.getSendQueue().poll()) != null) {
+                int length = message.getPayloadLength();
+                this.nettySink.send(message, e -> this.onMessageSent(length));
+                count++;
+            }
+            if (count > 0) {
+                this.nettySink.flush();
+            }
+            // 有积压但通道不可写，从此刻开始计算发送超时，超过发送时间上限后入队时关闭连接
+            if (this.getSendQueue().isEmpty()) {
+                this.setSendStartTime(0);
+            } else if (count > 0 || this.getSendStartTime() == 0) {
+                this.setSendStartTime(System.currentTimeMillis());
+            }
+        } finally {
+            this.getSending().set(false);
+        }
+        if (this.channel.isActive()) {
+            this.scheduleSend();
+        } else {
+            this.clearSendQueue();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * Netty websocket通道的发送端，消息写入通道的出站缓存，由NettyWebsocketConnection按通道的可写状态调度和刷新
+ *
+ * @author xingshuang
+ */
+public class NettyWebsocketSink implements MessageSink {
+
+    /**
+     * Netty的通道
+     */
+    private final Channel channel;
+
+    public NettyWebsocketSink(Channel channel) {
+        this.channel = channel;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 刷新通道，写入的消息发往网络
+     */
+    public void flush() {
+        this.channel.flush();
+    }
+
+    @Override
+    public String getId() {
+        return this.channel.id().asLongText();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.channel.isActive();
+    }
+
+    /**
+     * 写入通道的出站缓存，不刷新，写入即完成
+     *
+     * @param message  消息数据
+     * @param callback 发送完成的回调
+     */
+    @Override
+    public void send(WebSocketMessage<?> message, Consumer<Throwable> callback) {
+        this.channel.write(toFrame(message), this.channel.voidPromise());
+        callback.accept(null);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        if (this.channel.isActive()) {
+            this.channel.writeAndFlush(new CloseWebSocketFrame(status.getCode(), status.getReason()))
+                    .addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 转换为Netty的websocket帧，数据帧消息直接使用共享的直接内存，其他二进制消息包装后发送，不拷贝数据
+     *
+     * @param message 消息数据
+     * @return websocket帧
+     */
+    private static WebSocketFrame toFrame(WebSocketMessage<?> message) {
+        if (message instanceof NettyFrameMessage) {
+            return new BinaryWebSocketFrame(((NettyFrameMessage) message).getContent());
+        }
+        if (message instanceof BinaryMessage) {
+            return new BinaryWebSocketFrame(Unpooled.wrappedBuffer(((BinaryMessage) message).getPayload()));
+        }
+        return new TextWebSocketFrame(((TextMessage) message).getPayload());
+    }
+}
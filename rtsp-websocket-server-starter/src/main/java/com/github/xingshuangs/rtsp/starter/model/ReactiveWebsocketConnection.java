@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.springframework.web.socket.WebSocketMessage;
+import reactor.core.publisher.Flux;
+
+/**
+ * 响应式传输的websocket连接器，发送队列、溢出策略、高水位丢帧和批量发送与servlet方式一致，
+ * 区别在于不占用发送线程阻塞写出，而是在下游(Reactor Netty)有需求时才从发送队列取出消息，
+ * 网络不可写时下游不再请求，消息在发送队列中积压，由溢出策略和高水位处理
+ *
+ * @author xingshuang
+ */
+public class ReactiveWebsocketConnection extends WebsocketConnection {
+
+    /**
+     * 响应式websocket会话的发送端
+     */
+    private final ReactiveWebsocketSink reactiveSink;
+
+    public ReactiveWebsocketConnection(ReactiveWebsocketSink sink, WebsocketProperties properties) {
+        // 写出不阻塞，关闭连接直接在调用线程执行
+        super(sink, Runnable::run, properties);
+        this.reactiveSink = sink;
+    }
+
+    /**
+     * 待写出的消息流，作为响应式websocket会话的发送数据源，只能订阅一次
+     *
+     * @return 消息流
+     */
+    public Flux<org.springframework.web.reactive.socket.WebSocketMessage> outbound() {
+        return Flux.create(fluxSink -> {
+            this.reactiveSink.attach(fluxSink);
+            fluxSink.onRequest(n -> this.scheduleSend());
+            fluxSink.onDispose(() -> {
+                this.reactiveSink.detach();
+                this.clearSendQueue();
+            });
+        });
+    }
+
+    /**
+     * 结束写出，连接关闭时调用
+     */
+    public void complete() {
+        this.reactiveSink.complete();
+    }
+
+    /**
+     * 按下游需求写出发送队列中的消息，同一时刻只有一个线程在写出，
+     * 释放写出权后再次检查，避免期间入队的消息或到达的需求被遗漏
+     */
+    @Override
+    protected void scheduleSend() {
+        while (this.reactiveSink.isOpen() && !this.getSendQueue().isEmpty() && this.reactiveSink.getRequested() > 0
+                && this.getSending().compareAndSet(false, true)) {
+            try {
+                this.drain();
+            } finally {
+                this.getSending().set(false);
+            }
+        }
+    }
+
+    /**
+     * 写出消息，调用方需持有写出权
+     */
+    private void drain() {
+        WebSocketMessage<?> message;
+        int count = 0;
+        while (this.reactiveSink.getRequested() > 0 && this.reactiveSink.isOpen()
+                && (message = this.getSendQueue().poll()) != null) {
+            int length = message.getPayloadLength();
+            // 交给sink即完成，outbound结束时发送队列随之清空
+            this.reactiveSink.send(message, e -> {
+                if (e == null) {
+                    this.onMessageSent(length);
+                }
+            });
+            count++;
+        }
+        // 有积压但下游没有需求，从此刻开始计算发送超时，超过发送时间上限后入队时关闭连接
+        if (this.getSendQueue().isEmpty()) {
+            this.setSendStartTime(0);
+        } else if (count > 0 || this.getSendStartTime() == 0) {
+            this.setSendStartTime(System.currentTimeMillis());
+        }
+    }
+}
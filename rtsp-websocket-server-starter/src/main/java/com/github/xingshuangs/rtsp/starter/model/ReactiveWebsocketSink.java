@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import reactor.core.publisher.FluxSink;
+
+import java.util.function.Consumer;
+
+/**
+ * 响应式websocket会话的发送端，消息交给会话outbound的sink，由Reactor Netty按下游需求写出
+ *
+ * @author xingshuang
+ */
+public class ReactiveWebsocketSink implements MessageSink {
+
+    /**
+     * 响应式的websocket会话
+     */
+    private final WebSocketSession delegate;
+
+    /**
+     * 是否打开
+     */
+    private volatile boolean open = true;
+
+    /**
+     * 写出消息的sink，订阅outbound后才有值
+     */
+    private volatile FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> fluxSink;
+
+    public ReactiveWebsocketSink(WebSocketSession delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 订阅outbound后关联写出消息的sink
+     *
+     * @param fluxSink 写出消息的sink
+     */
+    public void attach(FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> fluxSink) {
+        this.fluxSink = fluxSink;
+    }
+
+    /**
+     * outbound结束后取消关联
+     */
+    public void detach() {
+        this.fluxSink = null;
+    }
+
+    /**
+     * 下游请求的消息数量，未订阅outbound时为0
+     *
+     * @return 数量
+     */
+    public long getRequested() {
+        FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> current = this.fluxSink;
+        return current == null ? 0 : current.requestedFromDownstream();
+    }
+
+    /**
+     * 标记为已关闭并结束写出，底层连接结束时调用
+     */
+    public void complete() {
+        this.open = false;
+        FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> current = this.fluxSink;
+        if (current != null) {
+            current.complete();
+        }
+    }
+
+    @Override
+    public String getId() {
+        return this.delegate.getId();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * 转换为响应式的websocket消息交给sink，二进制消息直接包装，不拷贝数据
+     *
+     * @param message  消息数据
+     * @param callback 发送完成的回调
+     */
+    @Override
+    public void send(WebSocketMessage<?> message, Consumer<Throwable> callback) {
+        FluxSink<org.springframework.web.reactive.socket.WebSocketMessage> current = this.fluxSink;
+        if (current == null) {
+            callback.accept(new IllegalStateException("响应式websocket会话未订阅outbound"));
+            return;
+        }
+        if (message instanceof BinaryMessage) {
+            current.next(this.delegate.binaryMessage(factory -> factory.wrap(((BinaryMessage) message).getPayload())));
+        } else {
+            current.next(this.delegate.textMessage(((TextMessage) message).getPayload()));
+        }
+        callback.accept(null);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        this.delegate.close(new org.springframework.web.reactive.socket.CloseStatus(status.getCode(), status.getReason())).subscribe();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+/**
+ * RTP丢包统计，根据RTP序列号计算期望收到的包数和实际收到的包数，
+ * 由RTP接收线程单线程写入，定时任务单线程采样
+ *
+ * @author xingshuang
+ */
+public class RtpLossCounter {
+
+    /**
+     * 实际收到的包数
+     */
+    private volatile long received;
+
+    /**
+     * 第一个包的序列号
+     */
+    private volatile long baseSequence = -1;
+
+    /**
+     * 扩展后（含回绕次数）的最大序列号
+     */
+    private volatile long maxSequence;
+
+    /**
+     * 上次采样时期望收到的包数
+     */
+    private long lastExpected;
+
+    /**
+     * 上次采样时实际收到的包数
+     */
+    private long lastReceived;
+
+    /**
+     * 最近一个采样窗口期望收到的包数
+     */
+    private long windowExpected;
+
+    /**
+     * 最近一个采样窗口丢失的包数
+     */
+    private long windowLost;
+
+    /**
+     * 收到一个RTP包，只取序列号，乱序和重复的包不推进最大序列号
+     *
+     * @param data RTP包
+     */
+    public void onPacket(byte[] data) {
+        if (data == null || data.length < 12) {
+            return;
+        }
+        int sequence = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+        if (this.baseSequence < 0) {
+            this.maxSequence = sequence;
+            this.baseSequence = sequence;
+        } else {
+            int delta = (sequence - (int) (this.maxSequence & 0xFFFF)) & 0xFFFF;
+            if (delta < 0x8000) {
+                this.maxSequence += delta;
+            }
+        }
+        this.received++;
+    }
+
+    /**
+     * 期望收到的包数
+     *
+     * @return 包数
+     */
+    public long getExpected() {
+        long base = this.baseSequence;
+        return base < 0 ? 0 : this.maxSequence - base + 1;
+    }
+
+    /**
+     * 实际收到的包数
+     *
+     * @return 包数
+     */
+    public long getReceived() {
+        return this.received;
+    }
+
+    /**
+     * 采样，计算距上次采样的窗口内的丢包率
+     *
+     * @return 丢包率，0~1，窗口内没有包则为0
+     */
+    public double sample() {
+        long received = this.received;
+        long expected = this.getExpected();
+        this.windowExpected = expected - this.lastExpected;
+        // 重复包可能使收到的包数多于期望的包数
+        this.windowLost = Math.max(0, this.windowExpected - (received - this.lastReceived));
+        this.lastExpected = expected;
+        this.lastReceived = received;
+        return this.windowExpected <= 0 ? 0 : (double) this.windowLost / this.windowExpected;
+    }
+
+    /**
+     * 最近一个采样窗口期望收到的包数
+     *
+     * @return 包数
+     */
+    public long getWindowExpected() {
+        return this.windowExpected;
+    }
+
+    /**
+     * 最近一个采样窗口丢失的包数
+     *
+     * @return 包数
+     */
+    public long getWindowLost() {
+        return this.windowLost;
+    }
+}
@@ -25,8 +25,12 @@
 package com.github.xingshuangs.rtsp.starter.model;
 
 
+import com.github.xingshuangs.rtsp.starter.enums.ERtspTransport;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * RTSP的地址
  *
@@ -35,6 +39,11 @@ import lombok.Data;
 @Data
 public class RtspAddress {
 
+    /**
+     * 默认码流的名称，即url对应的码流
+     */
+    public static final String DEFAULT_VARIANT = "main";
+
     /**
      * 视频通道编号
      */
@@ -44,4 +53,58 @@ public class RtspAddress {
      * 视频地址路由
      */
     private String url;
+
+    /**
+     * 无人观看后rtsp连接的保留时间，单位毫秒，为空则使用全局配置
+     */
+    private Long lingerTimeout;
+
+    /**
+     * 是否预热，预热的通道在应用启动时即建立rtsp连接，无人观看也不关闭
+     */
+    private boolean prewarm;
+
+    /**
+     * 传输方式，UDP、TCP或AUTO，为空则使用全局配置
+     */
+    private ERtspTransport transport;
+
+    /**
+     * 其他码流，如子码流，按清晰度从高到低配置，与默认码流共用通道编号
+     */
+    private List<RtspVariant> variants = new ArrayList<>();
+
+    /**
+     * 查找码流的地址
+     *
+     * @param variant 码流名称
+     * @return 地址，不存在则为null
+     */
+    public String findVariantUrl(String variant) {
+        if (DEFAULT_VARIANT.equals(variant)) {
+            return this.url;
+        }
+        return this.variants.stream().filter(x -> x.getName().equals(variant)).map(RtspVariant::getUrl).findFirst().orElse(null);
+    }
+
+    /**
+     * 所有码流的名称，默认码流在前
+     *
+     * @return 码流名称列表
+     */
+    public List<String> variantNames() {
+        List<String> names = new ArrayList<>(this.variants.size() + 1);
+        names.add(DEFAULT_VARIANT);
+        this.variants.forEach(x -> names.add(x.getName()));
+        return names;
+    }
+
+    /**
+     * 清晰度最低的码流，即最后配置的码流，没有配置其他码流则为默认码流
+     *
+     * @return 码流名称
+     */
+    public String lowestVariant() {
+        return this.variants.isEmpty() ? DEFAULT_VARIANT : this.variants.get(this.variants.size() - 1).getName();
+    }
 }
@@ -26,13 +26,20 @@ package com.github.xingshuangs.rtsp.starter.model;
 
 
 import com.github.xingshuangs.iot.protocol.rtsp.authentication.UsernamePasswordCredential;
+import com.github.xingshuangs.iot.protocol.rtsp.enums.ERtspTransportProtocol;
 import com.github.xingshuangs.iot.protocol.rtsp.service.RtspClient;
 import com.github.xingshuangs.iot.protocol.rtsp.service.RtspFMp4Proxy;
+import com.github.xingshuangs.rtsp.starter.enums.ERtspTransport;
+import com.github.xingshuangs.rtsp.starter.utils.Fmp4Util;
+import org.springframework.web.socket.TextMessage;
 
 import java.net.URI;
 import java.time.LocalDateTime;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -42,8 +49,23 @@ import java.util.function.Consumer;
  */
 public class RtspConnection {
 
+    private static final WebsocketConnection[] EMPTY_CONNECTIONS = new WebsocketConnection[0];
+
+    /**
+     * 只用于串行化订阅变更，发送数据帧时不使用
+     */
     private final Object objLock = new Object();
 
+    /**
+     * GOP缓存锁，保证新订阅者的缓存回放和实时数据帧之间不丢帧也不重复
+     */
+    private final Object gopLock = new Object();
+
+    /**
+     * 码流名称
+     */
+    private String variant = RtspAddress.DEFAULT_VARIANT;
+
     /**
      * 最完整的RTSP连接地址
      */
@@ -54,20 +76,95 @@ public class RtspConnection {
      */
     private URI ripUri;
 
+    /**
+     * 源节点的websocket地址，边缘节点从源节点转发，不直接拉取rtsp，为null则直接拉取
+     */
+    private URI originUri;
+
     /**
      * 用户名和密码的凭证，可能没有
      */
     private UsernamePasswordCredential credential;
 
     /**
-     * rtsp连接的客户端
+     * 配置的传输方式
      */
-    private RtspClient client;
+    private ERtspTransport transport = ERtspTransport.UDP;
 
     /**
-     * rtsp-fmp4转换的代理器
+     * 当前使用的传输协议，AUTO模式下丢包过多时由UDP切换为TCP
      */
-    private RtspFMp4Proxy rtspFMp4Proxy;
+    private volatile ERtspTransportProtocol transportProtocol = ERtspTransportProtocol.UDP;
+
+    /**
+     * 当前rtsp会话的RTP丢包统计，TCP传输时为null，重连时替换
+     */
+    private volatile RtpLossCounter rtpLossCounter;
+
+    /**
+     * 最近一个统计周期的RTP丢包率
+     */
+    private volatile double rtpLossRate;
+
+    /**
+     * RTP丢包率的定时统计任务，TCP传输时为null
+     */
+    private volatile ScheduledFuture<?> lossCheckFuture;
+
+    /**
+     * rtsp连接的客户端，重连时替换
+     */
+    private volatile RtspClient client;
+
+    /**
+     * rtsp-fmp4转换的代理器，重连时替换
+     */
+    private volatile RtspFMp4Proxy rtspFMp4Proxy;
+
+    /**
+     * 已停止的代理器，同一个代理器的超时、失败、断开事件只处理一次
+     */
+    private final AtomicReference<RtspFMp4Proxy> stoppedProxy = new AtomicReference<>();
+
+    /**
+     * 连续重连的次数，收到codec后清零
+     */
+    private volatile int reconnectAttempts;
+
+    /**
+     * 累计重连的次数
+     */
+    private final AtomicLong reconnectCount = new AtomicLong();
+
+    /**
+     * 累计接收的字节数
+     */
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    /**
+     * 码率采样锁
+     */
+    private final Object bitrateLock = new Object();
+
+    /**
+     * 上次码率采样的时间，单位纳秒，0表示尚未采样
+     */
+    private long bitrateSampleTime;
+
+    /**
+     * 上次码率采样时的累计字节数
+     */
+    private long bitrateSampleBytes;
+
+    /**
+     * 最近一次采样计算的码率，单位bit/s
+     */
+    private long bitrate;
+
+    /**
+     * 创建时间，单位纳秒
+     */
+    private final long createTime = System.nanoTime();
 
     /**
      * 开始时间
@@ -75,9 +172,67 @@ public class RtspConnection {
     private LocalDateTime startTime;
 
     /**
-     * 对应的session连接
+     * GOP缓存，未开启时为null
+     */
+    private GopCache gopCache;
+
+    /**
+     * 回看缓存，只有默认码流且开启回看时有值
+     */
+    private DvrRing dvrRing;
+
+    /**
+     * 是否预热的常驻连接，无人观看也不关闭
+     */
+    private boolean prewarm;
+
+    /**
+     * 无人观看后的保留时间，单位毫秒
+     */
+    private long lingerTimeout;
+
+    /**
+     * 无人观看后的延迟关闭任务，没有则为null，在rtsp连接map的桶锁内读写
+     */
+    private ScheduledFuture<?> lingerFuture;
+
+    /**
+     * 视频编码，rtsp连接建立前为null，受gopLock保护
      */
-    private final Set<WebsocketConnection> connections = new HashSet<>();
+    private volatile String codec;
+
+    /**
+     * 预先序列化的codec消息，codec变化时重建，所有订阅者共享，受gopLock保护
+     */
+    private volatile TextMessage codecMessage;
+
+    /**
+     * 带通道编号的视频头(ftyp+moov)，codec变化后置空，收到新的视频头后更新，所有订阅者共享，受gopLock保护
+     */
+    private volatile Fmp4Frame headerFrame;
+
+    /**
+     * 等待合并mdat的moof，只在代理的发送线程中访问
+     */
+    private volatile byte[] pendingMoof;
+
+    /**
+     * 对应的session连接，key：sessionId
+     */
+    private final ConcurrentHashMap<String, WebsocketConnection> connections = new ConcurrentHashMap<>();
+
+    /**
+     * session连接的快照，订阅变更时写时复制，发送数据帧时遍历快照无需加锁，订阅变更也不会等待数据发送
+     */
+    private volatile WebsocketConnection[] connectionSnapshot = EMPTY_CONNECTIONS;
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public void setVariant(String variant) {
+        this.variant = variant;
+    }
 
     public URI getRawUri() {
         return rawUri;
@@ -95,6 +250,22 @@ public class RtspConnection {
         this.ripUri = ripUri;
     }
 
+    public DvrRing getDvrRing() {
+        return dvrRing;
+    }
+
+    public void setDvrRing(DvrRing dvrRing) {
+        this.dvrRing = dvrRing;
+    }
+
+    public URI getOriginUri() {
+        return originUri;
+    }
+
+    public void setOriginUri(URI originUri) {
+        this.originUri = originUri;
+    }
+
     public UsernamePasswordCredential getCredential() {
         return credential;
     }
@@ -103,6 +274,53 @@ public class RtspConnection {
         this.credential = credential;
     }
 
+    public ERtspTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(ERtspTransport transport) {
+        this.transport = transport;
+    }
+
+    public ERtspTransportProtocol getTransportProtocol() {
+        return transportProtocol;
+    }
+
+    public void setTransportProtocol(ERtspTransportProtocol transportProtocol) {
+        this.transportProtocol = transportProtocol;
+    }
+
+    public RtpLossCounter getRtpLossCounter() {
+        return rtpLossCounter;
+    }
+
+    public void setRtpLossCounter(RtpLossCounter rtpLossCounter) {
+        this.rtpLossCounter = rtpLossCounter;
+    }
+
+    public double getRtpLossRate() {
+        return rtpLossRate;
+    }
+
+    public void setRtpLossRate(double rtpLossRate) {
+        this.rtpLossRate = rtpLossRate;
+    }
+
+    public void setLossCheckFuture(ScheduledFuture<?> lossCheckFuture) {
+        this.lossCheckFuture = lossCheckFuture;
+    }
+
+    /**
+     * 取消RTP丢包率的定时统计
+     */
+    public void cancelLossCheck() {
+        ScheduledFuture<?> future = this.lossCheckFuture;
+        if (future != null) {
+            future.cancel(false);
+            this.lossCheckFuture = null;
+        }
+    }
+
     public RtspClient getClient() {
         return client;
     }
@@ -119,12 +337,111 @@ public class RtspConnection {
         this.rtspFMp4Proxy = rtspFMp4Proxy;
     }
 
-    public byte[] getMp4Header() {
-        return this.rtspFMp4Proxy.getMp4Header().toByteArray();
+    /**
+     * 标记代理器已停止
+     *
+     * @param rtspFMp4Proxy 代理器
+     * @return true：当前代理器首次标记，false：已标记过或已不是当前代理器
+     */
+    public boolean markStopped(RtspFMp4Proxy rtspFMp4Proxy) {
+        return this.rtspFMp4Proxy == rtspFMp4Proxy && this.stoppedProxy.getAndSet(rtspFMp4Proxy) != rtspFMp4Proxy;
+    }
+
+    public int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    public void setReconnectAttempts(int reconnectAttempts) {
+        this.reconnectAttempts = reconnectAttempts;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    public void incrementReconnectCount() {
+        this.reconnectCount.incrementAndGet();
+    }
+
+    /**
+     * 采样码率，距上次采样不足1秒则返回上次的结果，只在查询状态时调用
+     *
+     * @return 码率，单位bit/s
+     */
+    public long sampleBitrate() {
+        synchronized (this.bitrateLock) {
+            long now = System.nanoTime();
+            long bytes = this.receivedBytes.get();
+            if (this.bitrateSampleTime == 0) {
+                // 首次采样以rtsp连接建立的时间为起点
+                this.bitrateSampleTime = this.createTime;
+            }
+            long elapsed = now - this.bitrateSampleTime;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                this.bitrate = (bytes - this.bitrateSampleBytes) * 8 * TimeUnit.SECONDS.toNanos(1) / elapsed;
+                this.bitrateSampleTime = now;
+                this.bitrateSampleBytes = bytes;
+            }
+            return this.bitrate;
+        }
     }
 
     public String getCodec() {
-        return this.rtspFMp4Proxy.getMp4TrackInfo().getCodec();
+        return codec;
+    }
+
+    /**
+     * 是否为H.265编码
+     *
+     * @return true：是，false：否
+     */
+    public boolean isHevc() {
+        String current = this.codec;
+        return current != null && (current.startsWith("hvc1") || current.startsWith("hev1"));
+    }
+
+    public TextMessage getCodecMessage() {
+        return codecMessage;
+    }
+
+    public Fmp4Frame getHeaderFrame() {
+        return headerFrame;
+    }
+
+    /**
+     * 合并代理单独输出的moof和mdat为完整的媒体片段，GOP缓存、回看和丢帧都以完整的片段为单位，
+     * 只在代理的发送线程中调用
+     *
+     * @param fmp4Data FMP4的数据
+     * @return 完整的媒体片段或其他数据，moof等待mdat或没有moof的mdat时为null
+     */
+    public byte[] mergeFragment(byte[] fmp4Data) {
+        if (Fmp4Util.isMoofOnly(fmp4Data)) {
+            this.pendingMoof = fmp4Data;
+            return null;
+        }
+        if (!Fmp4Util.isMediaData(fmp4Data)) {
+            return fmp4Data;
+        }
+        byte[] moof = this.pendingMoof;
+        if (moof == null) {
+            // codec变化后丢失了moof，单独的mdat无法解码
+            return null;
+        }
+        this.pendingMoof = null;
+        byte[] fragment = new byte[moof.length + fmp4Data.length];
+        System.arraycopy(moof, 0, fragment, 0, moof.length);
+        System.arraycopy(fmp4Data, 0, fragment, moof.length, fmp4Data.length);
+        return fragment;
+    }
+
+    /**
+     * 视频头是否已经下发
+     *
+     * @return true：是，false：否
+     */
+    public boolean isHeaderReady() {
+        return this.headerFrame != null;
     }
 
     public LocalDateTime getStartTime() {
@@ -135,15 +452,144 @@ public class RtspConnection {
         this.startTime = startTime;
     }
 
+    public boolean isPrewarm() {
+        return prewarm;
+    }
+
+    public void setPrewarm(boolean prewarm) {
+        this.prewarm = prewarm;
+    }
+
+    public long getLingerTimeout() {
+        return lingerTimeout;
+    }
+
+    public void setLingerTimeout(long lingerTimeout) {
+        this.lingerTimeout = lingerTimeout;
+    }
+
+    public ScheduledFuture<?> getLingerFuture() {
+        return lingerFuture;
+    }
+
+    public void setLingerFuture(ScheduledFuture<?> lingerFuture) {
+        this.lingerFuture = lingerFuture;
+    }
+
+    /**
+     * 取消延迟关闭
+     *
+     * @return true：取消了保留中的延迟关闭，false：没有延迟关闭
+     */
+    public boolean cancelLinger() {
+        ScheduledFuture<?> future = this.lingerFuture;
+        if (future == null) {
+            return false;
+        }
+        future.cancel(false);
+        this.lingerFuture = null;
+        return true;
+    }
+
+    public void setGopCache(GopCache gopCache) {
+        this.gopCache = gopCache;
+    }
+
+    /**
+     * 发布数据帧，先写入GOP缓存，再发送给当前所有订阅者
+     *
+     * @param frame    数据帧
+     * @param consumer 每个订阅者的发送动作
+     */
+    public void publishFrame(Fmp4Frame frame, Consumer<WebsocketConnection> consumer) {
+        WebsocketConnection[] snapshot;
+        this.receivedBytes.addAndGet(frame.getLength());
+        synchronized (this.gopLock) {
+            // 只有ftyp开头的数据才是视频头，其他数据不能覆盖
+            if (frame.isInitSegment()) {
+                this.replaceHeaderFrame(frame);
+            } else if (frame.isMediaSegment() && this.gopCache != null) {
+                this.gopCache.add(frame);
+            }
+            snapshot = this.connectionSnapshot;
+        }
+        for (WebsocketConnection connection : snapshot) {
+            consumer.accept(connection);
+        }
+    }
+
+    /**
+     * 发布codec，记录后发送给当前所有订阅者，之后加入的订阅者在加入时补发
+     *
+     * @param codec        视频编码
+     * @param codecMessage 预先序列化的codec消息
+     * @param consumer     每个订阅者的发送动作
+     */
+    public void publishCodec(String codec, TextMessage codecMessage, Consumer<WebsocketConnection> consumer) {
+        WebsocketConnection[] snapshot;
+        synchronized (this.gopLock) {
+            this.codec = codec;
+            this.codecMessage = codecMessage;
+            this.replaceHeaderFrame(null);
+            this.pendingMoof = null;
+            if (this.gopCache != null) {
+                this.gopCache.clear();
+            }
+            snapshot = this.connectionSnapshot;
+        }
+        for (WebsocketConnection connection : snapshot) {
+            consumer.accept(connection);
+        }
+    }
+
+    /**
+     * 遍历GOP缓存中的数据帧，需在加入订阅的回调中调用
+     *
+     * @param consumer 动作
+     */
+    public void foreachGopCache(Consumer<Fmp4Frame> consumer) {
+        synchronized (this.gopLock) {
+            if (this.gopCache != null) {
+                this.gopCache.forEach(consumer);
+            }
+        }
+    }
+
+    /**
+     * 清空GOP缓存和视频头，rtsp连接停止后调用，释放缓存持有的直接内存
+     */
+    public void clearGopCache() {
+        synchronized (this.gopLock) {
+            this.replaceHeaderFrame(null);
+            if (this.gopCache != null) {
+                this.gopCache.clear();
+            }
+        }
+    }
+
+    /**
+     * 替换视频头，缓存期间持有视频头共享的直接内存，调用方需持有gopLock
+     *
+     * @param frame 新的视频头，可为null
+     */
+    private void replaceHeaderFrame(Fmp4Frame frame) {
+        Fmp4Frame old = this.headerFrame;
+        if (frame != null) {
+            frame.retainDirectBuffer();
+        }
+        this.headerFrame = frame;
+        if (old != null) {
+            old.releaseDirectBuffer();
+        }
+    }
+
     /**
      * 是否有websocket连接
      *
      * @return true：有，false：没有
      */
     public boolean hasWebsocketConnection() {
-        synchronized (this.objLock) {
-            return !this.connections.isEmpty();
-        }
+        return this.connectionSnapshot.length > 0;
     }
 
     /**
@@ -153,7 +599,34 @@ public class RtspConnection {
      */
     public void addWebsocketConnection(WebsocketConnection connection) {
         synchronized (this.objLock) {
-            this.connections.add(connection);
+            if (this.connections.putIfAbsent(connection.getSink().getId(), connection) == null) {
+                this.refreshConnectionSnapshot();
+            }
+        }
+    }
+
+    /**
+     * 添加websocket连接，先执行加入动作（补发codec、视频头和GOP缓存），再加入实时数据的订阅，
+     * 两者在gopLock内完成，与codec和数据帧的发布之间不丢也不重复
+     *
+     * @param connection websocket连接
+     * @param onJoin     加入动作
+     */
+    public void addWebsocketConnection(WebsocketConnection connection, Runnable onJoin) {
+        synchronized (this.gopLock) {
+            onJoin.run();
+            this.addWebsocketConnection(connection);
+        }
+    }
+
+    /**
+     * 在gopLock内执行动作，与codec的发布互斥，用于切换订阅者的数据来源(如回看)
+     *
+     * @param action 动作
+     */
+    public void runLocked(Runnable action) {
+        synchronized (this.gopLock) {
+            action.run();
         }
     }
 
@@ -164,7 +637,9 @@ public class RtspConnection {
      */
     public void removeWebsocketConnection(WebsocketConnection connection) {
         synchronized (this.objLock) {
-            this.connections.remove(connection);
+            if (this.connections.remove(connection.getSink().getId()) != null) {
+                this.refreshConnectionSnapshot();
+            }
         }
     }
 
@@ -175,21 +650,17 @@ public class RtspConnection {
      * @return true：包含，false：不包含
      */
     public boolean containWebsocketConnection(WebsocketConnection connection) {
-        synchronized (this.objLock) {
-            return this.connections.stream().anyMatch(x -> x.getSession().getId().equals(connection.getSession().getId()));
-        }
+        return this.connections.containsKey(connection.getSink().getId());
     }
 
     /**
-     * 遍历连接执行动作
+     * 遍历连接执行动作，遍历的是当前时刻的快照，不加锁
      *
      * @param consumer 动作
      */
     public void foreachConnections(Consumer<WebsocketConnection> consumer) {
-        synchronized (this.objLock) {
-            for (WebsocketConnection connection : this.connections) {
-                consumer.accept(connection);
-            }
+        for (WebsocketConnection connection : this.connectionSnapshot) {
+            consumer.accept(connection);
         }
     }
 
@@ -199,6 +670,7 @@ public class RtspConnection {
     public void removeAllWebsocketConnection() {
         synchronized (this.objLock) {
             this.connections.clear();
+            this.connectionSnapshot = EMPTY_CONNECTIONS;
         }
     }
 
@@ -208,8 +680,13 @@ public class RtspConnection {
      * @return 数量
      */
     public int getWebsocketConnectionCount() {
-        synchronized (this.objLock) {
-            return this.connections.size();
-        }
+        return this.connectionSnapshot.length;
+    }
+
+    /**
+     * 刷新session连接的快照，调用方需持有objLock
+     */
+    private void refreshConnectionSnapshot() {
+        this.connectionSnapshot = this.connections.values().toArray(EMPTY_CONNECTIONS);
     }
 }
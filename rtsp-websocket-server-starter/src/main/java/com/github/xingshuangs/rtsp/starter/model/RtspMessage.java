@@ -83,6 +83,70 @@ public class RtspMessage<T> {
         return resMessage;
     }
 
+    /**
+     * 创建回看的消息
+     *
+     * @param number  视频通道编号
+     * @param content 内容
+     * @param <T>     类型
+     * @return RtspMessage
+     */
+    public static <T> RtspMessage<T> createSeek(Integer number, T content) {
+        RtspMessage<T> resMessage = new RtspMessage<>();
+        resMessage.setType(ERtspMessageType.SEEK);
+        resMessage.setNumber(number);
+        resMessage.setContent(content);
+        return resMessage;
+    }
+
+    /**
+     * 创建批量发送的消息
+     *
+     * @param number  视频通道编号
+     * @param content 内容
+     * @param <T>     类型
+     * @return RtspMessage
+     */
+    public static <T> RtspMessage<T> createBatch(Integer number, T content) {
+        RtspMessage<T> resMessage = new RtspMessage<>();
+        resMessage.setType(ERtspMessageType.BATCH);
+        resMessage.setNumber(number);
+        resMessage.setContent(content);
+        return resMessage;
+    }
+
+    /**
+     * 创建订阅受理中的消息
+     *
+     * @param number  视频通道编号
+     * @param content 内容
+     * @param <T>     类型
+     * @return RtspMessage
+     */
+    public static <T> RtspMessage<T> createPending(Integer number, T content) {
+        RtspMessage<T> resMessage = new RtspMessage<>();
+        resMessage.setType(ERtspMessageType.PENDING);
+        resMessage.setNumber(number);
+        resMessage.setContent(content);
+        return resMessage;
+    }
+
+    /**
+     * 创建错误消息
+     *
+     * @param number  视频通道编号
+     * @param content 内容
+     * @param <T>     类型
+     * @return RtspMessage
+     */
+    public static <T> RtspMessage<T> createRedirect(Integer number, T content) {
+        RtspMessage<T> resMessage = new RtspMessage<>();
+        resMessage.setType(ERtspMessageType.REDIRECT);
+        resMessage.setNumber(number);
+        resMessage.setContent(content);
+        return resMessage;
+    }
+
     /**
      * 创建错误消息
      *
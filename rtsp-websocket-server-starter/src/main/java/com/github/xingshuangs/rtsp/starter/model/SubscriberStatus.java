@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import lombok.Data;
+
+/**
+ * 订阅者的状态快照
+ *
+ * @author xingshuang
+ */
+@Data
+public class SubscriberStatus {
+
+    /**
+     * websocket的sessionId
+     */
+    private String sessionId;
+
+    /**
+     * 发送队列深度
+     */
+    private int sendQueueSize;
+
+    /**
+     * 待发送的字节数
+     */
+    private long pendingBytes;
+
+    /**
+     * 已发送的字节数
+     */
+    private long sentBytes;
+
+    /**
+     * 丢弃的消息数量
+     */
+    private long dropCount;
+
+    public static SubscriberStatus createBy(WebsocketConnection websocketConnection) {
+        SubscriberStatus status = new SubscriberStatus();
+        status.setSessionId(websocketConnection.getSink().getId());
+        status.setSendQueueSize(websocketConnection.getSendQueueSize());
+        status.setPendingBytes(websocketConnection.getPendingBytes().get());
+        status.setSentBytes(websocketConnection.getSentBytes().get());
+        status.setDropCount(websocketConnection.getDropCount().get());
+        return status;
+    }
+}
@@ -24,33 +24,117 @@
 
 package com.github.xingshuangs.rtsp.starter.model;
 
+import com.github.xingshuangs.rtsp.starter.enums.EOverflowPolicy;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
 import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.apache.commons.lang3.StringUtils;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 /**
- * websocket的连接器
+ * websocket的连接器，通过发送端写出消息，servlet、响应式、Netty websocket和HTTP流共用发送队列、溢出策略、高水位丢帧和批量发送
  *
  * @author xingshuang
  */
+@Slf4j
 @Data
 public class WebsocketConnection {
 
-    private final Object objLock = new Object();
+    /**
+     * 单次调度最多发送的消息数量，避免单个连接长期占用发送线程
+     */
+    protected static final int MAX_SEND_BATCH = 64;
+
+    /**
+     * 发送端
+     */
+    private final MessageSink sink;
+
+    /**
+     * 发送线程池
+     */
+    private final Executor sendExecutor;
+
+    /**
+     * 发送的配置
+     */
+    private final WebsocketProperties properties;
+
+    /**
+     * 待发送的消息队列
+     */
+    private final BlockingQueue<WebSocketMessage<?>> sendQueue;
+
+    /**
+     * 是否正在发送
+     */
+    private final AtomicBoolean sending = new AtomicBoolean();
+
+    /**
+     * 当前这次发送的开始时间，0表示没有在发送
+     */
+    private volatile long sendStartTime;
+
+    /**
+     * 丢弃的消息数量，包括队列溢出和慢消费者丢弃的数据帧
+     */
+    private final AtomicLong dropCount = new AtomicLong();
+
+    /**
+     * 待发送的字节数
+     */
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * 已发送的字节数
+     */
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * 因发送积压而丢帧，正在等待下一个关键帧的视频通道编号
+     */
+    private final Set<Integer> waitKeyFrameChannels = ConcurrentHashMap.newKeySet();
 
     /**
-     * session对象
+     * 攒批中的数据帧，同时作为批量发送的锁
      */
-    private WebSocketSession session;
+    private final Fmp4FrameBatch batch = new Fmp4FrameBatch();
+
+    /**
+     * 攒批间隔，单位毫秒，0表示不批量发送
+     */
+    private volatile long batchInterval;
+
+    /**
+     * 批量发送的定时器
+     */
+    private volatile ScheduledExecutorService batchScheduler;
+
+    /**
+     * 是否已有定时发送的任务，受batch锁保护
+     */
+    private boolean batchFlushScheduled;
 
     /**
      * 初次连入的时间
@@ -63,9 +147,26 @@ public class WebsocketConnection {
     private LocalDateTime lastSubscribeTime;
 
     /**
-     * 订阅的视频通道编号
+     * 订阅的视频通道编号及码流名称，作为该连接订阅关系的权威索引，连接关闭时据此移除订阅，
+     * key：视频通道编号，value：码流名称
      */
-    private final Set<Integer> subscribeChannelNumbers = new HashSet<>();
+    private final ConcurrentHashMap<Integer, String> subscribeChannels = new ConcurrentHashMap<>();
+
+    /**
+     * 正在回看的视频通道，回看期间不发送该通道的实时数据，key：视频通道编号
+     */
+    private final ConcurrentHashMap<Integer, DvrPlayback> playbacks = new ConcurrentHashMap<>();
+
+    public WebsocketConnection(MessageSink sink, Executor sendExecutor, WebsocketProperties properties) {
+        this.sink = sink;
+        this.sendExecutor = sendExecutor;
+        this.properties = properties;
+        this.sendQueue = new LinkedBlockingQueue<>(properties.getSendQueueCapacity());
+    }
+
+    public WebsocketConnection(WebSocketSession session, Executor sendExecutor, WebsocketProperties properties) {
+        this(new WebsocketSessionSink(session, properties.getSendTimeLimit()), sendExecutor, properties);
+    }
 
     /**
      * 获取所有视频通道编号的字符串
@@ -73,40 +174,140 @@ public class WebsocketConnection {
      * @return 通道编号字符串
      */
     public String getAllChannelNumbers() {
-        synchronized (this.objLock) {
-            return StringUtils.join(this.subscribeChannelNumbers.stream().map(String::valueOf).collect(Collectors.toList()), ",");
-        }
+        return StringUtils.join(this.subscribeChannels.keySet().stream().map(String::valueOf).collect(Collectors.toList()), ",");
+    }
+
+    /**
+     * 获取所有视频通道编号的副本
+     *
+     * @return 视频通道编号列表
+     */
+    public List<Integer> getChannelNumbers() {
+        return new ArrayList<>(this.subscribeChannels.keySet());
+    }
+
+    /**
+     * 添加视频通道编号，使用默认码流
+     *
+     * @param number 视频通道编号
+     * @return true：添加成功，false：已存在
+     */
+    public boolean addChannelNumber(Integer number) {
+        return this.addChannelNumber(number, RtspAddress.DEFAULT_VARIANT);
     }
 
     /**
      * 添加视频通道编号
      *
+     * @param number  视频通道编号
+     * @param variant 码流名称
+     * @return true：添加成功，false：已存在
+     */
+    public boolean addChannelNumber(Integer number, String variant) {
+        return this.subscribeChannels.putIfAbsent(number, variant) == null;
+    }
+
+    /**
+     * 获取视频通道订阅的码流名称
+     *
      * @param number 视频通道编号
+     * @return 码流名称，未订阅则为null
+     */
+    public String getChannelVariant(Integer number) {
+        return this.subscribeChannels.get(number);
+    }
+
+    /**
+     * 切换已订阅视频通道的码流，切换后该通道需要从新码流的视频头开始
+     *
+     * @param number  视频通道编号
+     * @param variant 码流名称
+     * @return true：切换成功，false：未订阅该通道
      */
-    public void addChannelNumber(Integer number) {
-        synchronized (this.objLock) {
-            this.subscribeChannelNumbers.add(number);
+    public boolean switchChannelVariant(Integer number, String variant) {
+        if (this.subscribeChannels.replace(number, variant) == null) {
+            return false;
         }
+        this.waitKeyFrameChannels.remove(number);
+        return true;
     }
 
     /**
      * 移除视频通道编号
      *
      * @param number 视频通道编号
+     * @return 移除的码流名称，未订阅则为null
      */
-    public void removeChannelNumber(Integer number) {
-        synchronized (this.objLock) {
-            this.subscribeChannelNumbers.remove(number);
-        }
+    public String removeChannelNumber(Integer number) {
+        this.waitKeyFrameChannels.remove(number);
+        this.removePlayback(number);
+        return this.subscribeChannels.remove(number);
     }
 
     /**
      * 移除所有视频通道编号
      */
     public void removeAllChannelNumbers() {
-        synchronized (this.objLock) {
-            this.subscribeChannelNumbers.clear();
+        this.subscribeChannels.clear();
+        this.waitKeyFrameChannels.clear();
+        new ArrayList<>(this.playbacks.keySet()).forEach(this::removePlayback);
+    }
+
+    /**
+     * 开始回看，替换并停止该通道之前的回放
+     *
+     * @param playback 回放
+     */
+    public void putPlayback(DvrPlayback playback) {
+        DvrPlayback previous = this.playbacks.put(playback.getChannelNumber(), playback);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * 获取视频通道的回放
+     *
+     * @param number 视频通道编号
+     * @return 回放，没有回看则为null
+     */
+    public DvrPlayback getPlayback(Integer number) {
+        return this.playbacks.get(number);
+    }
+
+    /**
+     * 停止并移除视频通道的回放
+     *
+     * @param number 视频通道编号
+     * @return true：之前在回看，false：没有回看
+     */
+    public boolean removePlayback(Integer number) {
+        DvrPlayback playback = this.playbacks.remove(number);
+        if (playback != null) {
+            playback.cancel();
         }
+        return playback != null;
+    }
+
+    /**
+     * 停止并移除指定的回放，已被替换的回放不影响新的回放
+     *
+     * @param playback 回放
+     * @return true：已移除，false：已被替换或移除
+     */
+    public boolean removePlayback(DvrPlayback playback) {
+        playback.cancel();
+        return this.playbacks.remove(playback.getChannelNumber(), playback);
+    }
+
+    /**
+     * 视频通道是否正在回看
+     *
+     * @param number 视频通道编号
+     * @return true：回看中，false：实时
+     */
+    public boolean isTimeShifted(Integer number) {
+        return !this.playbacks.isEmpty() && this.playbacks.containsKey(number);
     }
 
     /**
@@ -116,9 +317,18 @@ public class WebsocketConnection {
      * @return true:包含，false：不包含
      */
     public boolean containChannelNumber(Integer number) {
-        synchronized (this.objLock) {
-            return this.subscribeChannelNumbers.contains(number);
-        }
+        return this.subscribeChannels.containsKey(number);
+    }
+
+    /**
+     * 是否订阅了视频通道的指定码流
+     *
+     * @param number  视频通道编号
+     * @param variant 码流名称
+     * @return true:订阅了，false：未订阅或订阅的是其他码流
+     */
+    public boolean containChannel(Integer number, String variant) {
+        return variant.equals(this.subscribeChannels.get(number));
     }
 
     /**
@@ -127,9 +337,16 @@ public class WebsocketConnection {
      * @return true：有，false：没有
      */
     public boolean hasChannelNumber() {
-        synchronized (this.objLock) {
-            return !this.subscribeChannelNumbers.isEmpty();
-        }
+        return !this.subscribeChannels.isEmpty();
+    }
+
+    /**
+     * 获取订阅的视频通道数量
+     *
+     * @return 数量
+     */
+    public int getChannelCount() {
+        return this.subscribeChannels.size();
     }
 
     /**
@@ -138,23 +355,439 @@ public class WebsocketConnection {
      * @param consumer 对应的事件
      */
     public void foreachChannelNumbers(IntConsumer consumer) {
-        synchronized (this.objLock) {
-            for (Integer number : this.subscribeChannelNumbers) {
-                consumer.accept(number);
+        for (Integer number : this.subscribeChannels.keySet()) {
+            consumer.accept(number);
+        }
+    }
+
+    /**
+     * 发送数据帧，待发送字节数超过高水位时丢弃非关键帧，直到下一个关键帧再恢复，保证延时可控且不花屏
+     *
+     * @param frame 数据帧
+     * @return true：已放入发送队列，false：被丢弃
+     */
+    public boolean sendFrame(Fmp4Frame frame) {
+        return this.sendFrame(frame, false);
+    }
+
+    /**
+     * 发送数据帧，加入时补发的GOP缓存从关键帧开始且总量有上限，不受高水位限制，保证新订阅者完整回放
+     *
+     * @param frame   数据帧
+     * @param catchUp 是否为加入时补发的GOP缓存
+     * @return true：已放入发送队列，false：被丢弃
+     */
+    public boolean sendFrame(Fmp4Frame frame, boolean catchUp) {
+        if (!frame.isMediaSegment()) {
+            // 视频头必须送达
+            this.sendOrBatchFrame(frame);
+            return true;
+        }
+        Integer channelNumber = frame.getChannelNumber();
+        if (catchUp && (frame.isKeyFrame() || !this.waitKeyFrameChannels.contains(channelNumber))) {
+            this.waitKeyFrameChannels.remove(channelNumber);
+            this.sendOrBatchFrame(frame);
+            return true;
+        }
+        boolean overHighWaterMark = this.pendingBytes.get() > this.properties.getHighWaterMark();
+        if (this.waitKeyFrameChannels.contains(channelNumber)) {
+            if (!frame.isKeyFrame() || overHighWaterMark) {
+                this.dropCount.incrementAndGet();
+                return false;
             }
+            this.waitKeyFrameChannels.remove(channelNumber);
+            log.debug("websocket[{}]视频通道编号[{}]收到关键帧，恢复发送", this.sink.getId(), channelNumber);
+        } else if (overHighWaterMark) {
+            this.waitKeyFrameChannels.add(channelNumber);
+            this.dropCount.incrementAndGet();
+            log.debug("websocket[{}]待发送数据[{}]字节超过高水位，视频通道编号[{}]开始丢帧", this.sink.getId(), this.pendingBytes.get(), channelNumber);
+            return false;
         }
+        this.sendOrBatchFrame(frame);
+        return true;
     }
 
     /**
-     * 发送消息
+     * 开启批量发送，多个视频通道的数据帧在攒批间隔内合并为一个二进制消息，达到字节数上限则立即发送
+     *
+     * @param interval  攒批间隔，单位毫秒，超过配置的上限则取上限
+     * @param scheduler 定时器
+     * @return 实际的攒批间隔
+     */
+    public long enableBatch(long interval, ScheduledExecutorService scheduler) {
+        long actual = Math.min(interval, this.properties.getBatchMaxInterval());
+        synchronized (this.batch) {
+            this.batchScheduler = scheduler;
+            this.batchInterval = actual;
+        }
+        return actual;
+    }
+
+    /**
+     * 关闭批量发送，攒批中的数据帧立即发送
+     */
+    public void disableBatch() {
+        synchronized (this.batch) {
+            this.batchInterval = 0;
+            this.flushBatchLocked();
+        }
+    }
+
+    /**
+     * 是否开启了批量发送
+     *
+     * @return true：开启，false：未开启
+     */
+    public boolean isBatchEnabled() {
+        return this.batchInterval > 0;
+    }
+
+    /**
+     * 发送数据帧，开启批量发送时放入攒批，否则直接放入发送队列
+     *
+     * @param frame 数据帧
+     */
+    private void sendOrBatchFrame(Fmp4Frame frame) {
+        if (this.batchInterval > 0) {
+            synchronized (this.batch) {
+                // 加锁后再次判断，避免关闭批量发送后数据帧滞留在攒批中
+                if (this.batchInterval > 0) {
+                    this.batch.add(frame);
+                    if (this.batch.getBytes() >= this.properties.getBatchMaxBytes()) {
+                        this.flushBatchLocked();
+                    } else if (!this.batchFlushScheduled) {
+                        this.scheduleBatchFlush();
+                    }
+                    return;
+                }
+            }
+        }
+        this.enqueueMessage(this.createFrameMessage(frame));
+    }
+
+    /**
+     * 数据帧转换为待发送的消息，子类可使用传输方式自有的数据结构
+     *
+     * @param frame 数据帧
+     * @return 消息数据
+     */
+    protected WebSocketMessage<?> createFrameMessage(Fmp4Frame frame) {
+        return frame.toBinaryMessage();
+    }
+
+    /**
+     * 消息未发送就被丢弃，子类在此释放消息持有的资源
+     *
+     * @param message 消息数据
+     */
+    protected void releaseMessage(WebSocketMessage<?> message) {
+    }
+
+    /**
+     * 定时发送攒批中的数据帧，调用方需持有batch锁
+     */
+    private void scheduleBatchFlush() {
+        try {
+            this.batchScheduler.schedule(() -> {
+                synchronized (this.batch) {
+                    this.batchFlushScheduled = false;
+                    this.flushBatchLocked();
+                }
+            }, this.batchInterval, TimeUnit.MILLISECONDS);
+            this.batchFlushScheduled = true;
+        } catch (RejectedExecutionException e) {
+            this.flushBatchLocked();
+        }
+    }
+
+    /**
+     * 攒批中的数据帧合并后放入发送队列，调用方需持有batch锁
+     */
+    private void flushBatchLocked() {
+        if (!this.batch.isEmpty()) {
+            this.enqueueMessage(this.batch.toBinaryMessage());
+        }
+    }
+
+    /**
+     * 发送消息，只放入发送队列，由发送线程异步发送，不会阻塞调用线程，
+     * 开启批量发送时先发送攒批中的数据帧，保证codec、视频头和媒体片段的先后顺序
      *
      * @param message 消息数据
-     * @throws IOException 异常
      */
-    public synchronized void sendMessage(WebSocketMessage<?> message) throws IOException {
-        if (this.session.isOpen()) {
-            this.session.sendMessage(message);
+    public void sendMessage(WebSocketMessage<?> message) {
+        if (this.batchInterval > 0) {
+            synchronized (this.batch) {
+                this.flushBatchLocked();
+                this.enqueueMessage(message);
+            }
+            return;
+        }
+        this.enqueueMessage(message);
+    }
+
+    /**
+     * 消息放入发送队列
+     *
+     * @param message 消息数据
+     */
+    private void enqueueMessage(WebSocketMessage<?> message) {
+        if (!this.sink.isOpen()) {
+            this.releaseMessage(message);
+            return;
+        }
+        if (this.isSendTimeLimitExceeded()) {
+            log.warn("websocket[{}]发送超时，超过[{}]ms，关闭连接", this.sink.getId(), this.properties.getSendTimeLimit());
+            this.releaseMessage(message);
+            this.closeAsync(CloseStatus.SESSION_NOT_RELIABLE);
+            return;
         }
+        this.pendingBytes.addAndGet(message.getPayloadLength());
+        if (!this.sendQueue.offer(message) && !this.handleOverflow(message)) {
+            return;
+        }
+        // 入队前的检查与连接关闭(清空发送队列)存在竞争，入队后再次检查，已关闭则清空，避免消息滞留不释放
+        if (!this.sink.isOpen()) {
+            this.clearSendQueue();
+            return;
+        }
+        this.scheduleSend();
+    }
+
+    /**
+     * 获取发送队列中的消息数量
+     *
+     * @return 消息数量
+     */
+    public int getSendQueueSize() {
+        return this.sendQueue.size();
+    }
+
+    /**
+     * 处理发送队列溢出
+     *
+     * @param message 消息数据
+     * @return true：消息已入队，false：消息未入队
+     */
+    private boolean handleOverflow(WebSocketMessage<?> message) {
+        switch (this.properties.getOverflowPolicy()) {
+            case DROP_OLDEST:
+                // 丢弃最早的媒体片段，codec等文本消息和视频头必须送达，并发场景下可能仍然放不进去，此时丢弃最新的消息
+                if (this.dropOldestMedia() && this.sendQueue.offer(message)) {
+                    return true;
+                }
+                return this.dropOrTerminate(message);
+            case DROP_NEWEST:
+                return this.dropOrTerminate(message);
+            case TERMINATE:
+            default:
+                this.terminate(message);
+                return false;
+        }
+    }
+
+    /**
+     * 从队首开始移除第一个只包含媒体片段的消息
+     *
+     * @return true：已移除，false：队列中没有可丢弃的消息
+     */
+    private boolean dropOldestMedia() {
+        Iterator<WebSocketMessage<?>> iterator = this.sendQueue.iterator();
+        while (iterator.hasNext()) {
+            WebSocketMessage<?> item = iterator.next();
+            if (this.isDroppable(item)) {
+                iterator.remove();
+                this.dropMessage(item);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 丢弃未入队的消息，不可丢弃的消息则关闭连接
+     *
+     * @param message 消息数据
+     * @return false：消息未入队
+     */
+    private boolean dropOrTerminate(WebSocketMessage<?> message) {
+        if (this.isDroppable(message)) {
+            this.dropMessage(message);
+        } else {
+            this.terminate(message);
+        }
+        return false;
+    }
+
+    /**
+     * 发送队列溢出，释放消息并关闭连接
+     *
+     * @param message 消息数据
+     */
+    private void terminate(WebSocketMessage<?> message) {
+        this.pendingBytes.addAndGet(-message.getPayloadLength());
+        this.releaseMessage(message);
+        log.warn("websocket[{}]发送队列溢出，队列深度[{}]，关闭连接", this.sink.getId(), this.properties.getSendQueueCapacity());
+        this.closeAsync(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * 消息是否可丢弃，只有媒体片段可以丢弃，丢弃后对应的视频通道等待下一个关键帧
+     *
+     * @param message 消息数据
+     * @return true：可丢弃，false：不可丢弃
+     */
+    protected boolean isDroppable(WebSocketMessage<?> message) {
+        return message.getPayload() instanceof ByteBuffer && Fmp4FrameBatch.isMediaOnly((ByteBuffer) message.getPayload());
+    }
+
+    /**
+     * 遍历被丢弃消息中的视频通道编号，二进制消息(包括Netty的数据帧消息)的前4个字节是视频通道编号，批量消息则包含多个视频通道
+     *
+     * @param message  消息数据
+     * @param consumer 视频通道编号的动作
+     */
+    protected void foreachChannelNumber(WebSocketMessage<?> message, IntConsumer consumer) {
+        if (message.getPayload() instanceof ByteBuffer) {
+            Fmp4FrameBatch.foreachChannelNumber((ByteBuffer) message.getPayload(), consumer);
+        }
+    }
+
+    /**
+     * 丢弃消息，丢弃后消息中的视频通道需要等待下一个关键帧
+     *
+     * @param message 消息数据
+     */
+    private void dropMessage(WebSocketMessage<?> message) {
+        this.dropCount.incrementAndGet();
+        this.pendingBytes.addAndGet(-message.getPayloadLength());
+        this.foreachChannelNumber(message, this.waitKeyFrameChannels::add);
+        this.releaseMessage(message);
+    }
+
+    /**
+     * 调度发送，同一时刻每个连接只有一个发送任务，子类可替换发送方式
+     */
+    protected void scheduleSend() {
+        if (this.sendQueue.isEmpty() || !this.sending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.sendExecutor.execute(this::drainSendQueue);
+        } catch (RejectedExecutionException e) {
+            this.sending.set(false);
+            log.error("websocket[{}]发送任务被拒绝", this.sink.getId());
+        }
+    }
+
+    /**
+     * 发送队列中的消息
+     */
+    private void drainSendQueue() {
+        this.sendNext(0);
+    }
+
+    /**
+     * 发送下一条消息，同一时刻只有一条消息在发送，发送完成的回调中继续发送，
+     * 单次调度最多发送MAX_SEND_BATCH条，之后重新调度，避免单个连接长期占用发送线程
+     *
+     * @param count 本次调度已发送的数量
+     */
+    private void sendNext(int count) {
+        WebSocketMessage<?> message;
+        if (count >= MAX_SEND_BATCH || !this.sink.isOpen() || (message = this.sendQueue.poll()) == null) {
+            this.finishSend();
+            return;
+        }
+        // 发送会移动缓存的position，需提前获取长度
+        int length = message.getPayloadLength();
+        this.sendStartTime = System.currentTimeMillis();
+        this.sink.send(message, e -> this.onSendComplete(length, count, e));
+    }
+
+    /**
+     * 一条消息发送完成
+     *
+     * @param length 消息字节数
+     * @param count  本次调度已发送的数量
+     * @param error  失败的异常，成功时为null
+     */
+    private void onSendComplete(int length, int count, Throwable error) {
+        this.sendStartTime = 0;
+        if (error != null) {
+            log.error("websocket[{}]发送消息失败，{}", this.sink.getId(), error.getMessage());
+            this.clearSendQueue();
+            this.close(CloseStatus.SESSION_NOT_RELIABLE);
+            this.finishSend();
+            return;
+        }
+        this.onMessageSent(length);
+        this.sendNext(count + 1);
+    }
+
+    /**
+     * 释放发送权，仍有消息则重新调度，连接已关闭则清空发送队列
+     */
+    private void finishSend() {
+        this.sending.set(false);
+        if (this.sink.isOpen()) {
+            this.scheduleSend();
+        } else {
+            this.clearSendQueue();
+        }
+    }
+
+    /**
+     * 消息已交给底层连接发送
+     *
+     * @param length 消息字节数
+     */
+    protected void onMessageSent(int length) {
+        this.pendingBytes.addAndGet(-length);
+        this.sentBytes.addAndGet(length);
+    }
+
+    /**
+     * 清空发送队列
+     */
+    protected void clearSendQueue() {
+        WebSocketMessage<?> message;
+        while ((message = this.sendQueue.poll()) != null) {
+            this.releaseMessage(message);
+        }
+        this.pendingBytes.set(0);
+    }
+
+    /**
+     * 当前发送是否已超时
+     *
+     * @return true：超时，false：未超时
+     */
+    private boolean isSendTimeLimitExceeded() {
+        long start = this.sendStartTime;
+        return start > 0 && System.currentTimeMillis() - start > this.properties.getSendTimeLimit();
+    }
+
+    /**
+     * 在发送线程中关闭连接，避免阻塞调用线程
+     *
+     * @param status 关闭状态
+     */
+    private void closeAsync(CloseStatus status) {
+        try {
+            this.sendExecutor.execute(() -> this.close(status));
+        } catch (RejectedExecutionException e) {
+            this.close(status);
+        }
+    }
+
+    /**
+     * 关闭连接
+     *
+     * @param status 关闭状态
+     */
+    private void close(CloseStatus status) {
+        this.sink.close(status);
     }
 
     @Override
@@ -162,11 +795,11 @@ public class WebsocketConnection {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         WebsocketConnection that = (WebsocketConnection) o;
-        return session.getId().equals(that.session.getId());
+        return sink.getId().equals(that.sink.getId());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(session.getId());
+        return Objects.hash(sink.getId());
     }
 }
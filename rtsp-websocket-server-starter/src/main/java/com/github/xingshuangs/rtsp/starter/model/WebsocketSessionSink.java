@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.model;
+
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
+import java.util.function.Consumer;
+
+/**
+ * servlet websocket会话的发送端，JSR-356的会话使用容器的异步发送，发送线程不阻塞在网络上，
+ * 慢速的连接不会占满共享的发送线程池；其他会话阻塞发送
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class WebsocketSessionSink implements MessageSink {
+
+    /**
+     * tomcat阻塞发送超时时间的属性名称
+     */
+    private static final String BLOCKING_SEND_TIMEOUT_PROPERTY = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    /**
+     * websocket会话
+     */
+    private final WebSocketSession session;
+
+    /**
+     * 容器的异步发送端，不是JSR-356的会话时为null
+     */
+    private final RemoteEndpoint.Async asyncRemote;
+
+    /**
+     * @param session       websocket会话
+     * @param sendTimeLimit 发送时间上限，单位毫秒
+     */
+    public WebsocketSessionSink(WebSocketSession session, long sendTimeLimit) {
+        this.session = session;
+        this.asyncRemote = this.initSendTimeout(sendTimeLimit);
+    }
+
+    public WebSocketSession getSession() {
+        return session;
+    }
+
+    @Override
+    public String getId() {
+        return this.session.getId();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.session.isOpen();
+    }
+
+    /**
+     * 发送消息，异步发送时由容器在发送完成或超时后回调
+     *
+     * @param message  消息数据
+     * @param callback 发送完成的回调
+     */
+    @Override
+    public void send(WebSocketMessage<?> message, Consumer<Throwable> callback) {
+        if (this.asyncRemote != null && (message instanceof BinaryMessage || message instanceof TextMessage)) {
+            this.sendAsync(message, callback);
+            return;
+        }
+        Throwable error = null;
+        try {
+            this.session.sendMessage(message);
+        } catch (Exception e) {
+            error = e;
+        }
+        callback.accept(error);
+    }
+
+    @Override
+    public void close(CloseStatus status) {
+        try {
+            this.session.close(status);
+        } catch (Exception e) {
+            log.debug("websocket[{}]关闭失败，{}", this.session.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * 使用容器的异步发送
+     *
+     * @param message  消息数据
+     * @param callback 发送完成的回调
+     */
+    private void sendAsync(WebSocketMessage<?> message, Consumer<Throwable> callback) {
+        SendHandler handler = result -> callback.accept(result.isOK() ? null : result.getException());
+        try {
+            if (message instanceof BinaryMessage) {
+                this.asyncRemote.sendBinary(((BinaryMessage) message).getPayload(), handler);
+            } else {
+                this.asyncRemote.sendText(((TextMessage) message).getPayload(), handler);
+            }
+        } catch (Exception e) {
+            callback.accept(e);
+        }
+    }
+
+    /**
+     * 设置tomcat异步发送和阻塞发送(关闭帧等)的超时时间，超时后发送失败并关闭连接
+     *
+     * @param sendTimeLimit 发送时间上限，单位毫秒
+     * @return 容器的异步发送端，不是JSR-356的会话时为null
+     */
+    private RemoteEndpoint.Async initSendTimeout(long sendTimeLimit) {
+        if (!(this.session instanceof NativeWebSocketSession)) {
+            return null;
+        }
+        Object nativeSession = ((NativeWebSocketSession) this.session).getNativeSession();
+        if (!(nativeSession instanceof Session)) {
+            return null;
+        }
+        ((Session) nativeSession).getUserProperties().put(BLOCKING_SEND_TIMEOUT_PROPERTY, sendTimeLimit);
+        RemoteEndpoint.Async async = ((Session) nativeSession).getAsyncRemote();
+        async.setSendTimeout(sendTimeLimit);
+        return async;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.properties;
+
+
+import com.github.xingshuangs.rtsp.starter.model.ClusterMember;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 集群的配置，视频通道按一致性哈希分配给各成员，所有成员需配置相同的成员列表和视频通道
+ *
+ * @author xingshuang
+ */
+@Data
+public class ClusterProperties {
+
+    /**
+     * 是否开启集群
+     */
+    private boolean enabled = false;
+
+    /**
+     * 本节点的成员标识，需在成员列表中
+     */
+    private String selfId;
+
+    /**
+     * 每个成员在哈希环上的虚拟节点数量，越大分配越均匀
+     */
+    private int virtualNodes = 160;
+
+    /**
+     * 成员列表
+     */
+    private List<ClusterMember> members = new ArrayList<>();
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.properties;
+
+
+import com.github.xingshuangs.rtsp.starter.enums.ERtspTransport;
+import lombok.Data;
+
+/**
+ * rtsp连接的配置
+ *
+ * @author xingshuang
+ */
+@Data
+public class ConnectProperties {
+
+    /**
+     * 负责rtsp连接握手的线程数量，即同时建立中的rtsp连接上限
+     */
+    private int threads = 16;
+
+    /**
+     * tcp连接超时时间，单位毫秒
+     */
+    private int connectTimeout = 5000;
+
+    /**
+     * rtsp握手（OPTIONS/DESCRIBE/SETUP/PLAY）的总超时时间，单位毫秒，超过则放弃该连接
+     */
+    private long handshakeTimeout = 10000;
+
+    /**
+     * 无人观看后rtsp连接的保留时间，单位毫秒，期间有订阅者回来则继续使用，默认0表示立即关闭
+     */
+    private long lingerTimeout = 0;
+
+    /**
+     * rtsp连接断开后是否自动重连，重连期间订阅者保持订阅
+     */
+    private boolean reconnectEnabled = true;
+
+    /**
+     * 首次重连的延迟，之后按指数退避，单位毫秒
+     */
+    private long reconnectInitialDelay = 1000;
+
+    /**
+     * 重连延迟的上限，单位毫秒
+     */
+    private long reconnectMaxDelay = 30000;
+
+    /**
+     * 连续重连的最大次数，超过则通知订阅者并关闭，避免摄像头被移除或地址错误时订阅者一直处于重连中，0表示不限
+     */
+    private int reconnectMaxAttempts = 10;
+
+    /**
+     * 默认的传输方式，通道未单独配置时使用
+     */
+    private ERtspTransport transport = ERtspTransport.UDP;
+
+    /**
+     * AUTO模式下切换为TCP的RTP丢包率阈值，0~1
+     */
+    private double lossThreshold = 0.05;
+
+    /**
+     * RTP丢包率的统计周期，单位毫秒
+     */
+    private long lossCheckInterval = 5000;
+
+    /**
+     * 统计周期内期望收到的RTP包数少于该值时不做切换判定，避免码率很低时误判
+     */
+    private long lossMinPackets = 100;
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.properties;
+
+
+import lombok.Data;
+
+/**
+ * 回看(时移)的配置，每个视频通道默认码流的FMP4数据写入预分配的内存映射分段文件，循环覆盖，
+ * 每个通道占用的磁盘空间固定为segmentSize * segmentCount，不占用堆内存
+ *
+ * @author xingshuang
+ */
+@Data
+public class DvrProperties {
+
+    /**
+     * 是否开启回看
+     */
+    private boolean enabled = false;
+
+    /**
+     * 分段文件的存储目录，每个视频通道一个子目录
+     */
+    private String directory = "dvr";
+
+    /**
+     * 单个分段文件的大小，单位字节
+     */
+    private int segmentSize = 32 * 1024 * 1024;
+
+    /**
+     * 每个视频通道的分段文件数量，可回看的时长约为segmentSize * segmentCount / 码率
+     */
+    private int segmentCount = 8;
+
+    /**
+     * 回放的发送间隔，按录制时的时间节奏发送，单位毫秒
+     */
+    private long playbackInterval = 40;
+}
@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.properties;
+
+
+import lombok.Data;
+
+/**
+ * 边缘节点的配置，开启后不直接拉取rtsp，而是订阅源节点已封装好的FMP4流，每个码流一条websocket连接，在本节点扇出，
+ * 整个部署中每个摄像头只有源节点一个rtsp连接；视频通道的配置需与源节点一致
+ *
+ * @author xingshuang
+ */
+@Data
+public class EdgeProperties {
+
+    /**
+     * 是否作为边缘节点
+     */
+    private boolean enabled = false;
+
+    /**
+     * 源节点的websocket地址，如ws://192.168.3.10:8089/rtsp，源节点开启集群时可配置任一成员，订阅时跟随重定向
+     */
+    private String originUrl;
+
+    /**
+     * 从源节点接收的单个消息的最大长度，需大于最大的FMP4数据帧，单位字节
+     */
+    private int maxMessageSize = 4 * 1024 * 1024;
+}
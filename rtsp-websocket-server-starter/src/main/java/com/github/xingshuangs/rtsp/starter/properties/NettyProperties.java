@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.properties;
+
+
+import lombok.Data;
+
+/**
+ * 独立Netty服务的配置，只提供websocket拉流，不依赖servlet容器
+ *
+ * @author xingshuang
+ */
+@Data
+public class NettyProperties {
+
+    /**
+     * 是否启动独立的Netty服务
+     */
+    private boolean enabled = false;
+
+    /**
+     * 监听端口，0表示随机端口
+     */
+    private int port = 8090;
+
+    /**
+     * websocket的访问路径
+     */
+    private String path = "/rtsp";
+
+    /**
+     * IO线程数量，0表示使用Netty默认值(CPU核数的2倍)
+     */
+    private int workerThreads = 0;
+
+    /**
+     * 单个连接写缓冲的高水位，超过后不可写，发送队列中的消息等待可写后再发送，单位字节
+     */
+    private int writeBufferHighWaterMark = 256 * 1024;
+
+    /**
+     * 单个连接写缓冲的低水位，低于后恢复可写，单位字节
+     */
+    private int writeBufferLowWaterMark = 64 * 1024;
+}
@@ -47,4 +47,44 @@ public class RtspProperties {
      * RTSP的地址列表
      */
     private List<RtspAddress> addresses;
+
+    /**
+     * websocket发送的配置
+     */
+    private WebsocketProperties websocket = new WebsocketProperties();
+
+    /**
+     * GOP缓存的配置
+     */
+    private GopCacheProperties gopCache = new GopCacheProperties();
+
+    /**
+     * rtsp连接的配置
+     */
+    private ConnectProperties connect = new ConnectProperties();
+
+    /**
+     * 独立Netty服务的配置
+     */
+    private NettyProperties netty = new NettyProperties();
+
+    /**
+     * 集群的配置
+     */
+    private ClusterProperties cluster = new ClusterProperties();
+
+    /**
+     * 边缘节点的配置
+     */
+    private EdgeProperties edge = new EdgeProperties();
+
+    /**
+     * 回看的配置
+     */
+    private DvrProperties dvr = new DvrProperties();
+
+    /**
+     * 指标的配置
+     */
+    private MetricsProperties metrics = new MetricsProperties();
 }
@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.properties;
+
+
+import com.github.xingshuangs.rtsp.starter.enums.EOverflowPolicy;
+import lombok.Data;
+
+/**
+ * websocket发送的配置
+ *
+ * @author xingshuang
+ */
+@Data
+public class WebsocketProperties {
+
+    /**
+     * 每个websocket连接的发送队列深度
+     */
+    private int sendQueueCapacity = 256;
+
+    /**
+     * 单次发送的时间上限，单位毫秒，超过则认为连接不可靠并关闭
+     */
+    private long sendTimeLimit = 10000;
+
+    /**
+     * 负责发送的线程数量
+     */
+    private int sendThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * 发送队列溢出时的处理策略
+     */
+    private EOverflowPolicy overflowPolicy = EOverflowPolicy.DROP_OLDEST;
+
+    /**
+     * 待发送字节数的高水位，超过后丢弃该连接的非关键帧，直到下一个关键帧再恢复，单位字节
+     */
+    private long highWaterMark = 4L * 1024 * 1024;
+
+    /**
+     * 批量发送时单个二进制消息的字节数上限，达到后立即发送，单位字节
+     */
+    private int batchMaxBytes = 256 * 1024;
+
+    /**
+     * 客户端可申请的最大攒批间隔，单位毫秒
+     */
+    private long batchMaxInterval = 200;
+
+    /**
+     * 一个websocket订阅的通道数超过该值后，未指定码流的订阅自动选择清晰度最低的码流，0表示始终选择默认码流
+     */
+    private int autoVariantThreshold = 0;
+}
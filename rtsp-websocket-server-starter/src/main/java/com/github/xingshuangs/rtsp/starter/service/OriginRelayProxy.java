@@ -0,0 +1,308 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspClient;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspFMp4Proxy;
+import com.github.xingshuangs.rtsp.starter.enums.ERtspMessageType;
+import com.github.xingshuangs.rtsp.starter.model.RtspMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 从源节点转发FMP4流的代理，边缘节点用其替代rtsp-fmp4代理：通过一条websocket连接订阅源节点的码流，
+ * 收到的codec和数据帧(去掉4字节通道编号)交给与rtsp-fmp4代理相同的事件，重连、保留、GOP缓存等逻辑不变
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class OriginRelayProxy extends RtspFMp4Proxy {
+
+    /**
+     * 订阅时最多跟随的重定向次数
+     */
+    private static final int MAX_REDIRECTS = 3;
+
+    private final WebSocketClient webSocketClient;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 源节点的websocket地址
+     */
+    private final URI originUri;
+
+    /**
+     * 视频通道编号
+     */
+    private final Integer channelNumber;
+
+    /**
+     * 码流名称
+     */
+    private final String variant;
+
+    /**
+     * 是否已停止
+     */
+    private final AtomicBoolean terminal = new AtomicBoolean();
+
+    /**
+     * 是否已触发断开事件
+     */
+    private final AtomicBoolean destroyed = new AtomicBoolean();
+
+    private Consumer<byte[]> fmp4DataHandle;
+
+    private Consumer<String> codecHandle;
+
+    private Runnable destroyHandle;
+
+    /**
+     * 进行中的websocket握手
+     */
+    private volatile ListenableFuture<WebSocketSession> handshakeFuture;
+
+    /**
+     * 当前websocket连接
+     */
+    private volatile WebSocketSession session;
+
+    /**
+     * 源节点对订阅的第一个回复
+     */
+    private volatile CompletableFuture<RtspMessage<String>> replyFuture;
+
+    public OriginRelayProxy(WebSocketClient webSocketClient, ObjectMapper objectMapper, URI originUri, Integer channelNumber, String variant) {
+        // rtsp客户端只为满足父类构造，不会连接
+        super(new RtspClient(originUri), false);
+        this.webSocketClient = webSocketClient;
+        this.objectMapper = objectMapper;
+        this.originUri = originUri;
+        this.channelNumber = channelNumber;
+        this.variant = variant;
+    }
+
+    @Override
+    public void onFmp4DataHandle(Consumer<byte[]> fmp4DataHandle) {
+        this.fmp4DataHandle = fmp4DataHandle;
+    }
+
+    @Override
+    public void onCodecHandle(Consumer<String> codecHandle) {
+        this.codecHandle = codecHandle;
+    }
+
+    @Override
+    public void onDestroyHandle(Runnable destroyHandle) {
+        this.destroyHandle = destroyHandle;
+    }
+
+    /**
+     * 连接源节点并订阅，阻塞至源节点接受订阅，跟随重定向，源节点返回错误则抛出异常
+     *
+     * @return 已完成的future
+     */
+    @Override
+    public CompletableFuture<Void> start() {
+        URI uri = this.originUri;
+        for (int i = 0; i <= MAX_REDIRECTS; i++) {
+            RtspMessage<String> reply = this.subscribe(uri);
+            if (reply.getType() != ERtspMessageType.REDIRECT) {
+                return CompletableFuture.completedFuture(null);
+            }
+            log.info("视频通道编号[{}]，源节点[{}]重定向至[{}]", this.channelNumber, uri, reply.getContent());
+            uri = URI.create(reply.getContent());
+        }
+        this.stop();
+        throw new IllegalStateException("源节点重定向次数过多：" + this.originUri);
+    }
+
+    @Override
+    public void stop() {
+        if (!this.terminal.compareAndSet(false, true)) {
+            return;
+        }
+        ListenableFuture<WebSocketSession> future = this.handshakeFuture;
+        if (future != null) {
+            future.cancel(true);
+        }
+        CompletableFuture<RtspMessage<String>> reply = this.replyFuture;
+        if (reply != null) {
+            reply.completeExceptionally(new IllegalStateException("已停止"));
+        }
+        this.closeSession(CloseStatus.NORMAL);
+    }
+
+    /**
+     * 连接源节点并发送订阅，等待第一个回复
+     *
+     * @param uri 源节点地址
+     * @return 回复，codec、连接中或重定向
+     */
+    private RtspMessage<String> subscribe(URI uri) {
+        // 先解除当前连接再关闭，重定向关闭的旧连接不触发断开事件
+        WebSocketSession previous = this.session;
+        this.session = null;
+        if (previous != null) {
+            try {
+                previous.close(CloseStatus.NORMAL);
+            } catch (IOException e) {
+                log.warn("视频通道编号[{}]，关闭源节点连接失败，{}", this.channelNumber, e.getMessage());
+            }
+        }
+        CompletableFuture<RtspMessage<String>> reply = new CompletableFuture<>();
+        this.replyFuture = reply;
+        try {
+            ListenableFuture<WebSocketSession> future = this.webSocketClient.doHandshake(new RelayHandler(reply), new WebSocketHttpHeaders(), uri);
+            this.handshakeFuture = future;
+            if (this.terminal.get()) {
+                future.cancel(true);
+            }
+            this.session = future.get();
+            if (this.terminal.get()) {
+                this.closeSession(CloseStatus.NORMAL);
+                throw new IllegalStateException("已停止");
+            }
+            RtspMessage<String> message = new RtspMessage<>();
+            message.setType(ERtspMessageType.SUBSCRIBE);
+            message.setNumber(this.channelNumber);
+            message.setContent(this.variant);
+            this.session.sendMessage(new TextMessage(this.objectMapper.writeValueAsString(message)));
+            RtspMessage<String> res = reply.get();
+            if (res.getType() == ERtspMessageType.ERROR) {
+                throw new IllegalStateException("源节点拒绝订阅：" + res.getContent());
+            }
+            return res;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("连接源节点被中断：" + uri, e);
+        } catch (ExecutionException | IOException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new IllegalStateException("连接源节点失败：" + uri + "，" + cause.getMessage(), cause);
+        }
+    }
+
+    private void closeSession(CloseStatus status) {
+        WebSocketSession current = this.session;
+        if (current == null || !current.isOpen()) {
+            return;
+        }
+        try {
+            current.close(status);
+        } catch (IOException e) {
+            log.warn("视频通道编号[{}]，关闭源节点连接失败，{}", this.channelNumber, e.getMessage());
+        }
+    }
+
+    /**
+     * 源节点websocket连接的处理器，每次连接一个
+     */
+    private class RelayHandler extends AbstractWebSocketHandler {
+
+        private final CompletableFuture<RtspMessage<String>> reply;
+
+        RelayHandler(CompletableFuture<RtspMessage<String>> reply) {
+            this.reply = reply;
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+            RtspMessage<String> res = objectMapper.readValue(message.getPayload(), new TypeReference<RtspMessage<String>>() {
+            });
+            if (!channelNumber.equals(res.getNumber())) {
+                return;
+            }
+            // 第一个回复由订阅过程处理
+            if (this.reply.complete(res) && res.getType() != ERtspMessageType.SUBSCRIBE) {
+                return;
+            }
+            switch (res.getType()) {
+                case SUBSCRIBE:
+                    codecHandle.accept(res.getContent());
+                    break;
+                case PENDING:
+                    log.debug("视频通道编号[{}]，源节点：{}", channelNumber, res.getContent());
+                    break;
+                case REDIRECT:
+                case ERROR:
+                    // 订阅后源节点关闭该码流或通道迁移，断开后由重连重新订阅
+                    log.warn("视频通道编号[{}]，源节点[{}]：{}", channelNumber, res.getType(), res.getContent());
+                    session.close(CloseStatus.NORMAL);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+            ByteBuffer payload = message.getPayload();
+            // 4字节通道编号 + FMP4数据
+            if (payload.remaining() <= 4 || payload.getInt(payload.position()) != channelNumber) {
+                return;
+            }
+            byte[] data = new byte[payload.remaining() - 4];
+            payload.position(payload.position() + 4);
+            payload.get(data);
+            fmp4DataHandle.accept(data);
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+            log.error("视频通道编号[{}]，源节点连接异常，{}", channelNumber, exception.getMessage());
+            session.close(CloseStatus.SERVER_ERROR);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+            if (!this.reply.isDone()) {
+                this.reply.completeExceptionally(new IllegalStateException("源节点连接关闭：" + status));
+            }
+            if (session == OriginRelayProxy.this.session && destroyed.compareAndSet(false, true)) {
+                destroyHandle.run();
+            }
+        }
+    }
+}
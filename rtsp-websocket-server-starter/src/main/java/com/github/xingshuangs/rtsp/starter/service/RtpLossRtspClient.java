@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.iot.protocol.rtp.service.RtpUdpClient;
+import com.github.xingshuangs.iot.protocol.rtsp.authentication.DigestAuthenticator;
+import com.github.xingshuangs.iot.protocol.rtsp.enums.ERtspTransportProtocol;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspClient;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspNetwork;
+import com.github.xingshuangs.rtsp.starter.model.RtpLossCounter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * 统计RTP丢包的UDP方式rtsp客户端，在PLAY之前为RTP客户端挂上收包回调，
+ * 通信库没有公开RTP客户端，只能通过反射获取，获取失败则不统计
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class RtpLossRtspClient extends RtspClient {
+
+    /**
+     * RtspNetwork中保存RTP/RTCP客户端的字段
+     */
+    private static final Field SOCKET_CLIENTS_FIELD = findSocketClientsField();
+
+    /**
+     * RTP丢包统计
+     */
+    private final RtpLossCounter rtpLossCounter;
+
+    public RtpLossRtspClient(URI uri, DigestAuthenticator authenticator, RtpLossCounter rtpLossCounter) {
+        super(uri, authenticator, ERtspTransportProtocol.UDP);
+        this.rtpLossCounter = rtpLossCounter;
+    }
+
+    @Override
+    protected void play() {
+        // SETUP之后RTP客户端已创建但尚未开始接收，此时挂上回调不会漏包
+        this.bindRtpLossCounter();
+        super.play();
+    }
+
+    /**
+     * 为所有RTP客户端挂上收包回调
+     */
+    private void bindRtpLossCounter() {
+        if (SOCKET_CLIENTS_FIELD == null) {
+            return;
+        }
+        try {
+            Map<?, ?> socketClients = (Map<?, ?>) SOCKET_CLIENTS_FIELD.get(this);
+            for (Object socketClient : socketClients.values()) {
+                if (socketClient instanceof RtpUdpClient) {
+                    ((RtpUdpClient) socketClient).setCommCallback(this.rtpLossCounter::onPacket);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("无法获取RTP客户端，不统计RTP丢包：{}", e.getMessage());
+        }
+    }
+
+    private static Field findSocketClientsField() {
+        try {
+            Field field = RtspNetwork.class.getDeclaredField("socketClients");
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            log.warn("当前通信库版本无法获取RTP客户端，不统计RTP丢包：{}", e.getMessage());
+            return null;
+        }
+    }
+}
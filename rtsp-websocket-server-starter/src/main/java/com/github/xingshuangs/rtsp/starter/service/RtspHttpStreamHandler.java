@@ -0,0 +1,225 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.model.ClusterMember;
+import com.github.xingshuangs.rtsp.starter.model.HttpStreamConnection;
+import com.github.xingshuangs.rtsp.starter.model.HttpStreamSink;
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * RTSP的HTTP流处理器，以chunked的FMP4响应输出视频，与websocket订阅者共享同一个rtsp连接；
+ * 请求以异步方式处理，容器线程在订阅后立即返回，之后由发送线程池非阻塞写出
+ *
+ * @author xingshuang
+ */
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class RtspHttpStreamHandler {
+
+    /**
+     * 响应的类型
+     */
+    private static final String CONTENT_TYPE = "video/mp4";
+
+    private final ConcurrentHashMap<String, HttpStreamConnection> connectionMap = new ConcurrentHashMap<>();
+
+    private final RtspManager rtspManager;
+
+    private final RtspProperties rtspProperties;
+
+    /**
+     * websocket发送线程池，HTTP流共用
+     */
+    private final ExecutorService websocketSendExecutor;
+
+    /**
+     * 推流链路的指标
+     */
+    private final RtspMetrics rtspMetrics;
+
+    public RtspHttpStreamHandler(RtspManager rtspManager,
+                                 RtspProperties rtspProperties,
+                                 ExecutorService websocketSendExecutor,
+                                 RtspMetrics rtspMetrics) {
+        this.rtspManager = rtspManager;
+        this.rtspProperties = rtspProperties;
+        this.websocketSendExecutor = websocketSendExecutor;
+        this.rtspMetrics = rtspMetrics;
+    }
+
+    /**
+     * 处理拉流请求，响应头提交前校验视频通道，不存在返回404，属于其他集群成员则重定向
+     *
+     * @param channelNumber 视频通道编号
+     * @param variant       码流名称，空则由服务端选择
+     * @param request       请求
+     * @param response      响应
+     * @throws IOException IO异常
+     */
+    public void handle(Integer channelNumber, String variant, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        RtspAddress rtspAddress = this.rtspProperties.getAddresses().stream()
+                .filter(x -> x.getNumber().equals(channelNumber)).findFirst().orElse(null);
+        if (rtspAddress == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "不存在该视频通道编号：" + channelNumber);
+            return;
+        }
+        if (StringUtils.isNotEmpty(variant) && rtspAddress.findVariantUrl(variant) == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value(), "不存在该码流：" + variant);
+            return;
+        }
+        ClusterMember owner = this.rtspManager.getChannelOwner(channelNumber);
+        if (owner != null) {
+            log.info("HTTP流，视频通道编号[{}]属于集群成员[{}]，重定向", channelNumber, owner.getId());
+            response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+            response.setHeader(HttpHeaders.LOCATION, toStreamUrl(owner.getUrl(), request));
+            return;
+        }
+
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache, no-store");
+        AsyncContext asyncContext = request.startAsync();
+        // 直播流没有结束时间，不超时
+        asyncContext.setTimeout(0);
+        HttpStreamSink sink = new HttpStreamSink(asyncContext);
+        HttpStreamConnection connection = new HttpStreamConnection(sink, this.websocketSendExecutor, this.rtspProperties.getWebsocket());
+        connection.setLastConnectionTime(LocalDateTime.now());
+        asyncContext.addListener(new StreamListener(sink, connection));
+        this.connectionMap.put(sink.getId(), connection);
+        this.rtspMetrics.bindSession(connection);
+        log.info("有新HTTP流加入！当前HTTP流数量为[{}]，sessionId[{}]，视频通道编号[{}]", this.connectionMap.size(), sink.getId(), channelNumber);
+        sink.getOutputStream().setWriteListener(connection);
+        try {
+            this.rtspManager.subscribe(connection, channelNumber, StringUtils.trimToEmpty(variant));
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+        // 订阅失败没有后续数据，结束响应
+        if (!connection.hasChannelNumber()) {
+            sink.close(CloseStatus.NORMAL);
+        }
+    }
+
+    /**
+     * 获取当前的HTTP流数量
+     *
+     * @return 数量
+     */
+    public int getConnectionCount() {
+        return this.connectionMap.size();
+    }
+
+    /**
+     * 异步请求结束，移除订阅
+     *
+     * @param connection HTTP流连接
+     */
+    private void onClosed(HttpStreamConnection connection) {
+        connection.onClosed();
+        if (this.connectionMap.remove(connection.getSink().getId()) == null) {
+            return;
+        }
+        this.rtspManager.remove(connection);
+        this.rtspMetrics.unbindSession(connection);
+        log.info("有一HTTP流关闭！当前HTTP流数量为[{}]，sessionId[{}]", this.connectionMap.size(), connection.getSink().getId());
+    }
+
+    /**
+     * 集群成员的websocket地址转换为同一路径的HTTP流地址
+     *
+     * @param memberUrl 成员的websocket地址
+     * @param request   请求
+     * @return HTTP流地址
+     */
+    private static String toStreamUrl(String memberUrl, HttpServletRequest request) {
+        URI uri = URI.create(memberUrl);
+        String scheme = "wss".equalsIgnoreCase(uri.getScheme()) ? "https" : "http";
+        // 请求路径和参数已是编码后的原始形式，直接拼接，避免再次编码其中的%
+        String query = request.getQueryString();
+        return scheme + "://" + uri.getRawAuthority() + request.getRequestURI() + (query == null ? "" : "?" + query);
+    }
+
+    /**
+     * 异步请求的监听器，客户端断开、出错或超时后结束
+     */
+    private class StreamListener implements AsyncListener {
+
+        private final HttpStreamSink sink;
+
+        private final HttpStreamConnection connection;
+
+        StreamListener(HttpStreamSink sink, HttpStreamConnection connection) {
+            this.sink = sink;
+            this.connection = connection;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            onClosed(this.connection);
+        }
+
+        /**
+         * 超时和出错后容器不会自动结束异步请求，需在回调中complete，否则会转发到错误页面，而响应已提交无法渲染
+         */
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            this.sink.complete();
+            onClosed(this.connection);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            log.debug("HTTP流[{}]出错，{}", this.sink.getId(),
+                    event.getThrowable() == null ? "" : event.getThrowable().getMessage());
+            this.sink.complete();
+            onClosed(this.connection);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -27,30 +27,59 @@ package com.github.xingshuangs.rtsp.starter.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.xingshuangs.iot.common.buff.ByteWriteBuff;
 import com.github.xingshuangs.iot.protocol.rtsp.authentication.DigestAuthenticator;
 import com.github.xingshuangs.iot.protocol.rtsp.authentication.UsernamePasswordCredential;
 import com.github.xingshuangs.iot.protocol.rtsp.enums.ERtspTransportProtocol;
 import com.github.xingshuangs.iot.protocol.rtsp.service.RtspClient;
 import com.github.xingshuangs.iot.protocol.rtsp.service.RtspFMp4Proxy;
+import com.github.xingshuangs.rtsp.starter.enums.ERtspTransport;
+import com.github.xingshuangs.rtsp.starter.model.ChannelStatus;
+import com.github.xingshuangs.rtsp.starter.model.ClusterMember;
+import com.github.xingshuangs.rtsp.starter.model.ClusterRouter;
+import com.github.xingshuangs.rtsp.starter.model.DvrPlayback;
+import com.github.xingshuangs.rtsp.starter.model.DvrRing;
+import com.github.xingshuangs.rtsp.starter.model.Fmp4Frame;
+import com.github.xingshuangs.rtsp.starter.model.GopCache;
+import com.github.xingshuangs.rtsp.starter.model.GopCacheBudget;
+import com.github.xingshuangs.rtsp.starter.model.RtpLossCounter;
 import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
 import com.github.xingshuangs.rtsp.starter.model.RtspConnection;
 import com.github.xingshuangs.rtsp.starter.model.RtspMessage;
+import com.github.xingshuangs.rtsp.starter.model.RtspStreamKey;
+import com.github.xingshuangs.rtsp.starter.model.RtspVariant;
+import com.github.xingshuangs.rtsp.starter.model.SubscriberStatus;
 import com.github.xingshuangs.rtsp.starter.model.WebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.properties.ConnectProperties;
+import com.github.xingshuangs.rtsp.starter.properties.DvrProperties;
+import com.github.xingshuangs.rtsp.starter.properties.EdgeProperties;
+import com.github.xingshuangs.rtsp.starter.properties.GopCacheProperties;
 import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
 
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
 import java.net.URI;
-import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -63,24 +92,133 @@ import java.util.stream.Collectors;
 public class RtspManager {
 
     /**
-     * key：视频通道编号
+     * key：视频通道编号 + 码流名称
      * value：rtsp连接对象
      */
-    private final ConcurrentHashMap<Integer, RtspConnection> rtspConnectionMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<RtspStreamKey, RtspConnection> rtspConnectionMap = new ConcurrentHashMap<>();
 
     /**
      * rtsp的地址
      */
     private final List<RtspAddress> rtspAddresses;
 
+    /**
+     * rtsp的地址，key：视频通道编号
+     */
+    private final Map<Integer, RtspAddress> rtspAddressMap;
+
     /**
      * json转换对象
      */
     private final ObjectMapper objectMapper;
 
-    public RtspManager(RtspProperties rtspProperties, ObjectMapper objectMapper) {
+    /**
+     * GOP缓存的配置
+     */
+    private final GopCacheProperties gopCacheProperties;
+
+    /**
+     * GOP缓存的全局内存预算
+     */
+    private final GopCacheBudget gopCacheBudget;
+
+    /**
+     * rtsp连接的配置
+     */
+    private final ConnectProperties connectProperties;
+
+    /**
+     * rtsp连接线程池
+     */
+    private final ExecutorService rtspConnectExecutor;
+
+    /**
+     * rtsp定时任务线程池
+     */
+    private final ScheduledExecutorService rtspScheduledExecutor;
+
+    /**
+     * websocket批量发送的定时线程池
+     */
+    private final ScheduledExecutorService websocketBatchExecutor;
+
+    /**
+     * 回看的定时线程池
+     */
+    private final ScheduledExecutorService dvrPlaybackExecutor;
+
+    /**
+     * 推流链路的指标
+     */
+    private final RtspMetrics rtspMetrics;
+
+    /**
+     * 保留期间订阅者回来，复用rtsp连接的次数
+     */
+    private final AtomicLong lingerHitCount = new AtomicLong();
+
+    /**
+     * 保留到期仍无订阅者，关闭rtsp连接的次数
+     */
+    private final AtomicLong lingerMissCount = new AtomicLong();
+
+    /**
+     * 集群路由，未开启集群时所有通道都属于本节点
+     */
+    private final ClusterRouter clusterRouter;
+
+    /**
+     * 边缘节点连接源节点的websocket客户端，不是边缘节点则为null
+     */
+    private final WebSocketClient originClient;
+
+    /**
+     * 源节点的websocket地址，不是边缘节点则为null
+     */
+    private final URI originUri;
+
+    /**
+     * 回看的配置
+     */
+    private final DvrProperties dvrProperties;
+
+    /**
+     * 各视频通道默认码流的回看缓存，跨rtsp连接保留，key：视频通道编号
+     */
+    private final ConcurrentHashMap<Integer, DvrRing> dvrRings = new ConcurrentHashMap<>();
+
+    public RtspManager(RtspProperties rtspProperties,
+                       ObjectMapper objectMapper,
+                       ExecutorService rtspConnectExecutor,
+                       ScheduledExecutorService rtspScheduledExecutor,
+                       ScheduledExecutorService websocketBatchExecutor,
+                       ScheduledExecutorService dvrPlaybackExecutor,
+                       RtspMetrics rtspMetrics) {
         this.rtspAddresses = rtspProperties.getAddresses();
+        this.rtspAddressMap = this.rtspAddresses.stream().collect(Collectors.toMap(RtspAddress::getNumber, x -> x, (a, b) -> a));
         this.objectMapper = objectMapper;
+        this.gopCacheProperties = rtspProperties.getGopCache();
+        this.gopCacheBudget = new GopCacheBudget(this.gopCacheProperties.getMaxBytesTotal());
+        this.connectProperties = rtspProperties.getConnect();
+        this.rtspConnectExecutor = rtspConnectExecutor;
+        this.rtspScheduledExecutor = rtspScheduledExecutor;
+        this.websocketBatchExecutor = websocketBatchExecutor;
+        this.dvrPlaybackExecutor = dvrPlaybackExecutor;
+        this.rtspMetrics = rtspMetrics;
+        this.clusterRouter = new ClusterRouter(rtspProperties.getCluster());
+        this.dvrProperties = rtspProperties.getDvr();
+        EdgeProperties edgeProperties = rtspProperties.getEdge();
+        if (edgeProperties.isEnabled()) {
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            container.setDefaultMaxBinaryMessageBufferSize(edgeProperties.getMaxMessageSize());
+            container.setDefaultMaxTextMessageBufferSize(64 * 1024);
+            this.originClient = new StandardWebSocketClient(container);
+            this.originUri = URI.create(edgeProperties.getOriginUrl());
+            log.info("作为边缘节点，从源节点[{}]转发视频流", this.originUri);
+        } else {
+            this.originClient = null;
+            this.originUri = null;
+        }
     }
 
     /**
@@ -89,12 +227,11 @@ public class RtspManager {
      * @param websocketConnection websocket连接
      */
     public void remove(WebsocketConnection websocketConnection) {
-        List<Integer> channelNumbers = this.getChannelNumberByWebsocket(websocketConnection);
-        if (channelNumbers.isEmpty()) {
+        if (websocketConnection == null) {
             return;
         }
-        // 存在该websocket连接，先移除该连接，再查看rtsp是否还有订阅连接，若没有则断开rtsp
-        channelNumbers.forEach(channelNumber -> this.remove(websocketConnection, channelNumber));
+        // 以websocket连接自身订阅的通道编号为准，只处理其订阅过的通道，先移除该连接，再查看rtsp是否还有订阅连接，若没有则断开rtsp
+        websocketConnection.getChannelNumbers().forEach(channelNumber -> this.remove(websocketConnection, channelNumber));
     }
 
     /**
@@ -105,20 +242,247 @@ public class RtspManager {
      */
     public void remove(WebsocketConnection websocketConnection, Integer channelNumber) {
         // 移除websocket连接订阅的通道编号，移除rtsp关联的websocket连接
-        websocketConnection.removeChannelNumber(channelNumber);
-        // 移除指定通道的websocket连接，先移除该连接，再查看rtsp是否还有订阅连接，若没有则断开rtsp
-        RtspConnection rtspConnection = this.rtspConnectionMap.get(channelNumber);
-        if (rtspConnection == null) {
+        String variant = websocketConnection.removeChannelNumber(channelNumber);
+        if (variant != null) {
+            this.leaveRtspConnection(websocketConnection, channelNumber, variant);
+        }
+    }
+
+    /**
+     * websocket连接离开指定码流的rtsp连接，不修改websocket连接自身的订阅
+     *
+     * @param websocketConnection websocket连接
+     * @param channelNumber       通道编号
+     * @param variant             码流名称
+     */
+    private void leaveRtspConnection(WebsocketConnection websocketConnection, Integer channelNumber, String variant) {
+        // 移除指定通道的websocket连接，先移除该连接，再查看rtsp是否还有订阅连接，若没有则保留一段时间后断开rtsp，
+        // 在map的桶锁内完成，不会与同通道并发的订阅交错
+        RtspConnection[] closed = new RtspConnection[1];
+        this.rtspConnectionMap.computeIfPresent(RtspStreamKey.of(channelNumber, variant), (k, v) -> {
+            v.removeWebsocketConnection(websocketConnection);
+            if (v.hasWebsocketConnection() || v.isPrewarm()) {
+                return v;
+            }
+            if (v.getLingerTimeout() > 0) {
+                if (v.getLingerFuture() == null) {
+                    this.scheduleLinger(v, channelNumber);
+                }
+                return v;
+            }
+            closed[0] = v;
+            return null;
+        });
+        if (closed[0] != null) {
+            this.stopRtspConnection(closed[0], channelNumber);
+        }
+    }
+
+    /**
+     * 预热通道的默认码流，建立常驻的rtsp连接，已有连接则忽略，握手异步完成
+     *
+     * @param channelNumber 通道编号
+     */
+    public void prewarm(Integer channelNumber) {
+        if (this.isRemoteChannel(channelNumber)) {
+            log.info("视频通道编号[{}]属于集群成员[{}]，本节点不预热", channelNumber, this.clusterRouter.ownerOf(channelNumber).getId());
             return;
         }
-        rtspConnection.removeWebsocketConnection(websocketConnection);
-        if (!rtspConnection.hasWebsocketConnection()) {
-            rtspConnection.getRtspFMp4Proxy().stop();
-            this.rtspConnectionMap.remove(channelNumber);
-            log.info("由于视频通道编号[{}]没有websocket订阅，关闭RTSP连接", channelNumber);
+        this.prepareDvrRing(channelNumber, RtspAddress.DEFAULT_VARIANT);
+        boolean[] created = new boolean[1];
+        RtspConnection rtspConnection = this.rtspConnectionMap.computeIfAbsent(RtspStreamKey.of(channelNumber, RtspAddress.DEFAULT_VARIANT), k -> {
+            created[0] = true;
+            return this.createRtspConnection(k);
+        });
+        if (created[0]) {
+            log.info("预热视频通道编号[{}]", channelNumber);
+            this.startRtspFmp4Proxy(rtspConnection, channelNumber);
         }
     }
 
+    /**
+     * 获取通道默认码流的rtsp连接
+     *
+     * @param channelNumber 通道编号
+     * @return rtsp连接，没有则为null
+     */
+    public RtspConnection getRtspConnection(Integer channelNumber) {
+        return this.getRtspConnection(channelNumber, RtspAddress.DEFAULT_VARIANT);
+    }
+
+    /**
+     * 获取通道指定码流的rtsp连接
+     *
+     * @param channelNumber 通道编号
+     * @param variant       码流名称
+     * @return rtsp连接，没有则为null
+     */
+    public RtspConnection getRtspConnection(Integer channelNumber, String variant) {
+        return this.rtspConnectionMap.get(RtspStreamKey.of(channelNumber, variant));
+    }
+
+    /**
+     * 获取通道所有码流的订阅者数量，按通道配置的码流逐个查找，不遍历所有rtsp连接
+     *
+     * @param channelNumber 通道编号
+     * @return 订阅者数量
+     */
+    public int getSubscriberCount(Integer channelNumber) {
+        RtspAddress rtspAddress = this.rtspAddressMap.get(channelNumber);
+        if (rtspAddress == null) {
+            return 0;
+        }
+        int count = this.getSubscriberCount(channelNumber, RtspAddress.DEFAULT_VARIANT);
+        for (RtspVariant variant : rtspAddress.getVariants()) {
+            count += this.getSubscriberCount(channelNumber, variant.getName());
+        }
+        return count;
+    }
+
+    /**
+     * 获取通道指定码流的订阅者数量
+     *
+     * @param channelNumber 通道编号
+     * @param variant       码流名称
+     * @return 订阅者数量
+     */
+    private int getSubscriberCount(Integer channelNumber, String variant) {
+        RtspConnection rtspConnection = this.getRtspConnection(channelNumber, variant);
+        return rtspConnection == null ? 0 : rtspConnection.getWebsocketConnectionCount();
+    }
+
+    /**
+     * 获取所有视频通道的状态快照，每个码流一条
+     *
+     * @return 状态列表
+     */
+    public List<ChannelStatus> getChannelStatuses() {
+        return this.rtspAddresses.stream()
+                .flatMap(x -> x.variantNames().stream().map(variant -> this.getChannelStatus(x, variant)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 获取视频通道码流的状态快照
+     *
+     * @param rtspAddress rtsp地址
+     * @param variant     码流名称
+     * @return 状态
+     */
+    private ChannelStatus getChannelStatus(RtspAddress rtspAddress, String variant) {
+        ChannelStatus status = new ChannelStatus();
+        status.setNumber(rtspAddress.getNumber());
+        status.setVariant(variant);
+        status.setPrewarm(rtspAddress.isPrewarm() && RtspAddress.DEFAULT_VARIANT.equals(variant));
+        ClusterMember owner = this.clusterRouter.ownerOf(rtspAddress.getNumber());
+        status.setOwner(owner == null ? null : owner.getId());
+        RtspConnection rtspConnection = this.getRtspConnection(rtspAddress.getNumber(), variant);
+        if (rtspConnection == null) {
+            status.setSubscribers(Collections.emptyList());
+            return status;
+        }
+        List<SubscriberStatus> subscribers = new ArrayList<>(rtspConnection.getWebsocketConnectionCount());
+        rtspConnection.foreachConnections(x -> subscribers.add(SubscriberStatus.createBy(x)));
+        status.setConnected(true);
+        status.setStreaming(rtspConnection.isHeaderReady());
+        status.setCodec(rtspConnection.getCodec());
+        status.setStartTime(rtspConnection.getStartTime());
+        status.setBitrate(rtspConnection.sampleBitrate());
+        status.setReconnectCount(rtspConnection.getReconnectCount());
+        status.setTransport(rtspConnection.getTransportProtocol().name());
+        status.setOrigin(rtspConnection.getOriginUri() == null ? null : rtspConnection.getOriginUri().toString());
+        status.setDvrSeconds(rtspConnection.getDvrRing() == null ? 0 : rtspConnection.getDvrRing().getDuration() / 1000);
+        status.setRtpLossRate(rtspConnection.getRtpLossRate());
+        status.setSubscriberCount(subscribers.size());
+        status.setSubscribers(subscribers);
+        return status;
+    }
+
+    /**
+     * 通道的默认码流是否正在推流，即rtsp连接已建立且视频头已下发
+     *
+     * @param channelNumber 通道编号
+     * @return true：推流中，false：未推流
+     */
+    public boolean isStreaming(Integer channelNumber) {
+        RtspConnection rtspConnection = this.getRtspConnection(channelNumber);
+        return rtspConnection != null && rtspConnection.isHeaderReady();
+    }
+
+    /**
+     * 视频通道是否属于集群中的其他成员
+     *
+     * @param channelNumber 通道编号
+     * @return true：属于其他成员，false：属于本节点或未开启集群
+     */
+    public boolean isRemoteChannel(Integer channelNumber) {
+        return !this.clusterRouter.isLocal(channelNumber);
+    }
+
+    /**
+     * 获取视频通道所属的集群成员
+     *
+     * @param channelNumber 通道编号
+     * @return 所属成员，属于本节点或未开启集群则为null
+     */
+    public ClusterMember getChannelOwner(Integer channelNumber) {
+        return this.isRemoteChannel(channelNumber) ? this.clusterRouter.ownerOf(channelNumber) : null;
+    }
+
+    /**
+     * 获取集群成员列表
+     *
+     * @return 成员列表，未开启集群则为空
+     */
+    public List<ClusterMember> getClusterMembers() {
+        return this.clusterRouter.getMembers();
+    }
+
+    /**
+     * 更新集群成员列表，重新分配视频通道；不再属于本节点的rtsp连接被关闭，其订阅者收到重定向消息，
+     * 新分配到本节点的预热通道开始预热
+     *
+     * @param members 成员列表
+     */
+    public void updateClusterMembers(List<ClusterMember> members) {
+        this.clusterRouter.update(members);
+        log.info("集群成员更新为{}", members.stream().map(ClusterMember::getId).collect(Collectors.toList()));
+        for (Map.Entry<RtspStreamKey, RtspConnection> entry : new ArrayList<>(this.rtspConnectionMap.entrySet())) {
+            Integer channelNumber = entry.getKey().getNumber();
+            if (!this.isRemoteChannel(channelNumber)) {
+                continue;
+            }
+            RtspConnection rtspConnection = entry.getValue();
+            ClusterMember owner = this.clusterRouter.ownerOf(channelNumber);
+            log.info("视频通道编号[{}]码流[{}]迁移至集群成员[{}]，关闭RTSP连接并重定向订阅者", channelNumber, rtspConnection.getVariant(), owner.getId());
+            this.closeRtspConnection(rtspConnection, channelNumber, RtspMessage.createRedirect(channelNumber, owner.getUrl()));
+            RtspFMp4Proxy rtspFMp4Proxy = rtspConnection.getRtspFMp4Proxy();
+            rtspConnection.markStopped(rtspFMp4Proxy);
+            rtspFMp4Proxy.stop();
+        }
+        this.rtspAddresses.stream()
+                .filter(x -> x.isPrewarm() && !this.isRemoteChannel(x.getNumber()))
+                .forEach(x -> this.prewarm(x.getNumber()));
+    }
+
+    /**
+     * 保留期间订阅者回来，复用rtsp连接的次数
+     *
+     * @return 次数
+     */
+    public long getLingerHitCount() {
+        return this.lingerHitCount.get();
+    }
+
+    /**
+     * 保留到期仍无订阅者，关闭rtsp连接的次数
+     *
+     * @return 次数
+     */
+    public long getLingerMissCount() {
+        return this.lingerMissCount.get();
+    }
+
     /**
      * 处理消息，有订阅和查询公恩那个
      *
@@ -148,6 +512,12 @@ public class RtspManager {
                 case QUERY:
                     this.handleQuery(websocketConnection, rtspMessage);
                     break;
+                case BATCH:
+                    this.handleBatch(websocketConnection, rtspMessage);
+                    break;
+                case SEEK:
+                    this.handleSeek(websocketConnection, rtspMessage);
+                    break;
                 default:
                     this.sendTextMessage(websocketConnection, RtspMessage.createError(rtspMessage.getNumber(), "无法识别指定消息指令"));
                     break;
@@ -158,6 +528,18 @@ public class RtspManager {
         }
     }
 
+    /**
+     * 以指定码流订阅视频通道，用于HTTP等没有消息交互的传输方式，处理与SUBSCRIBE消息一致，
+     * 失败时只下发错误消息，连接不包含该视频通道
+     *
+     * @param websocketConnection 连接
+     * @param channelNumber       通道编号
+     * @param variant             码流名称，空则由服务端选择
+     */
+    public void subscribe(WebsocketConnection websocketConnection, Integer channelNumber, String variant) {
+        this.handleSubscribe(websocketConnection, RtspMessage.createSubscribe(channelNumber, variant));
+    }
+
     /**
      * 订阅事件处理
      *
@@ -168,46 +550,96 @@ public class RtspManager {
         Integer channelNumber = rtspMessage.getNumber();
 
         // 1. 判定视频通道编号有没有，若没有返回错误消息
-        boolean existSubscribeName = this.rtspAddresses.stream().anyMatch(x -> x.getNumber().equals(channelNumber));
-        if (!existSubscribeName) {
-            log.error("websocket[{}]，没有该通道编号[{}]，无法订阅", websocketConnection.getSession().getId(), channelNumber);
+        RtspAddress rtspAddress = this.rtspAddressMap.get(channelNumber);
+        if (rtspAddress == null) {
+            log.error("websocket[{}]，没有该通道编号[{}]，无法订阅", websocketConnection.getSink().getId(), channelNumber);
             this.sendTextMessage(websocketConnection, RtspMessage.createError(rtspMessage.getNumber(), "不存在该视频通道编号：" + channelNumber));
             return;
         }
 
-        // 2. 判定该websocket之前是否已经订阅过视频通道编号
-        if (websocketConnection.containChannelNumber(channelNumber)) {
-            // 已经订阅过，且同名，直接返回，无需重复订阅
-            log.info("websocket[{}]，已订阅过该视频通道编号[{}]，无需重复订阅", websocketConnection.getSession().getId(), channelNumber);
+        // 2. 开启集群时，视频通道不属于本节点则重定向到所属成员，由客户端连接该成员订阅
+        if (this.isRemoteChannel(channelNumber)) {
+            ClusterMember owner = this.clusterRouter.ownerOf(channelNumber);
+            log.info("websocket[{}]，视频通道编号[{}]属于集群成员[{}]，重定向", websocketConnection.getSink().getId(), channelNumber, owner.getId());
+            this.sendTextMessage(websocketConnection, RtspMessage.createRedirect(channelNumber, owner.getUrl()));
+            return;
+        }
+
+        // 3. 判定该websocket之前是否已经订阅过视频通道编号，订阅过且未指定其他码流则直接返回，无需重复订阅
+        String requested = StringUtils.trimToEmpty(rtspMessage.getContent());
+        String current = websocketConnection.getChannelVariant(channelNumber);
+        if (current != null && (requested.isEmpty() || requested.equals(current))) {
+            log.info("websocket[{}]，已订阅过该视频通道编号[{}]，无需重复订阅", websocketConnection.getSink().getId(), channelNumber);
             this.sendTextMessage(websocketConnection, RtspMessage.createError(rtspMessage.getNumber(), "已经订阅该通道，无需重复订阅"));
             return;
         }
-        // 未订阅过，添加新的通道编号
-        websocketConnection.setLastSubscribeTime(LocalDateTime.now());
-        websocketConnection.addChannelNumber(channelNumber);
-
-        // 3. 有没有rtsp对应的通道编号，有则添加websocket的连接，没有则重新创建新代理连接
-        RtspConnection rtspConnection = this.rtspConnectionMap.get(channelNumber);
-        if (rtspConnection != null) {
-            // 已有rtsp连接，第一步需要立即返回codec，第二步需要接收视频头，第三步需要接收视频流内容
-            log.info("websocket[{}]，已构建了视频通道编号[{}]，直接发送codec和mp4视频头", websocketConnection.getSession().getId(), channelNumber);
-            RtspMessage<String> codecMessage = RtspMessage.createSubscribe(rtspMessage.getNumber(), rtspConnection.getCodec());
-            this.sendTextMessage(websocketConnection, codecMessage);
-            this.sendBinaryMessage(websocketConnection, channelNumber, rtspConnection.getMp4Header());
-            rtspConnection.addWebsocketConnection(websocketConnection);
-            this.printConnectionChannelInfo();
+
+        // 4. 确定码流，未指定则由服务端选择，指定的码流不存在则返回错误消息
+        String variant = requested.isEmpty() ? this.selectVariant(websocketConnection, rtspAddress) : requested;
+        if (rtspAddress.findVariantUrl(variant) == null) {
+            log.error("websocket[{}]，视频通道编号[{}]没有码流[{}]，无法订阅", websocketConnection.getSink().getId(), channelNumber, variant);
+            this.sendTextMessage(websocketConnection, RtspMessage.createError(rtspMessage.getNumber(), "不存在该码流：" + variant));
             return;
         }
 
-        // 4. 开始订阅新视频通道
-        log.info("websocket[{}]，订阅视频通道编号[{}]", websocketConnection.getSession().getId(), channelNumber);
-        RtspConnection newRtspConnection = this.openRtspFmp4Proxy(websocketConnection, channelNumber);
-        if (newRtspConnection != null) {
-            this.rtspConnectionMap.put(channelNumber, newRtspConnection);
-        } else {
+        // 5. 未订阅过则添加新的通道编号，已订阅其他码流则无需取消订阅，离开原码流的rtsp连接后加入新码流
+        if (current != null) {
+            log.info("websocket[{}]，视频通道编号[{}]由码流[{}]切换为[{}]", websocketConnection.getSink().getId(), channelNumber, current, variant);
+            websocketConnection.switchChannelVariant(channelNumber, variant);
+            this.leaveRtspConnection(websocketConnection, channelNumber, current);
+        } else if (!websocketConnection.addChannelNumber(channelNumber, variant)) {
+            this.sendTextMessage(websocketConnection, RtspMessage.createError(rtspMessage.getNumber(), "已经订阅该通道，无需重复订阅"));
+            return;
+        }
+        websocketConnection.setLastSubscribeTime(LocalDateTime.now());
+
+        // 6. 单飞打开，同一码流只有第一个订阅者创建rtsp连接，并发的订阅者挂到同一个（可能仍在连接中的）连接上，
+        // codec和视频头就绪后统一下发，加入订阅在map的桶锁内完成，不会与最后一个订阅者退出时的关闭交错
+        this.prepareDvrRing(channelNumber, variant);
+        boolean[] created = new boolean[1];
+        RtspConnection rtspConnection;
+        try {
+            rtspConnection = this.rtspConnectionMap.compute(RtspStreamKey.of(channelNumber, variant), (k, v) -> {
+                RtspConnection connection = v;
+                if (connection == null) {
+                    connection = this.createRtspConnection(k);
+                    created[0] = true;
+                } else if (connection.cancelLinger()) {
+                    this.lingerHitCount.incrementAndGet();
+                    log.info("视频通道编号[{}]在保留期内被重新订阅，复用RTSP连接", channelNumber);
+                }
+                this.joinRtspConnection(connection, websocketConnection, channelNumber);
+                return connection;
+            });
+        } catch (Exception e) {
             websocketConnection.removeChannelNumber(channelNumber);
+            throw e;
+        }
+
+        // 7. 只有创建者开始连接rtsp，握手在rtsp连接线程池中异步完成，codec或错误异步下发
+        if (created[0]) {
+            log.info("websocket[{}]，订阅视频通道编号[{}]码流[{}]", websocketConnection.getSink().getId(), channelNumber, variant);
+            this.startRtspFmp4Proxy(rtspConnection, channelNumber);
+        } else {
+            log.info("websocket[{}]，已构建了视频通道编号[{}]码流[{}]，直接加入订阅", websocketConnection.getSink().getId(), channelNumber, variant);
+        }
+        this.printChannelSummary(channelNumber);
+    }
+
+    /**
+     * 未指定码流时由服务端选择，订阅的通道数超过阈值（如电视墙）时选择清晰度最低的码流，否则选择默认码流
+     *
+     * @param websocketConnection websocket连接
+     * @param rtspAddress         rtsp地址
+     * @return 码流名称
+     */
+    private String selectVariant(WebsocketConnection websocketConnection, RtspAddress rtspAddress) {
+        int threshold = websocketConnection.getProperties().getAutoVariantThreshold();
+        // 包含本次订阅的通道
+        if (threshold > 0 && websocketConnection.getChannelCount() + 1 > threshold) {
+            return rtspAddress.lowestVariant();
         }
-        this.printConnectionChannelInfo();
+        return RtspAddress.DEFAULT_VARIANT;
     }
 
     /**
@@ -217,9 +649,9 @@ public class RtspManager {
      * @param rtspMessage         rtsp消息
      */
     private void handleUnsubscribe(WebsocketConnection websocketConnection, RtspMessage<String> rtspMessage) {
-        log.info("websocket[{}]，取消订阅视频通道编号[{}]", websocketConnection.getSession().getId(), rtspMessage.getNumber());
+        log.info("websocket[{}]，取消订阅视频通道编号[{}]", websocketConnection.getSink().getId(), rtspMessage.getNumber());
         this.remove(websocketConnection, rtspMessage.getNumber());
-        this.printConnectionChannelInfo();
+        this.printChannelSummary(rtspMessage.getNumber());
     }
 
 
@@ -241,124 +673,611 @@ public class RtspManager {
     }
 
     /**
-     * 发送文本消息
+     * 处理批量发送消息，content为攒批间隔的毫秒数，0表示关闭，返回实际的攒批间隔
      *
      * @param websocketConnection websocket连接
-     * @param message             消息对象
+     * @param rtspMessage         rtsp消息
      */
-    private void sendTextMessage(WebsocketConnection websocketConnection, RtspMessage<?> message) {
+    private void handleBatch(WebsocketConnection websocketConnection, RtspMessage<String> rtspMessage) {
+        long interval;
         try {
-            String res = this.objectMapper.writeValueAsString(message);
-            TextMessage textMessage = new TextMessage(res);
-            websocketConnection.sendMessage(textMessage);
+            interval = Long.parseLong(rtspMessage.getContent().trim());
+        } catch (Exception e) {
+            interval = -1;
+        }
+        if (interval < 0) {
+            this.sendTextMessage(websocketConnection, RtspMessage.createError(rtspMessage.getNumber(), "批量发送的content参数只能是攒批间隔的毫秒数"));
+            return;
+        }
+        if (interval > 0) {
+            interval = websocketConnection.enableBatch(interval, this.websocketBatchExecutor);
+        } else {
+            websocketConnection.disableBatch();
+        }
+        log.info("websocket[{}]，批量发送的攒批间隔[{}ms]", websocketConnection.getSink().getId(), interval);
+        this.sendTextMessage(websocketConnection, RtspMessage.createBatch(rtspMessage.getNumber(), String.valueOf(interval)));
+    }
+
+    /**
+     * 处理回看消息，content为回看的秒数，从该时间之前最近的关键帧开始按录制节奏回放，0表示回到实时；
+     * 回看期间不发送该通道的实时数据，先下发codec和视频头，页面重新构建播放
+     *
+     * @param websocketConnection websocket连接
+     * @param rtspMessage         rtsp消息
+     */
+    private void handleSeek(WebsocketConnection websocketConnection, RtspMessage<String> rtspMessage) {
+        Integer channelNumber = rtspMessage.getNumber();
+        long seconds;
+        try {
+            seconds = Long.parseLong(rtspMessage.getContent().trim());
+        } catch (Exception e) {
+            seconds = -1;
+        }
+        if (seconds < 0) {
+            this.sendTextMessage(websocketConnection, RtspMessage.createError(channelNumber, "回看的content参数只能是回看的秒数"));
+            return;
+        }
+        if (!websocketConnection.containChannelNumber(channelNumber)) {
+            this.sendTextMessage(websocketConnection, RtspMessage.createError(channelNumber, "未订阅该通道，无法回看"));
+            return;
+        }
+        if (seconds == 0) {
+            if (websocketConnection.isTimeShifted(channelNumber)) {
+                log.info("websocket[{}]，视频通道编号[{}]回到实时", websocketConnection.getSink().getId(), channelNumber);
+                this.resumeLive(websocketConnection, channelNumber);
+            }
+            this.sendTextMessage(websocketConnection, RtspMessage.createSeek(channelNumber, "0"));
+            return;
+        }
+        DvrRing dvrRing = this.dvrRings.get(channelNumber);
+        RtspConnection rtspConnection = this.getRtspConnection(channelNumber);
+        DvrRing.Cursor cursor = dvrRing == null ? null : dvrRing.seek(System.currentTimeMillis() - seconds * 1000);
+        if (cursor == null || rtspConnection == null || rtspConnection.getHeaderFrame() == null) {
+            this.sendTextMessage(websocketConnection, RtspMessage.createError(channelNumber, "没有可回看的数据"));
+            return;
+        }
+        DvrPlayback playback = new DvrPlayback(channelNumber, dvrRing, cursor);
+        boolean hevc = rtspConnection.isHevc();
+        long actual = Math.max(0, (System.currentTimeMillis() - cursor.getTime()) / 1000);
+        log.info("websocket[{}]，视频通道编号[{}]回看[{}s]", websocketConnection.getSink().getId(), channelNumber, actual);
+        // 回看缓存与默认码流的视频头一致，与codec的发布互斥，先停止实时数据再下发codec和视频头
+        rtspConnection.runLocked(() -> {
+            websocketConnection.putPlayback(playback);
+            this.sendTextMessage(websocketConnection, RtspMessage.createSeek(channelNumber, String.valueOf(actual)));
+            websocketConnection.sendMessage(rtspConnection.getCodecMessage());
+            this.sendFrame(websocketConnection, rtspConnection.getHeaderFrame());
+        });
+        long interval = this.dvrProperties.getPlaybackInterval();
+        playback.setFuture(this.dvrPlaybackExecutor.scheduleWithFixedDelay(
+                () -> this.playback(websocketConnection, playback, hevc), 0, interval, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 发送回放中已到时间的媒体片段，回放位置的数据被覆盖或缓存重置(重新拉流)后回到实时
+     *
+     * @param websocketConnection websocket连接
+     * @param playback            回放
+     * @param hevc                是否为H.265
+     */
+    private void playback(WebsocketConnection websocketConnection, DvrPlayback playback, boolean hevc) {
+        Integer channelNumber = playback.getChannelNumber();
+        if (websocketConnection.getPlayback(channelNumber) != playback || !websocketConnection.getSink().isOpen()) {
+            playback.cancel();
+            return;
+        }
+        try {
+            byte[] data;
+            while ((data = playback.next()) != null) {
+                Fmp4Frame frame = Fmp4Frame.create(channelNumber, data, hevc);
+                try {
+                    this.sendFrame(websocketConnection, frame);
+                } finally {
+                    frame.releaseDirectBuffer();
+                }
+            }
+            if (playback.isExpired()) {
+                log.info("websocket[{}]，视频通道编号[{}]回看的数据已失效，回到实时", websocketConnection.getSink().getId(), channelNumber);
+                this.resumeLive(websocketConnection, channelNumber);
+                this.sendTextMessage(websocketConnection, RtspMessage.createSeek(channelNumber, "0"));
+            }
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+            websocketConnection.removePlayback(playback);
         }
     }
 
     /**
-     * 发送二进制消息
+     * 停止回看回到实时，与加入订阅相同，补发codec、视频头和GOP缓存
      *
      * @param websocketConnection websocket连接
      * @param channelNumber       通道编号
-     * @param fmp4Data            消息内容，主要是字节内容
      */
-    private void sendBinaryMessage(WebsocketConnection websocketConnection, Integer channelNumber, byte[] fmp4Data) {
+    private void resumeLive(WebsocketConnection websocketConnection, Integer channelNumber) {
+        String variant = websocketConnection.getChannelVariant(channelNumber);
+        RtspConnection rtspConnection = variant == null ? null : this.getRtspConnection(channelNumber, variant);
+        if (rtspConnection == null) {
+            websocketConnection.removePlayback(channelNumber);
+            return;
+        }
+        rtspConnection.addWebsocketConnection(websocketConnection, () -> {
+            websocketConnection.removePlayback(channelNumber);
+            this.catchUp(rtspConnection, websocketConnection, channelNumber);
+        });
+    }
+
+    /**
+     * 发送文本消息
+     *
+     * @param websocketConnection websocket连接
+     * @param message             消息对象
+     */
+    private void sendTextMessage(WebsocketConnection websocketConnection, RtspMessage<?> message) {
+        TextMessage textMessage = this.createTextMessage(message);
+        if (textMessage != null) {
+            websocketConnection.sendMessage(textMessage);
+        }
+    }
+
+    /**
+     * 序列化文本消息，TextMessage不可变，可在多个订阅者之间共享
+     *
+     * @param message 消息对象
+     * @return 文本消息，序列化失败返回null
+     */
+    private TextMessage createTextMessage(RtspMessage<?> message) {
         try {
-            // 前4个字节是视频通道编号，后面的是视频数据
-            byte[] buff = ByteWriteBuff.newInstance(4 + fmp4Data.length)
-                    .putInteger(channelNumber)
-                    .putBytes(fmp4Data)
-                    .getData();
-            ByteBuffer wrap = ByteBuffer.wrap(buff);
-            BinaryMessage message = new BinaryMessage(wrap);
-            websocketConnection.sendMessage(message);
+            return new TextMessage(this.objectMapper.writeValueAsString(message));
         } catch (Exception e) {
             log.error(e.getMessage(), e);
+            return null;
         }
     }
 
     /**
-     * 获取订阅的视频通道编号
+     * 发送数据帧，数据帧底层缓存共享，不会产生额外的数据拷贝，发送积压时按关键帧对齐丢帧
      *
      * @param websocketConnection websocket连接
-     * @return 视频通道编号
+     * @param frame               数据帧
      */
-    private List<Integer> getChannelNumberByWebsocket(WebsocketConnection websocketConnection) {
-        List<Integer> res = new ArrayList<>();
-        for (Map.Entry<Integer, RtspConnection> entry : rtspConnectionMap.entrySet()) {
-            if (entry.getValue().containWebsocketConnection(websocketConnection)) {
-                res.add(entry.getKey());
-            }
-        }
-        return res;
+    private void sendFrame(WebsocketConnection websocketConnection, Fmp4Frame frame) {
+        websocketConnection.sendFrame(frame);
+    }
+
+    /**
+     * 加入rtsp连接，codec已知则立即返回codec，视频头已下发则补发视频头和GOP缓存，
+     * 否则立即返回受理中的消息，等待rtsp连接就绪后统一下发
+     *
+     * @param rtspConnection      rtsp连接
+     * @param websocketConnection websocket连接
+     * @param channelNumber       通道编号
+     */
+    private void joinRtspConnection(RtspConnection rtspConnection, WebsocketConnection websocketConnection, Integer channelNumber) {
+        rtspConnection.addWebsocketConnection(websocketConnection, () -> this.catchUp(rtspConnection, websocketConnection, channelNumber));
     }
 
     /**
-     * 开启rtsp-fmp4的代理
+     * 补发codec、视频头和GOP缓存，需在加入订阅的回调中调用
      *
-     * @param websocketConnection websocket的连接
+     * @param rtspConnection      rtsp连接
+     * @param websocketConnection websocket连接
      * @param channelNumber       通道编号
+     */
+    private void catchUp(RtspConnection rtspConnection, WebsocketConnection websocketConnection, Integer channelNumber) {
+        // codec消息和视频头在codec变化时构建一次，加入时直接复用，不再重复序列化和编码
+        TextMessage codecMessage = rtspConnection.getCodecMessage();
+        if (codecMessage != null) {
+            websocketConnection.sendMessage(codecMessage);
+        } else {
+            this.sendTextMessage(websocketConnection, RtspMessage.createPending(channelNumber, "RTSP连接中"));
+        }
+        Fmp4Frame headerFrame = rtspConnection.getHeaderFrame();
+        if (headerFrame != null) {
+            this.sendFrame(websocketConnection, headerFrame);
+            // 回放GOP缓存，新订阅者无需等待下一个关键帧即可出画面，补发不受高水位丢帧影响
+            rtspConnection.foreachGopCache(x -> websocketConnection.sendFrame(x, true));
+        }
+    }
+
+    /**
+     * 创建rtsp连接，只构建不连接
+     *
+     * @param streamKey 视频通道编号 + 码流名称
      * @return RtspConnection
      */
-    private RtspConnection openRtspFmp4Proxy(WebsocketConnection websocketConnection, Integer channelNumber) {
-        RtspFMp4Proxy rtspFMp4Proxy = null;
+    private RtspConnection createRtspConnection(RtspStreamKey streamKey) {
+        Integer channelNumber = streamKey.getNumber();
+        RtspAddress rtspAddress = this.rtspAddressMap.get(channelNumber);
+        if (rtspAddress == null) {
+            throw new IllegalArgumentException("不存在该视频通道编号：" + channelNumber);
+        }
+        String url = rtspAddress.findVariantUrl(streamKey.getVariant());
+        if (url == null) {
+            throw new IllegalArgumentException("不存在该码流：" + streamKey.getVariant());
+        }
+        RtspConnection rtspConnection = new RtspConnection();
+
+        URI srcUri = URI.create(url);
+        int i = url.indexOf("@");
+        URI uri = i < 0 ? srcUri : URI.create("rtsp://" + url.substring(i + 1));
+
+        UsernamePasswordCredential credential = null;
+        if (srcUri.getUserInfo() != null) {
+            credential = UsernamePasswordCredential.createBy(srcUri.getUserInfo());
+        }
+        long lingerTimeout = rtspAddress.getLingerTimeout() != null ? rtspAddress.getLingerTimeout() : this.connectProperties.getLingerTimeout();
+        ERtspTransport transport = rtspAddress.getTransport() != null ? rtspAddress.getTransport() : this.connectProperties.getTransport();
+        // 初始统一更新rtsp连接信息
+        rtspConnection.setVariant(streamKey.getVariant());
+        rtspConnection.setRawUri(srcUri);
+        rtspConnection.setRipUri(uri);
+        rtspConnection.setCredential(credential);
+        rtspConnection.setOriginUri(this.originUri);
+        rtspConnection.setLingerTimeout(lingerTimeout);
+        // 只有默认码流预热
+        rtspConnection.setPrewarm(rtspAddress.isPrewarm() && RtspAddress.DEFAULT_VARIANT.equals(streamKey.getVariant()));
+        rtspConnection.setTransport(transport);
+        rtspConnection.setTransportProtocol(transport == ERtspTransport.TCP ? ERtspTransportProtocol.TCP : ERtspTransportProtocol.UDP);
+        if (this.gopCacheProperties.isEnabled()) {
+            rtspConnection.setGopCache(new GopCache(this.gopCacheProperties.getMaxBytesPerChannel(), this.gopCacheBudget));
+        }
+        // 只有默认码流回看，缓存文件跨rtsp连接复用，在rtsp连接map的桶锁之外预先创建
+        if (this.dvrProperties.isEnabled() && RtspAddress.DEFAULT_VARIANT.equals(streamKey.getVariant())) {
+            rtspConnection.setDvrRing(this.dvrRings.get(channelNumber));
+        }
+        this.bindRtspFmp4Proxy(rtspConnection, channelNumber);
+        // 从源节点转发时没有RTP，无需统计丢包
+        if (transport != ERtspTransport.TCP && rtspConnection.getOriginUri() == null) {
+            this.scheduleLossCheck(rtspConnection, channelNumber);
+        }
+        return rtspConnection;
+    }
+
+    /**
+     * 预先创建视频通道默认码流的回看缓存，创建文件和内存映射较慢，不能在rtsp连接map的桶锁内执行
+     *
+     * @param channelNumber 通道编号
+     * @param variant       码流名称
+     */
+    private void prepareDvrRing(Integer channelNumber, String variant) {
+        if (this.dvrProperties.isEnabled() && RtspAddress.DEFAULT_VARIANT.equals(variant) && !this.dvrRings.containsKey(channelNumber)) {
+            this.dvrRings.computeIfAbsent(channelNumber, this::createDvrRing);
+        }
+    }
+
+    /**
+     * 创建视频通道的回看缓存，创建失败则该通道不回看
+     *
+     * @param channelNumber 通道编号
+     * @return 回看缓存，失败则为null
+     */
+    private DvrRing createDvrRing(Integer channelNumber) {
+        Path directory = Paths.get(this.dvrProperties.getDirectory(), String.valueOf(channelNumber));
         try {
-            Optional<RtspAddress> optRtspAddress = this.rtspAddresses.stream().filter(x -> x.getNumber().equals(channelNumber)).findFirst();
-            if (!optRtspAddress.isPresent()) {
-                return null;
-            }
-            RtspAddress rtspAddress = optRtspAddress.get();
-            RtspConnection rtspConnection = new RtspConnection();
-
-            URI srcUri = URI.create(rtspAddress.getUrl());
-            int i = rtspAddress.getUrl().indexOf("@");
-            URI uri = i < 0 ? srcUri : URI.create("rtsp://" + rtspAddress.getUrl().substring(i + 1));
-
-            DigestAuthenticator authenticator = null;
-            UsernamePasswordCredential credential = null;
-            if (srcUri.getUserInfo() != null) {
-                credential = UsernamePasswordCredential.createBy(srcUri.getUserInfo());
-                authenticator = new DigestAuthenticator(credential);
-            }
-            RtspClient client = new RtspClient(uri, authenticator, ERtspTransportProtocol.UDP);
-            rtspFMp4Proxy = new RtspFMp4Proxy(client, true);
-            // 初始统一更新rtsp连接信息
-            rtspConnection.setRawUri(srcUri);
-            rtspConnection.setRipUri(uri);
-            rtspConnection.setCredential(credential);
-            rtspConnection.setClient(client);
-            rtspConnection.setRtspFMp4Proxy(rtspFMp4Proxy);
-            rtspConnection.addWebsocketConnection(websocketConnection);
-            // 绑定事件
-            rtspFMp4Proxy.onFmp4DataHandle(x -> this.fmp4DataHandle(rtspConnection, channelNumber, x));
-            rtspFMp4Proxy.onCodecHandle(x -> this.codecHandle(rtspConnection, channelNumber, x));
-            rtspFMp4Proxy.onDestroyHandle(() -> this.destroyHandle(channelNumber));
-            rtspFMp4Proxy.start();
-            return rtspConnection;
+            DvrRing dvrRing = new DvrRing(directory, this.dvrProperties.getSegmentSize(), this.dvrProperties.getSegmentCount());
+            log.info("视频通道编号[{}]开启回看，缓存目录[{}]，占用磁盘[{}MB]", channelNumber, directory.toAbsolutePath(),
+                    (long) this.dvrProperties.getSegmentSize() * this.dvrProperties.getSegmentCount() / 1024 / 1024);
+            return dvrRing;
         } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            if (rtspFMp4Proxy != null) {
+            log.error("视频通道编号[{}]创建回看缓存失败，{}", channelNumber, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 为rtsp连接创建新的rtsp客户端和rtsp-fmp4代理并绑定事件，重连和切换传输方式时替换旧的代理
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    private void bindRtspFmp4Proxy(RtspConnection rtspConnection, Integer channelNumber) {
+        if (rtspConnection.getOriginUri() != null) {
+            RtspFMp4Proxy rtspFMp4Proxy = this.createOriginRelayProxy(rtspConnection.getOriginUri(), channelNumber, rtspConnection.getVariant());
+            this.bindEvents(rtspConnection, rtspFMp4Proxy, channelNumber);
+            rtspConnection.setClient(null);
+            rtspConnection.setRtpLossCounter(null);
+            rtspConnection.setRtspFMp4Proxy(rtspFMp4Proxy);
+            return;
+        }
+        DigestAuthenticator authenticator = rtspConnection.getCredential() == null ? null : new DigestAuthenticator(rtspConnection.getCredential());
+        RtspClient client;
+        if (rtspConnection.getTransportProtocol() == ERtspTransportProtocol.UDP) {
+            // 每个rtsp会话单独统计丢包，重连后重新开始
+            RtpLossCounter rtpLossCounter = new RtpLossCounter();
+            client = new RtpLossRtspClient(rtspConnection.getRipUri(), authenticator, rtpLossCounter);
+            rtspConnection.setRtpLossCounter(rtpLossCounter);
+        } else {
+            client = new RtspClient(rtspConnection.getRipUri(), authenticator, ERtspTransportProtocol.TCP);
+            rtspConnection.setRtpLossCounter(null);
+        }
+        client.setConnectTimeout(this.connectProperties.getConnectTimeout());
+        RtspFMp4Proxy rtspFMp4Proxy = this.createRtspFMp4Proxy(client);
+        this.bindEvents(rtspConnection, rtspFMp4Proxy, channelNumber);
+        rtspConnection.setClient(client);
+        rtspConnection.setRtspFMp4Proxy(rtspFMp4Proxy);
+    }
+
+    /**
+     * 绑定代理的事件
+     *
+     * @param rtspConnection rtsp连接
+     * @param rtspFMp4Proxy  代理
+     * @param channelNumber  通道编号
+     */
+    private void bindEvents(RtspConnection rtspConnection, RtspFMp4Proxy rtspFMp4Proxy, Integer channelNumber) {
+        rtspFMp4Proxy.onFmp4DataHandle(x -> this.fmp4DataHandle(rtspConnection, channelNumber, x));
+        rtspFMp4Proxy.onCodecHandle(x -> this.codecHandle(rtspConnection, channelNumber, x));
+        rtspFMp4Proxy.onDestroyHandle(() -> this.destroyHandle(rtspConnection, rtspFMp4Proxy, channelNumber));
+    }
+
+    /**
+     * 创建从源节点转发的代理
+     *
+     * @param originUri     源节点的websocket地址
+     * @param channelNumber 通道编号
+     * @param variant       码流名称
+     * @return RtspFMp4Proxy
+     */
+    RtspFMp4Proxy createOriginRelayProxy(URI originUri, Integer channelNumber, String variant) {
+        return new OriginRelayProxy(this.originClient, this.objectMapper, originUri, channelNumber, variant);
+    }
+
+    /**
+     * 创建rtsp-fmp4的代理
+     *
+     * @param client rtsp客户端
+     * @return RtspFMp4Proxy
+     */
+    RtspFMp4Proxy createRtspFMp4Proxy(RtspClient client) {
+        return new RtspFMp4Proxy(client, true);
+    }
+
+    /**
+     * 异步开启rtsp-fmp4的代理，握手超时或失败则重连或通知该通道所有订阅者并移除rtsp连接
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    private void startRtspFmp4Proxy(RtspConnection rtspConnection, Integer channelNumber) {
+        RtspFMp4Proxy rtspFMp4Proxy = rtspConnection.getRtspFMp4Proxy();
+        CompletableFuture<Void> future = CompletableFuture.runAsync(rtspFMp4Proxy::start, this.rtspConnectExecutor);
+        // 握手超时则停止代理，关闭socket使阻塞中的握手尽快退出
+        ScheduledFuture<?> timeoutFuture = this.rtspScheduledExecutor.schedule(() -> {
+            if (!future.isDone()) {
+                log.error("视频通道编号[{}]，RTSP握手超时[{}ms]", channelNumber, this.connectProperties.getHandshakeTimeout());
+                this.handleRtspFailure(rtspConnection, rtspFMp4Proxy, channelNumber, "RTSP连接超时");
+            }
+        }, this.connectProperties.getHandshakeTimeout(), TimeUnit.MILLISECONDS);
+        future.whenComplete((v, e) -> {
+            timeoutFuture.cancel(false);
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                log.error(cause.getMessage(), cause);
+                this.handleRtspFailure(rtspConnection, rtspFMp4Proxy, channelNumber, cause.getMessage());
+            } else if (this.rtspConnectionMap.get(keyOf(rtspConnection, channelNumber)) != rtspConnection) {
+                // 握手期间所有订阅者已退出或已超时，握手完成后补充关闭，避免rtsp会话泄漏
+                log.info("视频通道编号[{}]，RTSP握手完成时已无订阅，关闭RTSP连接", channelNumber);
                 rtspFMp4Proxy.stop();
             }
-            this.sendTextMessage(websocketConnection, RtspMessage.createError(channelNumber, e.getMessage()));
-            return null;
+        });
+    }
+
+    /**
+     * 处理rtsp的超时、握手失败和断开，可重连则保持订阅者并按退避重连，否则通知所有订阅者并移除rtsp连接
+     *
+     * @param rtspConnection rtsp连接
+     * @param rtspFMp4Proxy  出错的代理
+     * @param channelNumber  通道编号
+     * @param reason         原因
+     */
+    private void handleRtspFailure(RtspConnection rtspConnection, RtspFMp4Proxy rtspFMp4Proxy, Integer channelNumber, String reason) {
+        // 同一个代理的超时、握手失败、断开可能先后触发，主动停止的代理也会触发断开，只处理一次
+        if (!rtspConnection.markStopped(rtspFMp4Proxy)) {
+            return;
+        }
+        rtspFMp4Proxy.stop();
+        if (this.canReconnect(rtspConnection, channelNumber)) {
+            this.scheduleReconnect(rtspConnection, channelNumber, reason);
+        } else {
+            this.closeRtspConnection(rtspConnection, channelNumber, reason);
         }
     }
 
     /**
-     * 处理FMP4的数据帧
+     * 是否可以重连，不超过最大重连次数，预热通道始终重连，其他通道需推流过且仍有订阅者
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     * @return true：可以，false：不可以
+     */
+    private boolean canReconnect(RtspConnection rtspConnection, Integer channelNumber) {
+        if (!this.connectProperties.isReconnectEnabled() || this.rtspConnectionMap.get(keyOf(rtspConnection, channelNumber)) != rtspConnection) {
+            return false;
+        }
+        int maxAttempts = this.connectProperties.getReconnectMaxAttempts();
+        if (maxAttempts > 0 && rtspConnection.getReconnectAttempts() >= maxAttempts) {
+            return false;
+        }
+        return rtspConnection.isPrewarm() || (rtspConnection.getCodec() != null && rtspConnection.hasWebsocketConnection());
+    }
+
+    /**
+     * 按抖动的指数退避延迟重连，订阅者保持订阅并收到重连中的消息
      *
      * @param rtspConnection rtsp连接
      * @param channelNumber  通道编号
-     * @param fmp4Data       FMP4的数据帧
+     * @param reason         原因
      */
-    private void fmp4DataHandle(RtspConnection rtspConnection, Integer channelNumber, byte[] fmp4Data) {
+    private void scheduleReconnect(RtspConnection rtspConnection, Integer channelNumber, String reason) {
+        int attempt = rtspConnection.getReconnectAttempts() + 1;
+        rtspConnection.setReconnectAttempts(attempt);
+        rtspConnection.setStartTime(null);
+        long delay = this.reconnectDelay(attempt);
+        log.warn("视频通道编号[{}]，{}，[{}ms]后第[{}]次重连", channelNumber, reason, delay, attempt);
+        RtspMessage<String> message = RtspMessage.createPending(channelNumber, reason + "，重连中");
         rtspConnection.foreachConnections(x -> {
-            if (x.containChannelNumber(channelNumber)) {
-                this.sendBinaryMessage(x, channelNumber, fmp4Data);
+            if (x.containChannel(channelNumber, rtspConnection.getVariant())) {
+                this.sendTextMessage(x, message);
             }
         });
+        this.rtspScheduledExecutor.schedule(() -> this.reconnect(rtspConnection, channelNumber), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 重连的延迟，指数退避并加入等量抖动，避免大量通道同一时刻重连
+     *
+     * @param attempt 第几次重连，从1开始
+     * @return 延迟，单位毫秒
+     */
+    private long reconnectDelay(int attempt) {
+        long delay = Math.min(this.connectProperties.getReconnectMaxDelay(),
+                this.connectProperties.getReconnectInitialDelay() << Math.min(attempt - 1, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * 重连，替换为新的代理后开始连接，等待期间rtsp连接已关闭的则放弃
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    private void reconnect(RtspConnection rtspConnection, Integer channelNumber) {
+        boolean[] rebound = new boolean[1];
+        try {
+            this.rtspConnectionMap.computeIfPresent(keyOf(rtspConnection, channelNumber), (k, v) -> {
+                if (v == rtspConnection) {
+                    this.bindRtspFmp4Proxy(v, channelNumber);
+                    v.incrementReconnectCount();
+                    this.rtspMetrics.recordReconnect(channelNumber);
+                    rebound[0] = true;
+                }
+                return v;
+            });
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            this.closeRtspConnection(rtspConnection, channelNumber, e.getMessage());
+            return;
+        }
+        if (rebound[0]) {
+            log.info("视频通道编号[{}]，开始第[{}]次重连", channelNumber, rtspConnection.getReconnectAttempts());
+            this.startRtspFmp4Proxy(rtspConnection, channelNumber);
+        } else {
+            log.info("视频通道编号[{}]已关闭，放弃重连", channelNumber);
+        }
+    }
+
+    /**
+     * 定时统计RTP丢包率，需在rtsp连接map的桶锁内调用
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    private void scheduleLossCheck(RtspConnection rtspConnection, Integer channelNumber) {
+        long interval = this.connectProperties.getLossCheckInterval();
+        rtspConnection.setLossCheckFuture(this.rtspScheduledExecutor.scheduleWithFixedDelay(
+                () -> this.checkRtpLoss(rtspConnection, channelNumber), interval, interval, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 统计一个周期的RTP丢包率并记录指标，AUTO模式下超过阈值则切换为TCP
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    void checkRtpLoss(RtspConnection rtspConnection, Integer channelNumber) {
+        if (this.rtspConnectionMap.get(keyOf(rtspConnection, channelNumber)) != rtspConnection) {
+            // 创建后未能加入map或已关闭的rtsp连接
+            rtspConnection.cancelLossCheck();
+            return;
+        }
+        RtpLossCounter rtpLossCounter = rtspConnection.getRtpLossCounter();
+        if (rtpLossCounter == null) {
+            return;
+        }
+        double lossRate = rtpLossCounter.sample();
+        rtspConnection.setRtpLossRate(lossRate);
+        this.rtspMetrics.recordRtpLoss(channelNumber, rtpLossCounter.getWindowExpected(), rtpLossCounter.getWindowLost());
+        if (rtspConnection.getTransport() == ERtspTransport.AUTO
+                && rtpLossCounter.getWindowExpected() >= this.connectProperties.getLossMinPackets()
+                && lossRate > this.connectProperties.getLossThreshold()) {
+            log.warn("视频通道编号[{}]，RTP丢包率[{}%]超过阈值[{}%]，切换为TCP传输", channelNumber,
+                    String.format("%.2f", lossRate * 100), String.format("%.2f", this.connectProperties.getLossThreshold() * 100));
+            this.switchToTcp(rtspConnection, rtspConnection.getRtspFMp4Proxy(), channelNumber);
+        }
+    }
+
+    /**
+     * 将rtsp连接切换为TCP传输，停止当前的UDP代理后立即以TCP重新拉流，订阅者保持订阅，
+     * 切换后该rtsp连接不再切回UDP，无人观看关闭后重新订阅时再从UDP开始
+     *
+     * @param rtspConnection rtsp连接
+     * @param rtspFMp4Proxy  当前的代理
+     * @param channelNumber  通道编号
+     */
+    private void switchToTcp(RtspConnection rtspConnection, RtspFMp4Proxy rtspFMp4Proxy, Integer channelNumber) {
+        // 与超时、断开的处理互斥，代理已停止或已被替换则放弃切换
+        if (!rtspConnection.markStopped(rtspFMp4Proxy)) {
+            return;
+        }
+        rtspFMp4Proxy.stop();
+        rtspConnection.cancelLossCheck();
+        boolean[] rebound = new boolean[1];
+        try {
+            this.rtspConnectionMap.computeIfPresent(keyOf(rtspConnection, channelNumber), (k, v) -> {
+                if (v == rtspConnection) {
+                    v.setTransportProtocol(ERtspTransportProtocol.TCP);
+                    v.setRtpLossRate(0);
+                    this.bindRtspFmp4Proxy(v, channelNumber);
+                    this.rtspMetrics.recordTransportSwitch(channelNumber);
+                    rebound[0] = true;
+                }
+                return v;
+            });
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            this.closeRtspConnection(rtspConnection, channelNumber, e.getMessage());
+            return;
+        }
+        if (rebound[0]) {
+            RtspMessage<String> message = RtspMessage.createPending(channelNumber, "RTSP丢包过多，切换为TCP传输");
+            rtspConnection.foreachConnections(x -> {
+                if (x.containChannel(channelNumber, rtspConnection.getVariant())) {
+                    this.sendTextMessage(x, message);
+                }
+            });
+            this.startRtspFmp4Proxy(rtspConnection, channelNumber);
+        }
+    }
+
+    /**
+     * 处理FMP4的数据帧
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     * @param data           FMP4的数据帧，moof和mdat可能分两次输出
+     */
+    void fmp4DataHandle(RtspConnection rtspConnection, Integer channelNumber, byte[] data) {
+        long start = System.nanoTime();
+        byte[] fmp4Data = rtspConnection.mergeFragment(data);
+        if (fmp4Data == null) {
+            return;
+        }
+        // 一帧数据只构建一次，所有订阅者共享
+        Fmp4Frame frame = Fmp4Frame.create(channelNumber, fmp4Data, rtspConnection.isHevc());
+        DvrRing dvrRing = rtspConnection.getDvrRing();
+        if (dvrRing != null && frame.isMediaSegment()) {
+            dvrRing.append(fmp4Data, frame.isKeyFrame(), System.currentTimeMillis());
+        }
+        try {
+            rtspConnection.publishFrame(frame, x -> {
+                if (x.containChannel(channelNumber, rtspConnection.getVariant()) && !x.isTimeShifted(channelNumber)) {
+                    this.sendFrame(x, frame);
+                }
+            });
+        } finally {
+            // 分发完成，Netty传输共享的直接内存只由各订阅者的引用持有
+            frame.releaseDirectBuffer();
+        }
+        this.rtspMetrics.recordFragment(channelNumber, fmp4Data.length, System.nanoTime() - start);
     }
 
     /**
@@ -370,48 +1289,133 @@ public class RtspManager {
      */
     private void codecHandle(RtspConnection rtspConnection, Integer channelNumber, String codec) {
         rtspConnection.setStartTime(LocalDateTime.now());
-        rtspConnection.foreachConnections(x -> {
-            if (x.containChannelNumber(channelNumber)) {
-                RtspMessage<String> codecMessage = RtspMessage.createSubscribe(channelNumber, codec);
-                this.sendTextMessage(x, codecMessage);
+        rtspConnection.setReconnectAttempts(0);
+        // 只序列化一次，所有订阅者共享
+        TextMessage codecMessage = this.createTextMessage(RtspMessage.createSubscribe(channelNumber, codec));
+        // 重新拉流后之前的回看数据与新的视频头不匹配，回看中的订阅者在下次发送时回到实时
+        if (rtspConnection.getDvrRing() != null) {
+            rtspConnection.getDvrRing().reset();
+        }
+        rtspConnection.publishCodec(codec, codecMessage, x -> {
+            if (codecMessage != null && x.containChannel(channelNumber, rtspConnection.getVariant()) && !x.isTimeShifted(channelNumber)) {
+                x.sendMessage(codecMessage);
                 log.debug("给通道[{}]发送codec[{}]", channelNumber, codec);
             }
         });
     }
 
     /**
-     * rtsp断开后，触发关闭所有websocket通道
+     * rtsp断开后，触发重连，不可重连则关闭所有websocket通道
      *
-     * @param channelNumber 通道编号
+     * @param rtspConnection rtsp连接
+     * @param rtspFMp4Proxy  断开的代理
+     * @param channelNumber  通道编号
      */
-    private void destroyHandle(Integer channelNumber) {
-        RtspConnection rtspConnection = this.rtspConnectionMap.get(channelNumber);
-        if (rtspConnection == null) {
-            return;
-        }
+    private void destroyHandle(RtspConnection rtspConnection, RtspFMp4Proxy rtspFMp4Proxy, Integer channelNumber) {
+        this.handleRtspFailure(rtspConnection, rtspFMp4Proxy, channelNumber, "RTSP连接断开");
+    }
+
+    /**
+     * 无人观看后延迟关闭rtsp连接，需在rtsp连接map的桶锁内调用
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    private void scheduleLinger(RtspConnection rtspConnection, Integer channelNumber) {
+        log.info("视频通道编号[{}]没有websocket订阅，保留RTSP连接[{}ms]", channelNumber, rtspConnection.getLingerTimeout());
+        ScheduledFuture<?>[] lingerFuture = new ScheduledFuture<?>[1];
+        lingerFuture[0] = this.rtspScheduledExecutor.schedule(() -> {
+            // 只处理本次的延迟关闭，保留期间被重新订阅或已关闭的则忽略
+            boolean[] expired = new boolean[1];
+            this.rtspConnectionMap.computeIfPresent(keyOf(rtspConnection, channelNumber), (k, v) -> {
+                if (v != rtspConnection || v.getLingerFuture() != lingerFuture[0] || v.hasWebsocketConnection()) {
+                    return v;
+                }
+                v.setLingerFuture(null);
+                expired[0] = true;
+                return null;
+            });
+            if (expired[0]) {
+                this.lingerMissCount.incrementAndGet();
+                log.info("视频通道编号[{}]保留到期，保留命中[{}]次，未命中[{}]次", channelNumber, this.lingerHitCount.get(), this.lingerMissCount.get());
+                this.stopRtspConnection(rtspConnection, channelNumber);
+            }
+        }, rtspConnection.getLingerTimeout(), TimeUnit.MILLISECONDS);
+        rtspConnection.setLingerFuture(lingerFuture[0]);
+    }
+
+    /**
+     * 停止无人观看的rtsp连接，调用前需已从rtsp连接map中移除
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     */
+    private void stopRtspConnection(RtspConnection rtspConnection, Integer channelNumber) {
+        RtspFMp4Proxy rtspFMp4Proxy = rtspConnection.getRtspFMp4Proxy();
+        rtspConnection.markStopped(rtspFMp4Proxy);
+        rtspFMp4Proxy.stop();
+        rtspConnection.cancelLossCheck();
+        rtspConnection.clearGopCache();
+        log.info("由于视频通道编号[{}]没有websocket订阅，关闭RTSP连接", channelNumber);
+    }
+
+    /**
+     * 关闭rtsp连接，通知并移除所有订阅者
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     * @param reason         原因
+     */
+    private void closeRtspConnection(RtspConnection rtspConnection, Integer channelNumber, String reason) {
+        this.closeRtspConnection(rtspConnection, channelNumber, RtspMessage.createError(channelNumber, reason));
+    }
+
+    /**
+     * 关闭rtsp连接，以指定消息通知并移除所有订阅者
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     * @param notice         通知订阅者的消息
+     */
+    private void closeRtspConnection(RtspConnection rtspConnection, Integer channelNumber, RtspMessage<?> notice) {
+        // 先从map中移除，之后的订阅会重新创建rtsp连接，不会再挂到该连接上；只移除自身，不影响已重新创建的连接
+        this.rtspConnectionMap.computeIfPresent(keyOf(rtspConnection, channelNumber), (k, v) -> {
+            if (v != rtspConnection) {
+                return v;
+            }
+            v.cancelLinger();
+            return null;
+        });
+        // 先移除websocket关联的该视频通道再通知，订阅者收到错误后可立即重新订阅，websocket订阅的其他通道不受影响
         rtspConnection.foreachConnections(x -> {
-            if (x.containChannelNumber(channelNumber)) {
-                RtspMessage<String> codecMessage = RtspMessage.createError(channelNumber, "RTSP连接断开");
-                this.sendTextMessage(x, codecMessage);
+            if (x.containChannel(channelNumber, rtspConnection.getVariant())) {
+                x.removeChannelNumber(channelNumber);
+                this.sendTextMessage(x, notice);
             }
         });
-        // 移除websocket关联的视频通道，移除rtsp关联的websocket
-        rtspConnection.foreachConnections(WebsocketConnection::removeAllChannelNumbers);
         rtspConnection.removeAllWebsocketConnection();
-        this.rtspConnectionMap.remove(channelNumber);
+        rtspConnection.cancelLossCheck();
+        rtspConnection.clearGopCache();
     }
 
     /**
-     * 打印当前通道信息
+     * 打印变更通道的摘要，开销与通道和订阅者数量无关，完整信息通过状态接口查询
+     *
+     * @param channelNumber 通道编号
      */
-    private void printConnectionChannelInfo() {
-        log.info(String.format("当前构建的视频通道数量[%d]", this.rtspConnectionMap.size()));
+    private void printChannelSummary(Integer channelNumber) {
+        log.info("视频通道编号[{}]被订阅的Websocket数量[{}]，当前构建的rtsp连接数量[{}]",
+                channelNumber, this.getSubscriberCount(channelNumber), this.rtspConnectionMap.size());
+    }
 
-        for (Map.Entry<Integer, RtspConnection> entry : rtspConnectionMap.entrySet()) {
-            StringBuilder sb = new StringBuilder();
-            sb.append(String.format("视频通道编号[%s]被订阅的Websocket数量[%d]", entry.getKey(), entry.getValue().getWebsocketConnectionCount()));
-            entry.getValue().foreachConnections(x -> sb.append(String.format("，Websocket[%s]订阅了通道编号[%s]", x.getSession().getId(), x.getAllChannelNumbers())));
-            log.info(sb.toString());
-        }
+    /**
+     * rtsp连接在map中的key
+     *
+     * @param rtspConnection rtsp连接
+     * @param channelNumber  通道编号
+     * @return key
+     */
+    private static RtspStreamKey keyOf(RtspConnection rtspConnection, Integer channelNumber) {
+        return RtspStreamKey.of(channelNumber, rtspConnection.getVariant());
     }
 }
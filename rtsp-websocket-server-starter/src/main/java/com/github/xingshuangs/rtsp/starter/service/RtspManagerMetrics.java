@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.model.RtspConnection;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RTSP管理器的状态指标，订阅数量、会话时长、保留命中等，采集时才读取；
+ * RtspManager依赖MeterRegistry，因此不使用MeterBinder，避免与注册中心的创建形成循环依赖
+ *
+ * @author xingshuang
+ */
+@Component
+public class RtspManagerMetrics {
+
+    private final RtspManager rtspManager;
+
+    private final List<RtspAddress> rtspAddresses;
+
+    public RtspManagerMetrics(RtspManager rtspManager, RtspProperties rtspProperties, MeterRegistry meterRegistry) {
+        this.rtspManager = rtspManager;
+        this.rtspAddresses = rtspProperties.getAddresses() == null ? Collections.emptyList() : rtspProperties.getAddresses();
+        this.bindTo(meterRegistry);
+    }
+
+    /**
+     * 注册指标
+     *
+     * @param registry 注册中心
+     */
+    private void bindTo(MeterRegistry registry) {
+        for (RtspAddress rtspAddress : this.rtspAddresses) {
+            Integer channelNumber = rtspAddress.getNumber();
+            String channel = String.valueOf(channelNumber);
+            Gauge.builder("rtsp.channel.subscribers", this.rtspManager, x -> this.subscriberCount(channelNumber))
+                    .description("通道所有码流的订阅者数量")
+                    .tag(RtspMetrics.TAG_CHANNEL, channel)
+                    .register(registry);
+            TimeGauge.builder("rtsp.channel.uptime", this.rtspManager, TimeUnit.SECONDS, x -> this.uptimeSeconds(channelNumber))
+                    .description("通道默认码流当前rtsp会话的持续时间")
+                    .tag(RtspMetrics.TAG_CHANNEL, channel)
+                    .register(registry);
+        }
+        FunctionCounter.builder("rtsp.linger.hits", this.rtspManager, RtspManager::getLingerHitCount)
+                .description("保留期间订阅者回来，复用rtsp连接的次数")
+                .register(registry);
+        FunctionCounter.builder("rtsp.linger.misses", this.rtspManager, RtspManager::getLingerMissCount)
+                .description("保留到期仍无订阅者，关闭rtsp连接的次数")
+                .register(registry);
+    }
+
+    private int subscriberCount(Integer channelNumber) {
+        return this.rtspManager.getSubscriberCount(channelNumber);
+    }
+
+    private double uptimeSeconds(Integer channelNumber) {
+        RtspConnection rtspConnection = this.rtspManager.getRtspConnection(channelNumber);
+        LocalDateTime startTime = rtspConnection == null ? null : rtspConnection.getStartTime();
+        return startTime == null ? 0 : Duration.between(startTime, LocalDateTime.now()).getSeconds();
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.model.WebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.pause.NoPauseDetector;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * 推流链路的指标，通道的指标在启动时按配置的通道编号预先注册，数据帧的路径上只做计数，不查找也不分配；
+ * websocket连接默认只有汇总指标，按连接的指标需开启，避免标签基数随连接数量无限增长
+ *
+ * @author xingshuang
+ */
+@Component
+public class RtspMetrics {
+
+    public static final String TAG_CHANNEL = "channel";
+
+    public static final String TAG_SESSION = "session";
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 通道的指标，key：通道编号，启动后只读
+     */
+    private final Map<Integer, ChannelMeters> channelMeters;
+
+    /**
+     * 是否注册按websocket连接的指标
+     */
+    private final boolean sessionMetersEnabled;
+
+    /**
+     * 当前的websocket连接，key：sessionId
+     */
+    private final ConcurrentHashMap<String, WebsocketConnection> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * websocket连接的指标，key：sessionId
+     */
+    private final ConcurrentHashMap<String, List<Meter>> sessionMeters = new ConcurrentHashMap<>();
+
+    /**
+     * 已关闭的websocket连接发送的字节数
+     */
+    private final AtomicLong closedSentBytes = new AtomicLong();
+
+    /**
+     * 已关闭的websocket连接丢弃的消息数量
+     */
+    private final AtomicLong closedDropCount = new AtomicLong();
+
+    public RtspMetrics(MeterRegistry meterRegistry, RtspProperties rtspProperties) {
+        this.meterRegistry = meterRegistry;
+        this.sessionMetersEnabled = rtspProperties.getMetrics().isSessionMetersEnabled();
+        this.bindSessionSummary();
+        Map<Integer, ChannelMeters> meters = new HashMap<>();
+        if (rtspProperties.getAddresses() != null) {
+            for (RtspAddress rtspAddress : rtspProperties.getAddresses()) {
+                meters.put(rtspAddress.getNumber(), new ChannelMeters(meterRegistry, rtspAddress.getNumber()));
+            }
+        }
+        this.channelMeters = Collections.unmodifiableMap(meters);
+    }
+
+    /**
+     * 记录一个数据帧及其分发耗时
+     *
+     * @param channelNumber 通道编号
+     * @param bytes         数据帧字节数
+     * @param fanoutNanos   分发给所有订阅者的耗时，单位纳秒
+     */
+    public void recordFragment(Integer channelNumber, int bytes, long fanoutNanos) {
+        ChannelMeters meters = this.channelMeters.get(channelNumber);
+        if (meters == null) {
+            return;
+        }
+        meters.fragments.increment();
+        meters.bytes.increment(bytes);
+        meters.fanout.record(fanoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 记录一次重连
+     *
+     * @param channelNumber 通道编号
+     */
+    public void recordReconnect(Integer channelNumber) {
+        ChannelMeters meters = this.channelMeters.get(channelNumber);
+        if (meters != null) {
+            meters.reconnects.increment();
+        }
+    }
+
+    /**
+     * 记录一个统计周期的RTP收包和丢包
+     *
+     * @param channelNumber 通道编号
+     * @param expected      期望收到的包数
+     * @param lost          丢失的包数
+     */
+    public void recordRtpLoss(Integer channelNumber, long expected, long lost) {
+        ChannelMeters meters = this.channelMeters.get(channelNumber);
+        if (meters == null) {
+            return;
+        }
+        meters.rtpExpected.increment(expected);
+        meters.rtpLost.increment(lost);
+        meters.rtpLossRate.set(expected <= 0 ? 0 : Double.doubleToLongBits((double) lost / expected));
+    }
+
+    /**
+     * 记录一次由UDP到TCP的传输方式切换
+     *
+     * @param channelNumber 通道编号
+     */
+    public void recordTransportSwitch(Integer channelNumber) {
+        ChannelMeters meters = this.channelMeters.get(channelNumber);
+        if (meters != null) {
+            meters.transportSwitches.increment();
+            meters.rtpLossRate.set(0);
+        }
+    }
+
+    /**
+     * 注册websocket连接，开启时同时注册该连接的指标
+     *
+     * @param websocketConnection websocket连接
+     */
+    public void bindSession(WebsocketConnection websocketConnection) {
+        String sessionId = websocketConnection.getSink().getId();
+        this.sessions.put(sessionId, websocketConnection);
+        if (!this.sessionMetersEnabled) {
+            return;
+        }
+        List<Meter> meters = Arrays.asList(
+                Gauge.builder("rtsp.session.queue.depth", websocketConnection, WebsocketConnection::getSendQueueSize)
+                        .description("websocket发送队列深度")
+                        .tag(TAG_SESSION, sessionId)
+                        .register(this.meterRegistry),
+                FunctionCounter.builder("rtsp.session.sent.bytes", websocketConnection, x -> x.getSentBytes().get())
+                        .description("websocket已发送的字节数")
+                        .baseUnit("bytes")
+                        .tag(TAG_SESSION, sessionId)
+                        .register(this.meterRegistry),
+                FunctionCounter.builder("rtsp.session.dropped.frames", websocketConnection, x -> x.getDropCount().get())
+                        .description("websocket丢弃的消息数量")
+                        .tag(TAG_SESSION, sessionId)
+                        .register(this.meterRegistry));
+        this.sessionMeters.put(sessionId, meters);
+    }
+
+    /**
+     * 移除websocket连接及其指标，已发送的字节数和丢弃数量计入汇总指标
+     *
+     * @param websocketConnection websocket连接
+     */
+    public void unbindSession(WebsocketConnection websocketConnection) {
+        String sessionId = websocketConnection.getSink().getId();
+        if (this.sessions.remove(sessionId, websocketConnection)) {
+            this.closedSentBytes.addAndGet(websocketConnection.getSentBytes().get());
+            this.closedDropCount.addAndGet(websocketConnection.getDropCount().get());
+        }
+        List<Meter> meters = this.sessionMeters.remove(sessionId);
+        if (meters != null) {
+            meters.forEach(this.meterRegistry::remove);
+        }
+    }
+
+    /**
+     * 注册所有websocket连接的汇总指标，标签的基数固定，采集时遍历当前的连接
+     */
+    private void bindSessionSummary() {
+        Gauge.builder("rtsp.sessions", this.sessions, Map::size)
+                .description("当前的websocket连接数量")
+                .register(this.meterRegistry);
+        Gauge.builder("rtsp.sessions.queue.depth", this, x -> x.sumSessions(WebsocketConnection::getSendQueueSize))
+                .description("所有websocket连接的发送队列深度之和")
+                .register(this.meterRegistry);
+        Gauge.builder("rtsp.sessions.queue.depth.max", this, RtspMetrics::maxSessionQueueDepth)
+                .description("websocket连接中最大的发送队列深度")
+                .register(this.meterRegistry);
+        FunctionCounter.builder("rtsp.sessions.sent.bytes", this, x -> x.closedSentBytes.get() + x.sumSessions(c -> c.getSentBytes().get()))
+                .description("所有websocket连接已发送的字节数")
+                .baseUnit("bytes")
+                .register(this.meterRegistry);
+        FunctionCounter.builder("rtsp.sessions.dropped.frames", this, x -> x.closedDropCount.get() + x.sumSessions(c -> c.getDropCount().get()))
+                .description("所有websocket连接丢弃的消息数量")
+                .register(this.meterRegistry);
+    }
+
+    /**
+     * 当前所有websocket连接的指定数值之和
+     *
+     * @param mapper 取值
+     * @return 和
+     */
+    private long sumSessions(ToLongFunction<WebsocketConnection> mapper) {
+        long sum = 0;
+        for (WebsocketConnection connection : this.sessions.values()) {
+            sum += mapper.applyAsLong(connection);
+        }
+        return sum;
+    }
+
+    /**
+     * 当前websocket连接中最大的发送队列深度
+     *
+     * @return 队列深度
+     */
+    private int maxSessionQueueDepth() {
+        int max = 0;
+        for (WebsocketConnection connection : this.sessions.values()) {
+            max = Math.max(max, connection.getSendQueueSize());
+        }
+        return max;
+    }
+
+    /**
+     * 单个通道的指标
+     */
+    private static class ChannelMeters {
+
+        private final Counter fragments;
+
+        private final Counter bytes;
+
+        private final Counter reconnects;
+
+        private final Timer fanout;
+
+        private final Counter rtpExpected;
+
+        private final Counter rtpLost;
+
+        private final Counter transportSwitches;
+
+        /**
+         * 最近一个统计周期的丢包率，按double的位存储
+         */
+        private final AtomicLong rtpLossRate = new AtomicLong();
+
+        private ChannelMeters(MeterRegistry meterRegistry, Integer channelNumber) {
+            String channel = String.valueOf(channelNumber);
+            this.fragments = Counter.builder("rtsp.channel.fragments")
+                    .description("通道接收的fmp4数据帧数量")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            this.bytes = Counter.builder("rtsp.channel.bytes")
+                    .description("通道接收的fmp4字节数")
+                    .baseUnit("bytes")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            this.reconnects = Counter.builder("rtsp.channel.reconnects")
+                    .description("通道rtsp重连次数")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            this.rtpExpected = Counter.builder("rtsp.channel.rtp.expected")
+                    .description("通道UDP传输时期望收到的RTP包数")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            this.rtpLost = Counter.builder("rtsp.channel.rtp.lost")
+                    .description("通道UDP传输时丢失的RTP包数")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            Gauge.builder("rtsp.channel.rtp.loss.rate", this.rtpLossRate, x -> Double.longBitsToDouble(x.get()))
+                    .description("通道最近一个统计周期的RTP丢包率")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            this.transportSwitches = Counter.builder("rtsp.channel.transport.switches")
+                    .description("通道由UDP切换为TCP传输的次数")
+                    .tag(TAG_CHANNEL, channel)
+                    .register(meterRegistry);
+            this.fanout = Timer.builder("rtsp.channel.fanout")
+                    .description("一个数据帧分发给所有订阅者的耗时")
+                    .tag(TAG_CHANNEL, channel)
+                    .publishPercentileHistogram()
+                    // 默认的停顿检测每次记录都会分配对象，数据帧路径上不使用
+                    .pauseDetector(new NoPauseDetector())
+                    .register(meterRegistry);
+        }
+    }
+}
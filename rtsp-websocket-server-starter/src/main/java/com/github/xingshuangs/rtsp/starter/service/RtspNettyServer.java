@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.properties.NettyProperties;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 独立的Netty websocket服务，只提供拉流，不依赖servlet容器，
+ * 配合spring.main.web-application-type=none可作为纯拉流节点运行
+ *
+ * @author xingshuang
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = RtspProperties.PREFIX, name = "netty.enabled", havingValue = "true")
+public class RtspNettyServer implements SmartLifecycle {
+
+    /**
+     * 握手请求的最大字节数
+     */
+    private static final int MAX_HTTP_CONTENT_LENGTH = 64 * 1024;
+
+    private final RtspProperties rtspProperties;
+
+    private final RtspNettyWebsocketHandler websocketHandler;
+
+    private EventLoopGroup bossGroup;
+
+    private EventLoopGroup workerGroup;
+
+    private Channel serverChannel;
+
+    public RtspNettyServer(RtspManager rtspManager, RtspProperties rtspProperties, RtspMetrics rtspMetrics) {
+        this.rtspProperties = rtspProperties;
+        this.websocketHandler = new RtspNettyWebsocketHandler(rtspManager, rtspProperties, rtspMetrics);
+    }
+
+    @Override
+    public void start() {
+        NettyProperties properties = this.rtspProperties.getNetty();
+        this.bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("rtsp-netty-boss"));
+        this.workerGroup = new NioEventLoopGroup(properties.getWorkerThreads(), new DefaultThreadFactory("rtsp-netty-io"));
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(this.bossGroup, this.workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(properties.getWriteBufferLowWaterMark(), properties.getWriteBufferHighWaterMark()))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new HttpServerCodec())
+                                .addLast(new HttpObjectAggregator(MAX_HTTP_CONTENT_LENGTH))
+                                .addLast(new WebSocketServerProtocolHandler(properties.getPath(), null, true))
+                                .addLast(websocketHandler);
+                    }
+                });
+        try {
+            this.serverChannel = bootstrap.bind(properties.getPort()).sync().channel();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.stop();
+            throw new IllegalStateException("Netty服务启动被中断", e);
+        }
+        log.info("Netty websocket服务已启动，端口[{}]，路径[{}]", this.getPort(), properties.getPath());
+    }
+
+    @Override
+    public void stop() {
+        if (this.serverChannel != null) {
+            this.serverChannel.close().syncUninterruptibly();
+            this.serverChannel = null;
+        }
+        if (this.bossGroup != null) {
+            this.bossGroup.shutdownGracefully().syncUninterruptibly();
+            this.bossGroup = null;
+        }
+        if (this.workerGroup != null) {
+            this.workerGroup.shutdownGracefully().syncUninterruptibly();
+            this.workerGroup = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.serverChannel != null && this.serverChannel.isActive();
+    }
+
+    /**
+     * 获取实际监听的端口
+     *
+     * @return 端口，未启动则为-1
+     */
+    public int getPort() {
+        Channel channel = this.serverChannel;
+        return channel == null ? -1 : ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+}
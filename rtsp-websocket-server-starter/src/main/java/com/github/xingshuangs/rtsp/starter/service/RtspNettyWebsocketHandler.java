@@ -0,0 +1,130 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.model.NettyWebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.model.NettyWebsocketSink;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.TextMessage;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RTSP的Netty Websocket处理器，协议与RtspWebsocketHandler一致，所有通道共享一个实例
+ *
+ * @author xingshuang
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class RtspNettyWebsocketHandler extends SimpleChannelInboundHandler<Object> {
+
+    private final ConcurrentHashMap<String, NettyWebsocketConnection> connectionMap = new ConcurrentHashMap<>();
+
+    private final RtspManager rtspManager;
+
+    private final RtspProperties rtspProperties;
+
+    /**
+     * 推流链路的指标
+     */
+    private final RtspMetrics rtspMetrics;
+
+    public RtspNettyWebsocketHandler(RtspManager rtspManager, RtspProperties rtspProperties, RtspMetrics rtspMetrics) {
+        this.rtspManager = rtspManager;
+        this.rtspProperties = rtspProperties;
+        this.rtspMetrics = rtspMetrics;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (!(evt instanceof WebSocketServerProtocolHandler.HandshakeComplete)) {
+            super.userEventTriggered(ctx, evt);
+            return;
+        }
+        NettyWebsocketSink sink = new NettyWebsocketSink(ctx.channel());
+        NettyWebsocketConnection websocketConnection = new NettyWebsocketConnection(sink, this.rtspProperties.getWebsocket());
+        websocketConnection.setLastConnectionTime(LocalDateTime.now());
+        if (this.connectionMap.putIfAbsent(sink.getId(), websocketConnection) == null) {
+            this.rtspMetrics.bindSession(websocketConnection);
+        }
+        log.info("有新连接加入！当前在线人数为[{}]，sessionId[{}]", this.connectionMap.size(), sink.getId());
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof TextWebSocketFrame) {
+            NettyWebsocketConnection websocketConnection = this.connectionMap.get(ctx.channel().id().asLongText());
+            if (websocketConnection != null) {
+                this.rtspManager.handleMessage(websocketConnection, new TextMessage(((TextWebSocketFrame) msg).text()));
+            }
+        } else if (msg instanceof FullHttpRequest) {
+            // 非websocket路径的http请求
+            ctx.writeAndFlush(new DefaultFullHttpResponse(((FullHttpRequest) msg).protocolVersion(), HttpResponseStatus.NOT_FOUND, Unpooled.EMPTY_BUFFER))
+                    .addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        NettyWebsocketConnection websocketConnection = this.connectionMap.get(ctx.channel().id().asLongText());
+        if (websocketConnection != null && ctx.channel().isWritable()) {
+            websocketConnection.onWritable();
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        String sessionId = ctx.channel().id().asLongText();
+        NettyWebsocketConnection websocketConnection = this.connectionMap.remove(sessionId);
+        if (websocketConnection != null) {
+            this.rtspManager.remove(websocketConnection);
+            websocketConnection.onClosed();
+            this.rtspMetrics.unbindSession(websocketConnection);
+            log.info("有一连接关闭！当前在线人数为[{}]，sessionId[{}]", this.connectionMap.size(), sessionId);
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("发生错误，sessionId[{}]，错误信息={}", ctx.channel().id().asLongText(), cause.getMessage());
+        ctx.close();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 预热通道的服务，应用启动时并行建立所有预热通道的rtsp连接，全部推流后才上报就绪
+ *
+ * @author xingshuang
+ */
+@Slf4j
+@Component
+public class RtspPrewarmService implements ApplicationRunner {
+
+    /**
+     * 检查预热通道状态的间隔，单位毫秒
+     */
+    private static final long CHECK_INTERVAL = 500;
+
+    private final RtspManager rtspManager;
+
+    /**
+     * 预热通道编号
+     */
+    private final List<Integer> channelNumbers;
+
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * rtsp定时任务线程池
+     */
+    private final ScheduledExecutorService rtspScheduledExecutor;
+
+    /**
+     * 所有预热通道是否都已推流
+     */
+    private volatile boolean ready;
+
+    /**
+     * 检查预热通道状态的定时任务
+     */
+    private ScheduledFuture<?> checkFuture;
+
+    public RtspPrewarmService(RtspManager rtspManager,
+                              RtspProperties rtspProperties,
+                              ApplicationEventPublisher applicationEventPublisher,
+                              ScheduledExecutorService rtspScheduledExecutor) {
+        this.rtspManager = rtspManager;
+        this.channelNumbers = rtspProperties.getAddresses() == null ? Collections.emptyList() :
+                rtspProperties.getAddresses().stream().filter(RtspAddress::isPrewarm).map(RtspAddress::getNumber).collect(Collectors.toList());
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.rtspScheduledExecutor = rtspScheduledExecutor;
+        this.ready = this.channelNumbers.isEmpty();
+    }
+
+    /**
+     * 所有预热通道是否都已推流
+     *
+     * @return true：就绪，false：未就绪
+     */
+    public boolean isReady() {
+        return this.ready;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (this.channelNumbers.isEmpty()) {
+            return;
+        }
+        log.info("开始预热视频通道{}", this.channelNumbers);
+        // 握手在rtsp连接线程池中异步完成，各通道并行预热，启动耗时不随通道数量线性增长；集群中属于其他成员的通道由其预热
+        this.channelNumbers.stream().filter(x -> !this.rtspManager.isRemoteChannel(x)).forEach(this::prewarm);
+        this.checkFuture = this.rtspScheduledExecutor.scheduleWithFixedDelay(this::checkReady, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 应用上报可接收流量时，若预热通道未全部推流则撤回，待全部推流后再上报
+     *
+     * @param event 就绪状态变更事件
+     */
+    @EventListener
+    public synchronized void onReadinessStateChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC && !this.ready) {
+            log.info("预热视频通道未全部推流，暂不接收流量");
+            AvailabilityChangeEvent.publish(this.applicationEventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    /**
+     * 检查预热通道是否都已推流，连接失败的通道重新预热
+     */
+    private void checkReady() {
+        List<Integer> pending = this.channelNumbers.stream()
+                .filter(x -> !this.rtspManager.isRemoteChannel(x) && !this.rtspManager.isStreaming(x)).collect(Collectors.toList());
+        if (!pending.isEmpty()) {
+            pending.forEach(this::prewarm);
+            return;
+        }
+        synchronized (this) {
+            this.ready = true;
+            log.info("预热视频通道{}已全部推流，开始接收流量", this.channelNumbers);
+            AvailabilityChangeEvent.publish(this.applicationEventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+        }
+        this.checkFuture.cancel(false);
+    }
+
+    /**
+     * 预热指定通道
+     *
+     * @param channelNumber 通道编号
+     */
+    private void prewarm(Integer channelNumber) {
+        try {
+            this.rtspManager.prewarm(channelNumber);
+        } catch (Exception e) {
+            log.error("预热视频通道编号[{}]失败，{}", channelNumber, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package com.github.xingshuangs.rtsp.starter.service;
+
+
+import com.github.xingshuangs.rtsp.starter.model.ReactiveWebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.model.ReactiveWebsocketSink;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.socket.TextMessage;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RTSP的响应式Websocket处理器，基于Reactor Netty，收发都在少量的事件循环线程上完成，
+ * 订阅、扇出等逻辑与servlet方式共用RtspManager
+ *
+ * @author xingshuang
+ */
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class RtspReactiveWebsocketHandler implements WebSocketHandler {
+
+    private final ConcurrentHashMap<String, ReactiveWebsocketConnection> connectionMap = new ConcurrentHashMap<>();
+
+    private final RtspManager rtspManager;
+
+    private final RtspProperties rtspProperties;
+
+    /**
+     * 推流链路的指标
+     */
+    private final RtspMetrics rtspMetrics;
+
+    public RtspReactiveWebsocketHandler(RtspManager rtspManager,
+                                        RtspProperties rtspProperties,
+                                        RtspMetrics rtspMetrics) {
+        this.rtspManager = rtspManager;
+        this.rtspProperties = rtspProperties;
+        this.rtspMetrics = rtspMetrics;
+    }
+
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        ReactiveWebsocketConnection websocketConnection = new ReactiveWebsocketConnection(new ReactiveWebsocketSink(session), this.rtspProperties.getWebsocket());
+        websocketConnection.setLastConnectionTime(LocalDateTime.now());
+        if (this.connectionMap.putIfAbsent(session.getId(), websocketConnection) == null) {
+            this.rtspMetrics.bindSession(websocketConnection);
+        }
+        log.info("有新连接加入！当前在线人数为[{}]，sessionId[{}]", this.connectionMap.size(), session.getId());
+
+        Mono<Void> input = session.receive()
+                .filter(x -> x.getType() == WebSocketMessage.Type.TEXT)
+                .doOnNext(x -> this.rtspManager.handleMessage(websocketConnection, new TextMessage(x.getPayloadAsText())))
+                .then();
+        Mono<Void> output = session.send(websocketConnection.outbound());
+        // 任意一方结束即认为连接关闭
+        return Mono.first(input, output)
+                .doOnError(e -> log.error("发生错误，sessionId[{}]，错误信息={}", session.getId(), e.getMessage()))
+                .doFinally(x -> this.close(websocketConnection));
+    }
+
+    /**
+     * 连接关闭，移除所有订阅
+     *
+     * @param websocketConnection websocket连接
+     */
+    private void close(ReactiveWebsocketConnection websocketConnection) {
+        String sessionId = websocketConnection.getSink().getId();
+        websocketConnection.complete();
+        this.rtspManager.remove(websocketConnection);
+        if (this.connectionMap.remove(sessionId) != null) {
+            this.rtspMetrics.unbindSession(websocketConnection);
+        }
+        log.info("有一连接关闭！当前在线人数为[{}]，sessionId[{}]", this.connectionMap.size(), sessionId);
+    }
+}
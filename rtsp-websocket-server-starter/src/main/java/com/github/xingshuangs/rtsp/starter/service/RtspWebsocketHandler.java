@@ -26,7 +26,9 @@ package com.github.xingshuangs.rtsp.starter.service;
 
 
 import com.github.xingshuangs.rtsp.starter.model.WebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
@@ -35,6 +37,7 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.time.LocalDateTime;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * RTSP的Websocket处理器
@@ -43,22 +46,42 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 @Slf4j
 @Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class RtspWebsocketHandler extends TextWebSocketHandler {
 
     private final ConcurrentHashMap<String, WebsocketConnection> connectionMap = new ConcurrentHashMap<>();
 
     private final RtspManager rtspManager;
 
-    public RtspWebsocketHandler(RtspManager rtspManager) {
+    private final RtspProperties rtspProperties;
+
+    /**
+     * websocket发送线程池
+     */
+    private final ExecutorService websocketSendExecutor;
+
+    /**
+     * 推流链路的指标
+     */
+    private final RtspMetrics rtspMetrics;
+
+    public RtspWebsocketHandler(RtspManager rtspManager,
+                                RtspProperties rtspProperties,
+                                ExecutorService websocketSendExecutor,
+                                RtspMetrics rtspMetrics) {
         this.rtspManager = rtspManager;
+        this.rtspProperties = rtspProperties;
+        this.websocketSendExecutor = websocketSendExecutor;
+        this.rtspMetrics = rtspMetrics;
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        WebsocketConnection websocketConnection = new WebsocketConnection();
-        websocketConnection.setSession(session);
+        WebsocketConnection websocketConnection = new WebsocketConnection(session, this.websocketSendExecutor, this.rtspProperties.getWebsocket());
         websocketConnection.setLastConnectionTime(LocalDateTime.now());
-        this.connectionMap.putIfAbsent(session.getId(), websocketConnection);
+        if (this.connectionMap.putIfAbsent(session.getId(), websocketConnection) == null) {
+            this.rtspMetrics.bindSession(websocketConnection);
+        }
         log.info("有新连接加入！当前在线人数为[{}]，sessionId[{}]", this.connectionMap.size(), session.getId());
     }
 
@@ -73,6 +96,9 @@ public class RtspWebsocketHandler extends TextWebSocketHandler {
         WebsocketConnection websocketConnection = this.connectionMap.get(session.getId());
         this.rtspManager.remove(websocketConnection);
         this.connectionMap.remove(session.getId());
+        if (websocketConnection != null) {
+            this.rtspMetrics.unbindSession(websocketConnection);
+        }
         log.error("发生错误，sessionId[{}]，错误信息={}", session.getId(), exception.getMessage());
     }
 
@@ -81,6 +107,9 @@ public class RtspWebsocketHandler extends TextWebSocketHandler {
         WebsocketConnection websocketConnection = this.connectionMap.get(session.getId());
         this.rtspManager.remove(websocketConnection);
         this.connectionMap.remove(session.getId());
+        if (websocketConnection != null) {
+            this.rtspMetrics.unbindSession(websocketConnection);
+        }
         log.info("有一连接关闭！当前在线人数为[{}]，sessionId[{}]", this.connectionMap.size(), session.getId());
     }
 }
@@ -0,0 +1,314 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2021-2099 Oscura (xingshuang) <xingshuang_cool@163.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.github.xingshuangs.rtsp.starter.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FMP4数据的解析工具，只解析判定关键帧所需的box
+ *
+ * @author xingshuang
+ */
+public class Fmp4Util {
+
+    private static final int MOOF = 0x6D6F6F66;
+
+    private static final int MDAT = 0x6D646174;
+
+    private static final int FTYP = 0x66747970;
+
+    private static final int TRAF = 0x74726166;
+
+    private static final int TFHD = 0x74666864;
+
+    private static final int TRUN = 0x7472756E;
+
+    /**
+     * sample_is_non_sync_sample标识
+     */
+    private static final int SAMPLE_IS_NON_SYNC = 0x00010000;
+
+    private Fmp4Util() {
+        // NOOP
+    }
+
+    /**
+     * 是否为视频头，即以ftyp开头的数据
+     *
+     * @param data FMP4的数据
+     * @return true：是，false：否
+     */
+    public static boolean isInitSegment(byte[] data) {
+        return data.length >= 8 && readInt(data, 4) == FTYP;
+    }
+
+    /**
+     * 是否为媒体片段，即以moof开头的数据
+     *
+     * @param data FMP4的数据
+     * @return true：是，false：否
+     */
+    public static boolean isMediaSegment(byte[] data) {
+        return data.length >= 8 && readInt(data, 4) == MOOF;
+    }
+
+    /**
+     * 是否为媒体片段，即以moof开头的数据
+     *
+     * @param data   数据，不会移动position
+     * @param offset FMP4数据的起始位置
+     * @return true：是，false：否
+     */
+    public static boolean isMediaSegment(ByteBuffer data, int offset) {
+        return offset + 8 <= data.limit() && data.getInt(offset + 4) == MOOF;
+    }
+
+    /**
+     * 是否为单独的moof，不含mdat，rtsp-fmp4代理分两次输出moof和mdat
+     *
+     * @param data FMP4的数据
+     * @return true：是，false：否
+     */
+    public static boolean isMoofOnly(byte[] data) {
+        return isMediaSegment(data) && readInt(data, 0) == data.length;
+    }
+
+    /**
+     * 是否为mdat
+     *
+     * @param data FMP4的数据
+     * @return true：是，false：否
+     */
+    public static boolean isMediaData(byte[] data) {
+        return data.length >= 8 && readInt(data, 4) == MDAT;
+    }
+
+    /**
+     * 是否为H.264的关键帧片段
+     *
+     * @param data FMP4的数据
+     * @return true：关键帧，false：非关键帧或无法识别
+     */
+    public static boolean isKeyFrame(byte[] data) {
+        return isKeyFrame(data, false);
+    }
+
+    /**
+     * 是否为关键帧片段，判定依据为mdat中第一个sample的第一个图像NALU，H.264为IDR(5)，H.265为IRAP(16~21)；
+     * rtsp-fmp4代理总是把第一个sample标记为同步sample，sample_flags不可信，只在没有mdat时使用
+     *
+     * @param data FMP4的数据
+     * @param hevc 是否为H.265
+     * @return true：关键帧，false：非关键帧或无法识别
+     */
+    public static boolean isKeyFrame(byte[] data, boolean hevc) {
+        int moof = findBox(data, 0, data.length, MOOF);
+        if (moof < 0) {
+            return false;
+        }
+        int mdat = findBox(data, moof + boxSize(data, moof), data.length, MDAT);
+        if (mdat < 0) {
+            return isSyncSample(data, moof);
+        }
+        return isIrapSample(data, mdat + 8, Math.min(mdat + boxSize(data, mdat), data.length), hevc);
+    }
+
+    /**
+     * 第一个sample是否以随机访问图像开始，sample数据是4个字节长度前缀的NALU序列，
+     * 跳过AUD、SEI、参数集等非图像NALU，由第一个图像NALU决定
+     *
+     * @param data   数据
+     * @param offset sample数据的偏移量
+     * @param end    mdat的结束位置
+     * @param hevc   是否为H.265
+     * @return true：是，false：否
+     */
+    private static boolean isIrapSample(byte[] data, int offset, int end, boolean hevc) {
+        while (offset + 5 <= end) {
+            int length = readInt(data, offset);
+            int header = data[offset + 4] & 0xFF;
+            if (hevc) {
+                int type = (header >>> 1) & 0x3F;
+                if (type >= 16 && type <= 21) {
+                    return true;
+                }
+                if (type < 32) {
+                    return false;
+                }
+            } else {
+                int type = header & 0x1F;
+                if (type == 5) {
+                    return true;
+                }
+                if (type >= 1 && type <= 4) {
+                    return false;
+                }
+            }
+            // 长度超出mdat的剩余数据则为损坏的数据，停止查找，同时避免偏移量溢出
+            if (length <= 0 || length > end - offset - 4) {
+                return false;
+            }
+            offset += 4 + length;
+        }
+        return false;
+    }
+
+    /**
+     * 第一个sample是否标记为同步sample
+     *
+     * @param data 数据
+     * @param moof moof的偏移量
+     * @return true：是，false：否
+     */
+    private static boolean isSyncSample(byte[] data, int moof) {
+        int traf = findBox(data, moof + 8, moof + boxSize(data, moof), TRAF);
+        if (traf < 0) {
+            return false;
+        }
+        int trafEnd = traf + boxSize(data, traf);
+        int tfhd = findBox(data, traf + 8, trafEnd, TFHD);
+        int trun = findBox(data, traf + 8, trafEnd, TRUN);
+        if (trun < 0) {
+            return false;
+        }
+        Integer sampleFlags = firstSampleFlags(data, trun);
+        if (sampleFlags == null && tfhd >= 0) {
+            sampleFlags = defaultSampleFlags(data, tfhd);
+        }
+        if (sampleFlags == null) {
+            return false;
+        }
+        int dependsOn = (sampleFlags >>> 24) & 0x03;
+        return (sampleFlags & SAMPLE_IS_NON_SYNC) == 0 && dependsOn != 1;
+    }
+
+    /**
+     * 获取trun中第一个sample的flags
+     *
+     * @param data   数据
+     * @param offset trun的偏移量
+     * @return sample_flags，不存在返回null
+     */
+    private static Integer firstSampleFlags(byte[] data, int offset) {
+        int flags = readInt(data, offset + 8) & 0x00FFFFFF;
+        int sampleCount = readInt(data, offset + 12);
+        int index = offset + 16;
+        if ((flags & 0x000001) != 0) {
+            index += 4;
+        }
+        if ((flags & 0x000004) != 0) {
+            return readFlags(data, index);
+        }
+        if (sampleCount == 0 || (flags & 0x000400) == 0) {
+            return null;
+        }
+        if ((flags & 0x000100) != 0) {
+            index += 4;
+        }
+        if ((flags & 0x000200) != 0) {
+            index += 4;
+        }
+        return readFlags(data, index);
+    }
+
+    /**
+     * 获取tfhd中的default_sample_flags
+     *
+     * @param data   数据
+     * @param offset tfhd的偏移量
+     * @return default_sample_flags，不存在返回null
+     */
+    private static Integer defaultSampleFlags(byte[] data, int offset) {
+        int flags = readInt(data, offset + 8) & 0x00FFFFFF;
+        if ((flags & 0x000020) == 0) {
+            return null;
+        }
+        int index = offset + 16;
+        if ((flags & 0x000001) != 0) {
+            index += 8;
+        }
+        if ((flags & 0x000002) != 0) {
+            index += 4;
+        }
+        if ((flags & 0x000008) != 0) {
+            index += 4;
+        }
+        if ((flags & 0x000010) != 0) {
+            index += 4;
+        }
+        return readFlags(data, index);
+    }
+
+    /**
+     * 在指定范围内查找box
+     *
+     * @param data  数据
+     * @param start 开始位置
+     * @param end   结束位置
+     * @param type  box类型
+     * @return box的偏移量，没有找到返回-1
+     */
+    private static int findBox(byte[] data, int start, int end, int type) {
+        int offset = start;
+        end = Math.min(end, data.length);
+        while (offset + 8 <= end) {
+            int size = boxSize(data, offset);
+            if (readInt(data, offset + 4) == type) {
+                return offset;
+            }
+            if (size < 8) {
+                return -1;
+            }
+            offset += size;
+        }
+        return -1;
+    }
+
+    /**
+     * 获取box的大小，size为0表示直到数据结尾
+     *
+     * @param data   数据
+     * @param offset box的偏移量
+     * @return box大小
+     */
+    private static int boxSize(byte[] data, int offset) {
+        int size = readInt(data, offset);
+        return size == 0 ? data.length - offset : size;
+    }
+
+    private static Integer readFlags(byte[] data, int offset) {
+        return offset + 4 <= data.length ? readInt(data, offset) : null;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        if (offset < 0 || offset + 4 > data.length) {
+            return 0;
+        }
+        return ((data[offset] & 0xFF) << 24)
+                | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8)
+                | (data[offset + 3] & 0xFF);
+    }
+}
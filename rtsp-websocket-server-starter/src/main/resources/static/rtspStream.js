@@ -22,49 +22,117 @@
  * SOFTWARE.
  */
 
+/**
+ * 批量二进制消息的标识，不是合法的视频通道编号
+ */
+const BATCH_MARKER = 0xFFFFFFFF;
+
 class RtspStream {
 
-    constructor(wsUrl, openCallback) {
+    constructor(wsUrl, openCallback = () => {}) {
         this.wsUrl = wsUrl;
         this.channelMap = new Map();
         this.openCallback = openCallback;
+        // 连接建立前待发送的消息
+        this.pending = [];
+        // 集群重定向：其他节点的连接(ws地址 -> RtspStream)，通道所在的连接(通道编号 -> RtspStream)
+        this.root = this;
+        this.peers = new Map();
+        this.routes = new Map();
     }
 
+    /**
+     * 发送消息，连接未建立时缓存，建立后依次发送
+     * @param data 数据
+     */
     send(data) {
-        this.websocket.send(data);
+        if (this.websocket && this.websocket.readyState === WebSocket.OPEN) this.websocket.send(data);
+        else this.pending.push(data);
     }
 
     /**
      * 触发订阅
      * @param number 通道编号
      * @param videoId video标签Id
+     * @param variant 码流名称，如main、sub，不传则由服务端选择
      */
-    subscribe(number, videoId) {
+    subscribe(number, videoId, variant = "") {
+        const peer = this.routes.get(number);
+        if (peer) {
+            peer.subscribe(number, videoId, variant);
+            return;
+        }
         if (this.channelMap.get(number)) {
             console.warn("can't resubscribe same channel");
             return;
         }
-        console.debug(`subscribe channel[${number}]，videoId[${videoId}]`)
+        console.debug(`subscribe channel[${number}]，videoId[${videoId}]，variant[${variant}]`)
         // 构建订阅参数，json的形式交互
         const params = {};
         params.type = "SUBSCRIBE";
         params.number = number;
-        params.content = "";
+        params.content = variant;
         const channelMedia = new ChannelMedia(number, videoId);
-        channelMedia.onReset = (number, videoId) => this.resubscribe(number, videoId);
+        channelMedia.variant = variant;
+        channelMedia.onReset = (number, videoId) => this.resubscribe(number, videoId, channelMedia.variant);
         this.channelMap.set(number, channelMedia)
-        this.websocket.send(JSON.stringify(params))
+        this.send(JSON.stringify(params))
+    }
+
+    /**
+     * 切换已订阅通道的码流，无需取消订阅，服务端下发新码流的codec后重新构建播放
+     * @param number 视频通道编号
+     * @param variant 码流名称
+     */
+    switchVariant(number, variant) {
+        const peer = this.routes.get(number);
+        if (peer) {
+            peer.switchVariant(number, variant);
+            return;
+        }
+        const channelMedia = this.channelMap.get(number);
+        if (!channelMedia) {
+            console.warn(`channel[${number}] not subscribed`);
+            return;
+        }
+        channelMedia.variant = variant;
+        console.debug(`switch channel[${number}] to variant[${variant}]`)
+        const params = {};
+        params.type = "SUBSCRIBE";
+        params.number = number;
+        params.content = variant;
+        this.send(JSON.stringify(params));
+    }
+
+    /**
+     * 回看已订阅通道的历史画面，服务端下发codec后重新构建播放，之后按录制节奏回放
+     * @param number 视频通道编号
+     * @param seconds 回看的秒数，0表示回到实时
+     */
+    seek(number, seconds) {
+        const peer = this.routes.get(number);
+        if (peer) {
+            peer.seek(number, seconds);
+            return;
+        }
+        console.debug(`seek channel[${number}] ${seconds}s`)
+        const params = {};
+        params.type = "SEEK";
+        params.number = number;
+        params.content = String(seconds);
+        this.send(JSON.stringify(params));
     }
 
     /**
      * 重新订阅
      * @param number 视频通道编号
      * @param videoId video标签Id
+     * @param variant 码流名称
      */
-    resubscribe(number, videoId) {
+    resubscribe(number, videoId, variant = "") {
         console.debug(`resubscribe channel[${number}]，videoId[${videoId}]`)
         this.unsubscribe(number);
-        this.subscribe(number, videoId);
+        this.subscribe(number, videoId, variant);
     }
 
     /**
@@ -72,14 +140,59 @@ class RtspStream {
      * @param number 视频通道编号
      */
     unsubscribe(number) {
+        const peer = this.routes.get(number);
+        if (peer) {
+            this.routes.delete(number);
+            peer.unsubscribe(number);
+            return;
+        }
         console.debug(`取消订阅通道[${number}]`)
         // 构建订阅参数，json的形式交互
         const params = {};
         params.type = "UNSUBSCRIBE";
         params.number = number;
         params.content = "";
-        this.websocket.send(JSON.stringify(params));
+        this.send(JSON.stringify(params));
+        this.channelMap.delete(number);
+    }
+
+    /**
+     * 开启批量发送，服务端把多个通道的数据帧在攒批间隔内合并为一个二进制消息，适合一个页面订阅大量通道的场景
+     * @param interval 攒批间隔，单位毫秒，0表示关闭
+     */
+    batch(interval) {
+        const params = {};
+        params.type = "BATCH";
+        params.number = 0;
+        params.content = String(interval);
+        this.send(JSON.stringify(params));
+    }
+
+    /**
+     * 重定向，通道属于集群中的其他节点，连接该节点（已连接则复用）重新订阅，之后该通道的操作都转到该节点
+     * @param number 视频通道编号
+     * @param url 所属节点的ws地址
+     */
+    redirect(number, url) {
+        const channelMedia = this.channelMap.get(number);
+        if (!channelMedia) return;
+        if (url === this.wsUrl) {
+            console.error(`channel[${number}] redirect to self: ${url}`);
+            return;
+        }
+        console.log(`channel[${number}] redirect to ${url}`);
         this.channelMap.delete(number);
+        const root = this.root;
+        let peer = url === root.wsUrl ? root : root.peers.get(url);
+        if (!peer) {
+            peer = new RtspStream(url);
+            peer.root = root;
+            root.peers.set(url, peer);
+            peer.open();
+        }
+        if (peer === root) root.routes.delete(number);
+        else root.routes.set(number, peer);
+        peer.subscribe(number, channelMedia.videoId, channelMedia.variant);
     }
 
     /**
@@ -88,6 +201,9 @@ class RtspStream {
      */
     onopen(evt) {
         console.log("ws连接成功", this.wsUrl);
+        const pending = this.pending;
+        this.pending = [];
+        pending.forEach(x => this.websocket.send(x));
         this.openCallback(evt);
     }
 
@@ -107,22 +223,43 @@ class RtspStream {
         if (typeof (evt.data) == "string") {
             let data = JSON.parse(evt.data);
             if (data.type === "SUBSCRIBE") this.channelMap.get(data.number).init(data.content);
+            else if (data.type === "PENDING") console.debug(`channel[${data.number}]: ${data.content}`);
             else if (data.type === "QUERY") console.log(`channel[${data.number}]: ${data.content}`);
+            else if (data.type === "BATCH") console.debug(`batch interval: ${data.content}ms`);
+            else if (data.type === "SEEK") console.log(`channel[${data.number}] seek: ${data.content}s`);
+            else if (data.type === "REDIRECT") this.redirect(data.number, data.content);
             else if (data.type === "ERROR") console.error(`channel[${data.number}]: ${data.content}`);
             else console.log(data.content);
         } else {
-            const data = new Uint8Array(evt.data);
+            const view = new DataView(evt.data);
             // 解析通道编号
-            const numberSrc = data.slice(0, 4);
-            const view = new DataView(numberSrc.buffer);
             const number = view.getUint32(0);
-            // 向指定通道编号添加数据
-            const videoData = data.slice(4);
-            // console.log("通道编号：", number, videoData.length)
-            this.channelMap.get(number).pushData(videoData);
+            if (number !== BATCH_MARKER) {
+                // 单帧：4字节通道编号 + 视频数据
+                this.pushData(number, new Uint8Array(evt.data, 4));
+                return;
+            }
+            // 批量：4字节批量标识 + 若干条(4字节通道编号 + 4字节数据长度 + 视频数据)
+            let offset = 4;
+            while (offset + 8 <= view.byteLength) {
+                const recordNumber = view.getUint32(offset);
+                const length = view.getUint32(offset + 4);
+                this.pushData(recordNumber, new Uint8Array(evt.data, offset + 8, length));
+                offset += 8 + length;
+            }
         }
     }
 
+    /**
+     * 向指定通道编号添加数据，已取消订阅的通道忽略
+     * @param number 视频通道编号
+     * @param videoData 视频数据
+     */
+    pushData(number, videoData) {
+        const channelMedia = this.channelMap.get(number);
+        if (channelMedia) channelMedia.pushData(videoData);
+    }
+
     /**
      * 错误
      * @param evt 数据
@@ -150,6 +287,9 @@ class RtspStream {
      */
     close() {
         if (this.websocket) this.websocket.close();
+        this.peers.forEach(x => x.close());
+        this.peers.clear();
+        this.routes.clear();
     }
 }
 
@@ -161,6 +301,7 @@ class ChannelMedia {
         this.queue = [];
         this.canFeed = false;
         this.onReset = null;
+        this.variant = "";
     }
 
     /**
@@ -168,6 +309,10 @@ class ChannelMedia {
      * @param codecStr 视频编码
      */
     init(codecStr) {
+        // rtsp重连后会重新下发codec和视频头，丢弃旧的缓冲，重新构建MediaSource
+        this.queue = [];
+        this.canFeed = false;
+        this.sourceBuffer = null;
         this.codec = 'video/mp4; codecs=\"' + codecStr + '\"';
         console.log(`channel[${this.number}] call play [${this.codec}]`);
         if (MediaSource.isTypeSupported(this.codec)) {
@@ -0,0 +1,326 @@
+package com.github.xingshuangs.rtsp.starter.load;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 循环播放的H264码流，按帧组织NALU(不含起始码)，可由Annex-B文件加载，也可合成
+ * 合成码流的切片中写入发送时刻，用于统计端到端延迟，切片内容本身不可解码
+ *
+ * @author xingshuang
+ */
+public class H264LoopStream {
+
+    /**
+     * 合成切片中时间戳的标记，其后紧跟8字节的System.nanoTime()
+     */
+    public static final byte[] TIMESTAMP_MARKER = "RTSPTS".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int NALU_SPS = 7;
+
+    private static final int NALU_PPS = 8;
+
+    private static final int NALU_IDR = 5;
+
+    private static final int NALU_SLICE = 1;
+
+    private final byte[] sps;
+
+    private final byte[] pps;
+
+    private final int fps;
+
+    /**
+     * 文件加载的帧，合成码流为空
+     */
+    private final List<List<byte[]>> frames;
+
+    /**
+     * 合成码流的关键帧间隔
+     */
+    private final int gop;
+
+    /**
+     * 合成码流每帧切片的大小
+     */
+    private final int frameSize;
+
+    private H264LoopStream(byte[] sps, byte[] pps, int fps, List<List<byte[]>> frames, int gop, int frameSize) {
+        this.sps = sps;
+        this.pps = pps;
+        this.fps = fps;
+        this.frames = frames;
+        this.gop = gop;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * 合成码流，只有合法的SPS、PPS和切片头
+     *
+     * @param width     宽，16的整数倍
+     * @param height    高，16的整数倍
+     * @param fps       帧率
+     * @param gop       关键帧间隔
+     * @param frameSize 每帧切片的字节数
+     * @return 码流
+     */
+    public static H264LoopStream synthetic(int width, int height, int fps, int gop, int frameSize) {
+        if (width % 16 != 0 || height % 16 != 0) {
+            throw new IllegalArgumentException("宽高必须是16的整数倍");
+        }
+        // baseline profile，level 3.0
+        BitWriter sps = new BitWriter();
+        sps.writeBits(0x67, 8);
+        sps.writeBits(66, 8);
+        sps.writeBits(0xC0, 8);
+        sps.writeBits(30, 8);
+        sps.writeUE(0);
+        sps.writeUE(0);
+        sps.writeUE(2);
+        sps.writeUE(1);
+        sps.writeBits(0, 1);
+        sps.writeUE(width / 16 - 1);
+        sps.writeUE(height / 16 - 1);
+        sps.writeBits(1, 1);
+        sps.writeBits(1, 1);
+        sps.writeBits(0, 1);
+        sps.writeBits(0, 1);
+        BitWriter pps = new BitWriter();
+        pps.writeBits(0x68, 8);
+        pps.writeUE(0);
+        pps.writeUE(0);
+        pps.writeBits(0, 1);
+        pps.writeBits(0, 1);
+        pps.writeUE(0);
+        pps.writeUE(0);
+        pps.writeUE(0);
+        pps.writeBits(0, 1);
+        pps.writeBits(0, 2);
+        pps.writeSE(0);
+        pps.writeSE(0);
+        pps.writeSE(0);
+        pps.writeBits(1, 1);
+        pps.writeBits(0, 1);
+        pps.writeBits(0, 1);
+        return new H264LoopStream(sps.toRbsp(), pps.toRbsp(), fps, Collections.emptyList(), gop,
+                Math.max(frameSize, 2 + TIMESTAMP_MARKER.length + Long.BYTES));
+    }
+
+    /**
+     * 加载Annex-B格式的H264文件，必须包含SPS和PPS
+     *
+     * @param path 文件路径
+     * @param fps  帧率
+     * @return 码流
+     * @throws Exception 读取异常
+     */
+    public static H264LoopStream fromAnnexB(Path path, int fps) throws Exception {
+        return fromAnnexB(Files.readAllBytes(path), fps);
+    }
+
+    /**
+     * 解析Annex-B格式的H264数据，必须包含SPS和PPS
+     *
+     * @param data 数据
+     * @param fps  帧率
+     * @return 码流
+     */
+    public static H264LoopStream fromAnnexB(byte[] data, int fps) {
+        byte[] sps = null;
+        byte[] pps = null;
+        List<List<byte[]>> frames = new ArrayList<>();
+        List<byte[]> pending = new ArrayList<>();
+        for (byte[] nalu : splitAnnexB(data)) {
+            int type = nalu[0] & 0x1F;
+            if (type == NALU_SPS && sps == null) {
+                sps = nalu;
+            } else if (type == NALU_PPS && pps == null) {
+                pps = nalu;
+            }
+            if (type != NALU_IDR && type != NALU_SLICE) {
+                pending.add(nalu);
+                continue;
+            }
+            // first_mb_in_slice不为0，属于上一帧的后续切片
+            boolean firstSlice = nalu.length > 1 && (nalu[1] & 0x80) != 0;
+            if (!firstSlice && !frames.isEmpty() && pending.isEmpty()) {
+                frames.get(frames.size() - 1).add(nalu);
+                continue;
+            }
+            pending.add(nalu);
+            frames.add(pending);
+            pending = new ArrayList<>();
+        }
+        if (sps == null || pps == null || frames.isEmpty()) {
+            throw new IllegalArgumentException("H264数据中缺少SPS、PPS或切片");
+        }
+        return new H264LoopStream(sps, pps, fps, frames, 0, 0);
+    }
+
+    public int getFps() {
+        return this.fps;
+    }
+
+    /**
+     * 循环一轮的帧数
+     *
+     * @return 帧数
+     */
+    public int getFrameCount() {
+        return this.frames.isEmpty() ? this.gop : this.frames.size();
+    }
+
+    /**
+     * SDP中的sprop-parameter-sets
+     *
+     * @return base64的SPS和PPS
+     */
+    public String getSpropParameterSets() {
+        Base64.Encoder encoder = Base64.getEncoder();
+        return encoder.encodeToString(this.sps) + "," + encoder.encodeToString(this.pps);
+    }
+
+    /**
+     * SDP中的profile-level-id
+     *
+     * @return 16进制字符串
+     */
+    public String getProfileLevelId() {
+        return String.format("%02X%02X%02X", this.sps[1], this.sps[2], this.sps[3]);
+    }
+
+    /**
+     * 获取指定序号的帧，序号超出一轮后循环
+     *
+     * @param index 序号
+     * @return 帧的NALU列表
+     */
+    public List<byte[]> frame(long index) {
+        int i = (int) (index % this.getFrameCount());
+        if (!this.frames.isEmpty()) {
+            return this.frames.get(i);
+        }
+        boolean keyFrame = i == 0;
+        byte[] slice = new byte[this.frameSize];
+        // 切片头：nal header，first_mb_in_slice = 0，slice_type = 7(I) 或 5(P)，其余内容不解码
+        slice[0] = (byte) (keyFrame ? 0x65 : 0x41);
+        slice[1] = (byte) (keyFrame ? 0x88 : 0x9A);
+        ByteBuffer.wrap(slice, 2, slice.length - 2).put(TIMESTAMP_MARKER).putLong(System.nanoTime());
+        return keyFrame ? Arrays.asList(this.sps, this.pps, slice) : Collections.singletonList(slice);
+    }
+
+    /**
+     * 查找合成切片中写入的发送时刻
+     *
+     * @param data  数据
+     * @param from  起始位置
+     * @param until 结束位置(不含)
+     * @return 最后一个发送时刻，不存在返回-1
+     */
+    public static long findLastTimestamp(ByteBuffer data, int from, int until) {
+        long timestamp = -1;
+        int end = until - TIMESTAMP_MARKER.length - Long.BYTES;
+        for (int i = from; i <= end; i++) {
+            if (matchMarker(data, i)) {
+                timestamp = data.getLong(i + TIMESTAMP_MARKER.length);
+                i += TIMESTAMP_MARKER.length + Long.BYTES - 1;
+            }
+        }
+        return timestamp;
+    }
+
+    private static boolean matchMarker(ByteBuffer data, int index) {
+        for (int j = 0; j < TIMESTAMP_MARKER.length; j++) {
+            if (data.get(index + j) != TIMESTAMP_MARKER[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<byte[]> splitAnnexB(byte[] data) {
+        List<byte[]> res = new ArrayList<>();
+        int start = -1;
+        int i = 0;
+        while (i + 2 < data.length) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                if (start >= 0) {
+                    // 4字节起始码的前导0不属于上一个NALU
+                    int end = data[i - 1] == 0 ? i - 1 : i;
+                    res.add(Arrays.copyOfRange(data, start, Math.max(end, start)));
+                }
+                i += 3;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start >= 0 && start < data.length) {
+            res.add(Arrays.copyOfRange(data, start, data.length));
+        }
+        res.removeIf(x -> x.length == 0);
+        return res;
+    }
+
+    /**
+     * 按位写入，生成带防竞争字节的RBSP
+     */
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private int current;
+
+        private int bitCount;
+
+        void writeBits(int value, int size) {
+            for (int i = size - 1; i >= 0; i--) {
+                this.current = (this.current << 1) | ((value >> i) & 0x01);
+                if (++this.bitCount == 8) {
+                    this.out.write(this.current);
+                    this.current = 0;
+                    this.bitCount = 0;
+                }
+            }
+        }
+
+        void writeUE(int value) {
+            int codeNum = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(codeNum);
+            this.writeBits(0, length - 1);
+            this.writeBits(codeNum, length);
+        }
+
+        void writeSE(int value) {
+            this.writeUE(value <= 0 ? -2 * value : 2 * value - 1);
+        }
+
+        byte[] toRbsp() {
+            // rbsp_stop_one_bit + 对齐
+            this.writeBits(1, 1);
+            while (this.bitCount != 0) {
+                this.writeBits(0, 1);
+            }
+            byte[] rbsp = this.out.toByteArray();
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            int zeros = 0;
+            for (byte b : rbsp) {
+                if (zeros == 2 && (b & 0xFF) <= 3) {
+                    res.write(3);
+                    zeros = 0;
+                }
+                res.write(b);
+                zeros = b == 0 ? zeros + 1 : 0;
+            }
+            return res.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package com.github.xingshuangs.rtsp.starter.load;
+
+import com.github.xingshuangs.iot.protocol.rtsp.enums.ERtspTransportProtocol;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspClient;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspFMp4Proxy;
+import com.github.xingshuangs.rtsp.starter.utils.Fmp4Util;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本地模拟的RTSP服务端，循环推送H264码流，支持RTP over UDP和RTP over TCP(interleaved)
+ * 只实现RtspClient用到的OPTIONS、DESCRIBE、SETUP、PLAY、TEARDOWN，不做鉴权，任意路径返回同一码流
+ *
+ * @author xingshuang
+ */
+@Slf4j
+public class MockRtspServer implements Closeable {
+
+    private static final String CRLF = "\r\n";
+
+    /**
+     * RTP负载的最大长度，超过则按FU-A分片
+     */
+    private static final int MAX_PAYLOAD_SIZE = 1400;
+
+    private static final int PAYLOAD_TYPE = 96;
+
+    private static final int CLOCK_RATE = 90000;
+
+    private final H264LoopStream stream;
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "mock-rtsp");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger sessionIdGenerator = new AtomicInteger(10000000);
+
+    /**
+     * 已发送的RTP字节数
+     */
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public MockRtspServer(H264LoopStream stream) throws IOException {
+        this.stream = stream;
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+    }
+
+    public MockRtspServer start() {
+        this.executorService.execute(this::acceptLoop);
+        return this;
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * 获取访问地址
+     *
+     * @param path 路径
+     * @return rtsp地址
+     */
+    public String getUrl(String path) {
+        return "rtsp://127.0.0.1:" + this.getPort() + "/" + path;
+    }
+
+    /**
+     * 当前播放中的会话数量
+     *
+     * @return 数量
+     */
+    public int getPlayingCount() {
+        return (int) this.sessions.stream().filter(x -> x.playing).count();
+    }
+
+    public long getSentBytes() {
+        return this.sentBytes.get();
+    }
+
+    /**
+     * 通过rtsp-fmp4代理拉流，录制真实的代理输出，第一个为视频头(ftyp+moov)，后面是合并后的媒体片段(moof+mdat)
+     *
+     * @param count 媒体片段的数量
+     * @return FMP4数据
+     * @throws InterruptedException 中断异常
+     */
+    public List<byte[]> recordFragments(int count) throws InterruptedException {
+        RtspFMp4Proxy proxy = new RtspFMp4Proxy(new RtspClient(URI.create(this.getUrl("record")), ERtspTransportProtocol.TCP));
+        List<byte[]> fragments = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(count);
+        byte[][] pendingMoof = new byte[1][];
+        proxy.onFmp4DataHandle(x -> {
+            if (Fmp4Util.isMoofOnly(x)) {
+                pendingMoof[0] = x;
+            } else if (Fmp4Util.isMediaData(x)) {
+                if (pendingMoof[0] != null && latch.getCount() > 0) {
+                    byte[] fragment = new byte[pendingMoof[0].length + x.length];
+                    System.arraycopy(pendingMoof[0], 0, fragment, 0, pendingMoof[0].length);
+                    System.arraycopy(x, 0, fragment, pendingMoof[0].length, x.length);
+                    fragments.add(fragment);
+                    latch.countDown();
+                }
+                pendingMoof[0] = null;
+            } else if (fragments.isEmpty()) {
+                fragments.add(x);
+            }
+        });
+        CompletableFuture<Void> future = proxy.start();
+        try {
+            if (!latch.await(20, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("录制超时");
+            }
+        } finally {
+            proxy.stop();
+        }
+        future.join();
+        synchronized (fragments) {
+            return new ArrayList<>(fragments);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            // NOOP
+        }
+        this.sessions.forEach(Session::close);
+        this.executorService.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                this.sessions.add(session);
+                this.executorService.execute(session::readLoop);
+            } catch (IOException e) {
+                if (!this.closed) {
+                    log.error(e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个RTSP连接对应一个会话，只包含一路视频
+     */
+    private class Session {
+
+        private final Socket socket;
+
+        private final String sessionId = String.valueOf(sessionIdGenerator.incrementAndGet());
+
+        private final int ssrc = ThreadLocalRandom.current().nextInt();
+
+        private final Object writeLock = new Object();
+
+        private OutputStream out;
+
+        private DatagramSocket rtpSocket;
+
+        private DatagramSocket rtcpSocket;
+
+        private InetSocketAddress clientRtpAddress;
+
+        /**
+         * interleaved的RTP通道，-1表示UDP
+         */
+        private int interleavedChannel = -1;
+
+        private int sequenceNumber = ThreadLocalRandom.current().nextInt(0xFFFF);
+
+        private volatile boolean playing;
+
+        private volatile boolean closed;
+
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        void readLoop() {
+            try {
+                InputStream in = new BufferedInputStream(this.socket.getInputStream());
+                this.out = this.socket.getOutputStream();
+                while (!this.closed) {
+                    int first = in.read();
+                    if (first < 0) {
+                        break;
+                    }
+                    if (first == '$') {
+                        // 客户端interleaved方式回送的RTCP，直接丢弃
+                        in.read();
+                        int length = (in.read() << 8) | in.read();
+                        skipFully(in, length);
+                        continue;
+                    }
+                    this.handleRequest(first, in);
+                }
+            } catch (IOException e) {
+                if (!this.closed) {
+                    log.debug("模拟RTSP会话[{}]读取结束：{}", this.sessionId, e.getMessage());
+                }
+            } finally {
+                this.close();
+            }
+        }
+
+        private void handleRequest(int first, InputStream in) throws IOException {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(first);
+            // 最近读取的4个字节，遇到空行结束
+            int last = first;
+            while (last != 0x0D0A0D0A) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("请求未结束");
+                }
+                header.write(b);
+                last = (last << 8) | b;
+            }
+            String[] lines = header.toString(StandardCharsets.US_ASCII.name()).split(CRLF);
+            String[] requestLine = lines[0].split(" ");
+            Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 1; i < lines.length; i++) {
+                int index = lines[i].indexOf(':');
+                if (index > 0) {
+                    headers.put(lines[i].substring(0, index).trim(), lines[i].substring(index + 1).trim());
+                }
+            }
+            skipFully(in, Integer.parseInt(headers.getOrDefault("Content-Length", "0")));
+
+            String method = requestLine[0];
+            String uri = requestLine.length > 1 ? requestLine[1] : "";
+            String cSeq = headers.getOrDefault("CSeq", "0");
+            switch (method) {
+                case "OPTIONS":
+                    this.reply(cSeq, "Public: OPTIONS, DESCRIBE, SETUP, PLAY, TEARDOWN" + CRLF, "");
+                    break;
+                case "DESCRIBE":
+                    String sdp = this.createSdp();
+                    this.reply(cSeq, "Content-Base: " + uri + "/" + CRLF
+                            + "Content-Type: application/sdp" + CRLF
+                            + "Content-Length: " + sdp.length() + CRLF, sdp);
+                    break;
+                case "SETUP":
+                    String transport = this.setup(headers.getOrDefault("Transport", ""));
+                    this.reply(cSeq, "Transport: " + transport + CRLF
+                            + "Session: " + this.sessionId + ";timeout=60" + CRLF, "");
+                    break;
+                case "PLAY":
+                    this.reply(cSeq, "Session: " + this.sessionId + CRLF + "Range: npt=0.000-" + CRLF, "");
+                    this.play();
+                    break;
+                case "TEARDOWN":
+                    this.reply(cSeq, "Session: " + this.sessionId + CRLF, "");
+                    this.close();
+                    break;
+                default:
+                    this.write(("RTSP/1.0 501 Not Implemented" + CRLF + "CSeq: " + cSeq + CRLF + CRLF).getBytes(StandardCharsets.US_ASCII));
+                    break;
+            }
+        }
+
+        private String createSdp() {
+            return "v=0" + CRLF
+                    + "o=- " + this.sessionId + " 1 IN IP4 127.0.0.1" + CRLF
+                    + "s=Mock RTSP Server" + CRLF
+                    + "c=IN IP4 0.0.0.0" + CRLF
+                    + "t=0 0" + CRLF
+                    + "a=control:*" + CRLF
+                    + "m=video 0 RTP/AVP " + PAYLOAD_TYPE + CRLF
+                    + "a=rtpmap:" + PAYLOAD_TYPE + " H264/" + CLOCK_RATE + CRLF
+                    + "a=fmtp:" + PAYLOAD_TYPE + " packetization-mode=1;profile-level-id=" + stream.getProfileLevelId()
+                    + ";sprop-parameter-sets=" + stream.getSpropParameterSets() + CRLF
+                    + "a=control:trackID=0" + CRLF;
+        }
+
+        private String setup(String transport) throws IOException {
+            String ssrcHex = String.format("%08X", this.ssrc);
+            int index = transport.indexOf("interleaved=");
+            if (index >= 0) {
+                String channels = transport.substring(index + "interleaved=".length()).split(";")[0];
+                this.interleavedChannel = Integer.parseInt(channels.split("-")[0].trim());
+                return "RTP/AVP/TCP;unicast;interleaved=" + channels + ";ssrc=" + ssrcHex;
+            }
+            index = transport.indexOf("client_port=");
+            if (index < 0) {
+                throw new IOException("不支持的Transport：" + transport);
+            }
+            String ports = transport.substring(index + "client_port=".length()).split(";")[0];
+            int rtpPort = Integer.parseInt(ports.split("-")[0].trim());
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            this.rtpSocket = new DatagramSocket(0, loopback);
+            this.rtcpSocket = new DatagramSocket(0, loopback);
+            this.clientRtpAddress = new InetSocketAddress(this.socket.getInetAddress(), rtpPort);
+            return "RTP/AVP;unicast;client_port=" + ports + ";server_port=" + this.rtpSocket.getLocalPort()
+                    + "-" + this.rtcpSocket.getLocalPort() + ";ssrc=" + ssrcHex;
+        }
+
+        private void play() {
+            if (this.playing) {
+                return;
+            }
+            this.playing = true;
+            executorService.execute(this::sendLoop);
+        }
+
+        /**
+         * 按帧率推送，落后时不补发，避免突发
+         */
+        private void sendLoop() {
+            long interval = TimeUnit.SECONDS.toNanos(1) / stream.getFps();
+            long timestamp = CLOCK_RATE;
+            long next = System.nanoTime();
+            try {
+                for (long index = 0; this.playing && !this.closed; index++) {
+                    this.sendFrame(stream.frame(index), timestamp);
+                    timestamp += CLOCK_RATE / stream.getFps();
+                    next += interval;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        next = System.nanoTime();
+                    }
+                }
+            } catch (IOException e) {
+                if (!this.closed) {
+                    log.debug("模拟RTSP会话[{}]发送结束：{}", this.sessionId, e.getMessage());
+                }
+                this.close();
+            }
+        }
+
+        private void sendFrame(List<byte[]> nalus, long timestamp) throws IOException {
+            for (int i = 0; i < nalus.size(); i++) {
+                byte[] nalu = nalus.get(i);
+                boolean lastNalu = i == nalus.size() - 1;
+                if (nalu.length <= MAX_PAYLOAD_SIZE) {
+                    this.sendRtp(lastNalu, timestamp, nalu, 0, nalu.length, null);
+                    continue;
+                }
+                // FU-A分片，去掉原始NAL头
+                byte indicator = (byte) ((nalu[0] & 0xE0) | 28);
+                int type = nalu[0] & 0x1F;
+                for (int offset = 1; offset < nalu.length; offset += MAX_PAYLOAD_SIZE - 2) {
+                    int length = Math.min(MAX_PAYLOAD_SIZE - 2, nalu.length - offset);
+                    boolean start = offset == 1;
+                    boolean end = offset + length == nalu.length;
+                    byte fuHeader = (byte) ((start ? 0x80 : 0) | (end ? 0x40 : 0) | type);
+                    this.sendRtp(lastNalu && end, timestamp, nalu, offset, length, new byte[]{indicator, fuHeader});
+                }
+            }
+        }
+
+        private void sendRtp(boolean marker, long timestamp, byte[] data, int offset, int length, byte[] prefix) throws IOException {
+            int prefixLength = prefix == null ? 0 : prefix.length;
+            int headerLength = this.interleavedChannel < 0 ? 0 : 4;
+            int rtpLength = 12 + prefixLength + length;
+            byte[] packet = new byte[headerLength + rtpLength];
+            int i = 0;
+            if (headerLength > 0) {
+                packet[i++] = '$';
+                packet[i++] = (byte) this.interleavedChannel;
+                packet[i++] = (byte) (rtpLength >> 8);
+                packet[i++] = (byte) rtpLength;
+            }
+            int seq = this.sequenceNumber++ & 0xFFFF;
+            packet[i++] = (byte) 0x80;
+            packet[i++] = (byte) ((marker ? 0x80 : 0) | PAYLOAD_TYPE);
+            packet[i++] = (byte) (seq >> 8);
+            packet[i++] = (byte) seq;
+            packet[i++] = (byte) (timestamp >> 24);
+            packet[i++] = (byte) (timestamp >> 16);
+            packet[i++] = (byte) (timestamp >> 8);
+            packet[i++] = (byte) timestamp;
+            packet[i++] = (byte) (this.ssrc >> 24);
+            packet[i++] = (byte) (this.ssrc >> 16);
+            packet[i++] = (byte) (this.ssrc >> 8);
+            packet[i++] = (byte) this.ssrc;
+            if (prefix != null) {
+                System.arraycopy(prefix, 0, packet, i, prefixLength);
+                i += prefixLength;
+            }
+            System.arraycopy(data, offset, packet, i, length);
+
+            if (this.interleavedChannel < 0) {
+                this.rtpSocket.send(new DatagramPacket(packet, packet.length, this.clientRtpAddress));
+            } else {
+                this.write(packet);
+            }
+            sentBytes.addAndGet(rtpLength);
+        }
+
+        private void reply(String cSeq, String headers, String body) throws IOException {
+            String response = "RTSP/1.0 200 OK" + CRLF + "CSeq: " + cSeq + CRLF + headers + CRLF + body;
+            // 客户端一次读取响应，头和内容必须一次写出
+            this.write(response.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private void write(byte[] data) throws IOException {
+            synchronized (this.writeLock) {
+                this.out.write(data);
+                this.out.flush();
+            }
+        }
+
+        void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            this.playing = false;
+            sessions.remove(this);
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // NOOP
+            }
+            if (this.rtpSocket != null) {
+                this.rtpSocket.close();
+                this.rtcpSocket.close();
+            }
+        }
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
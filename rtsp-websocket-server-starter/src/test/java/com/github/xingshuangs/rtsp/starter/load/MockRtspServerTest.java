@@ -0,0 +1,101 @@
+package com.github.xingshuangs.rtsp.starter.load;
+
+import com.github.xingshuangs.iot.protocol.rtsp.enums.ERtspTransportProtocol;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspClient;
+import com.github.xingshuangs.iot.protocol.rtsp.service.RtspFMp4Proxy;
+import com.github.xingshuangs.rtsp.starter.model.RtpLossCounter;
+import com.github.xingshuangs.rtsp.starter.service.RtpLossRtspClient;
+import com.github.xingshuangs.rtsp.starter.utils.Fmp4Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class MockRtspServerTest {
+
+    private final MockRtspServer server = createServer();
+
+    @AfterEach
+    void tearDown() {
+        this.server.close();
+    }
+
+    @Test
+    void playOverUdp() throws InterruptedException {
+        RtpLossCounter counter = new RtpLossCounter();
+        this.play(new RtpLossRtspClient(URI.create(this.server.getUrl("1001")), null, counter));
+        // 本机回环不丢包，收包回调在PLAY之前挂上，第一个包也能统计到
+        assertTrue(counter.getReceived() > 0);
+        assertEquals(counter.getExpected(), counter.getReceived());
+    }
+
+    @Test
+    void playOverTcp() throws InterruptedException {
+        this.play(new RtspClient(URI.create(this.server.getUrl("1001")), ERtspTransportProtocol.TCP));
+    }
+
+    @Test
+    void loadAnnexB() {
+        byte[] data = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xC0, 0x1E, 0x01,
+                0, 0, 0, 1, 0x68, (byte) 0xCE, 0x01,
+                0, 0, 1, 0x65, (byte) 0x88, 0x01,
+                0, 0, 1, 0x41, (byte) 0x9A, 0x01,
+                0, 0, 1, 0x41, 0x40, 0x01};
+        H264LoopStream stream = H264LoopStream.fromAnnexB(data, 25);
+        // 第二个P切片first_mb_in_slice不为0，归入上一帧
+        assertEquals(2, stream.getFrameCount());
+        assertEquals(3, stream.frame(0).size());
+        assertEquals(2, stream.frame(1).size());
+        assertEquals(3, stream.frame(2).size());
+        assertEquals("42C01E", stream.getProfileLevelId());
+    }
+
+    private void play(RtspClient client) throws InterruptedException {
+        RtspFMp4Proxy proxy = new RtspFMp4Proxy(client);
+        CountDownLatch codecLatch = new CountDownLatch(1);
+        // 每个片段最多5帧，8个片段跨过一轮25帧的循环
+        CountDownLatch mediaLatch = new CountDownLatch(8);
+        String[] codec = new String[1];
+        proxy.onCodecHandle(x -> {
+            codec[0] = x;
+            codecLatch.countDown();
+        });
+        proxy.onFmp4DataHandle(x -> {
+            if (Fmp4Util.isMediaSegment(x)) {
+                mediaLatch.countDown();
+            }
+        });
+
+        CompletableFuture<Void> future = proxy.start();
+        try {
+            assertTrue(codecLatch.await(5, TimeUnit.SECONDS));
+            assertEquals("avc1.42c01e", codec[0]);
+            // 循环推流和FU-A分片都能被正确解析
+            assertTrue(mediaLatch.await(10, TimeUnit.SECONDS));
+            assertEquals(1, this.server.getPlayingCount());
+        } finally {
+            proxy.stop();
+        }
+        future.join();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.server.getPlayingCount() > 0 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertEquals(0, this.server.getPlayingCount());
+    }
+
+    private static MockRtspServer createServer() {
+        try {
+            // 8KB的帧，需要FU-A分片
+            return new MockRtspServer(H264LoopStream.synthetic(640, 480, 25, 25, 8 * 1024)).start();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.xingshuangs.rtsp.starter.load;
+
+import com.github.xingshuangs.rtsp.starter.service.RtspNettyServer;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * 独立Netty服务(纯拉流节点，无servlet容器)的端到端压测，场景和输出与RtspLoadTest一致，用于对比堆内存和GC
+ * 执行：mvn test -Dtest='*RtspLoadTest' -Dload=true [-Dload.channels=4] [-Dload.subscribers=25] [-Dload.duration=30]
+ */
+@EnabledIfSystemProperty(named = "load", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {"logging.level.com.github.xingshuangs=warn", "spring.main.web-application-type=none",
+                "rtsp.netty.enabled=true", "rtsp.netty.port=0"})
+class NettyRtspLoadTest extends RtspLoadTest {
+
+    @Autowired
+    private RtspNettyServer rtspNettyServer;
+
+    @Override
+    protected String transport() {
+        return "netty";
+    }
+
+    @Override
+    protected String websocketUrl() {
+        return "ws://127.0.0.1:" + this.rtspNettyServer.getPort() + "/rtsp";
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.xingshuangs.rtsp.starter.load;
+
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * 响应式传输(Reactor Netty)的端到端压测，场景和输出与RtspLoadTest一致，用于对比传输方式
+ * 执行：mvn test -Dtest='*RtspLoadTest' -Dload=true [-Dload.channels=4] [-Dload.subscribers=25] [-Dload.duration=30]
+ */
+@EnabledIfSystemProperty(named = "load", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"logging.level.com.github.xingshuangs=warn", "spring.main.web-application-type=reactive"})
+class ReactiveRtspLoadTest extends RtspLoadTest {
+
+    @Override
+    protected String transport() {
+        return "reactive";
+    }
+}
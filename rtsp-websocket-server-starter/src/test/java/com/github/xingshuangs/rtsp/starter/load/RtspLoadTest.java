@@ -0,0 +1,306 @@
+package com.github.xingshuangs.rtsp.starter.load;
+
+import com.github.xingshuangs.rtsp.starter.model.ChannelStatus;
+import com.github.xingshuangs.rtsp.starter.service.RtspManager;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 端到端压测，本地模拟RTSP源 -> starter -> N个通道 x M个无界面websocket订阅者，全部运行在本机，无需摄像头和外部网络
+ * 统计总吞吐、每个订阅者的延迟(合成码流中写入的发送时刻到websocket收到的时间)、进程CPU和堆内存
+ * 响应式传输见ReactiveRtspLoadTest，独立Netty服务见NettyRtspLoadTest，参数相同，可直接对比
+ * 执行：mvn test -Dtest=RtspLoadTest -Dload=true [-Dload.channels=4] [-Dload.subscribers=25] [-Dload.duration=30]
+ * [-Dload.fps=25] [-Dload.frameSize=16384] [-Dload.h264=/path/to/stream.h264]
+ * 注意：CPU和内存为整个进程的统计，包含模拟RTSP源和订阅者本身的开销
+ */
+@EnabledIfSystemProperty(named = "load", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "logging.level.com.github.xingshuangs=warn")
+class RtspLoadTest {
+
+    private static final int FIRST_CHANNEL_NUMBER = 2001;
+
+    private static final int CHANNELS = Integer.getInteger("load.channels", 4);
+
+    private static final int SUBSCRIBERS = Integer.getInteger("load.subscribers", 25);
+
+    private static final int DURATION_SECONDS = Integer.getInteger("load.duration", 30);
+
+    private static final int WARMUP_SECONDS = 5;
+
+    private static MockRtspServer server;
+
+    /**
+     * 独立Netty服务的压测没有servlet容器，端口为0
+     */
+    @Value("${local.server.port:0}")
+    private int port;
+
+    @Autowired
+    private RtspManager rtspManager;
+
+    @DynamicPropertySource
+    static void rtspProperties(DynamicPropertyRegistry registry) throws Exception {
+        int fps = Integer.getInteger("load.fps", 25);
+        String file = System.getProperty("load.h264");
+        H264LoopStream stream = file == null
+                ? H264LoopStream.synthetic(1280, 720, fps, fps * 2, Integer.getInteger("load.frameSize", 16384))
+                : H264LoopStream.fromAnnexB(Paths.get(file), fps);
+        server = new MockRtspServer(stream).start();
+        for (int i = 0; i < CHANNELS; i++) {
+            String url = server.getUrl("live/" + i);
+            int number = FIRST_CHANNEL_NUMBER + i;
+            registry.add("rtsp.addresses[" + i + "].number", () -> number);
+            registry.add("rtsp.addresses[" + i + "].url", () -> url);
+        }
+    }
+
+    @AfterAll
+    static void closeServer() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void load() throws Exception {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxBinaryMessageBufferSize(8 * 1024 * 1024);
+        container.setDefaultMaxTextMessageBufferSize(64 * 1024);
+        StandardWebSocketClient client = new StandardWebSocketClient(container);
+        String url = this.websocketUrl();
+
+        // 1. 建立订阅
+        long start = System.nanoTime();
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            for (int j = 0; j < SUBSCRIBERS; j++) {
+                Subscriber subscriber = new Subscriber(FIRST_CHANNEL_NUMBER + i);
+                subscriber.session = client.doHandshake(subscriber, url).get(10, TimeUnit.SECONDS);
+                subscriber.session.sendMessage(new TextMessage("{\"type\":\"SUBSCRIBE\",\"number\":" + subscriber.channelNumber + ",\"content\":\"\"}"));
+                subscribers.add(subscriber);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (subscribers.stream().anyMatch(x -> x.firstMediaNanos == 0) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        assertTrue(subscribers.stream().allMatch(x -> x.firstMediaNanos > 0), "部分订阅者未收到视频数据");
+        long maxStartup = subscribers.stream().mapToLong(x -> x.firstMediaNanos - start).max().orElse(0);
+
+        // 2. 预热后开始统计
+        TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+        subscribers.forEach(Subscriber::reset);
+        long serverSentBytes = server.getSentBytes();
+        ResourceSampler sampler = new ResourceSampler();
+        long measureStart = System.nanoTime();
+        for (int i = 0; i < DURATION_SECONDS; i++) {
+            TimeUnit.SECONDS.sleep(1);
+            sampler.sample();
+        }
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        subscribers.forEach(x -> x.measuring = false);
+
+        // 3. 报告
+        long bytes = subscribers.stream().mapToLong(x -> x.bytes.get()).sum();
+        long messages = subscribers.stream().mapToLong(x -> x.messages.get()).sum();
+        Histogram total = new Histogram(3);
+        List<Histogram> perSubscriber = new ArrayList<>();
+        for (Subscriber subscriber : subscribers) {
+            synchronized (subscriber) {
+                total.add(subscriber.latency);
+                perSubscriber.add(subscriber.latency.copy());
+            }
+        }
+        perSubscriber.sort(Comparator.comparingLong(x -> x.getValueAtPercentile(99)));
+        long dropCount = this.rtspManager.getChannelStatuses().stream()
+                .flatMap(x -> x.getSubscribers().stream()).mapToLong(x -> x.getDropCount()).sum();
+        long reconnectCount = this.rtspManager.getChannelStatuses().stream().mapToLong(ChannelStatus::getReconnectCount).sum();
+
+        System.out.printf("transport=%s, channels=%d, subscribers/channel=%d, duration=%.1fs, startup(max)=%dms%n",
+                this.transport(), CHANNELS, SUBSCRIBERS, seconds, TimeUnit.NANOSECONDS.toMillis(maxStartup));
+        System.out.printf("rtsp in      : %.2f MB/s%n", (server.getSentBytes() - serverSentBytes) / seconds / 1024 / 1024);
+        System.out.printf("websocket out: %.2f MB/s, %.0f msg/s, dropped=%d, reconnects=%d%n",
+                bytes / seconds / 1024 / 1024, messages / seconds, dropCount, reconnectCount);
+        System.out.printf("latency ms   : p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f%n",
+                total.getValueAtPercentile(50) / 1000.0, total.getValueAtPercentile(90) / 1000.0,
+                total.getValueAtPercentile(99) / 1000.0, total.getValueAtPercentile(99.9) / 1000.0, total.getMaxValue() / 1000.0);
+        System.out.printf("p99 per subscriber ms: best=%.2f median=%.2f worst=%.2f%n",
+                perSubscriber.get(0).getValueAtPercentile(99) / 1000.0,
+                perSubscriber.get(perSubscriber.size() / 2).getValueAtPercentile(99) / 1000.0,
+                perSubscriber.get(perSubscriber.size() - 1).getValueAtPercentile(99) / 1000.0);
+        sampler.print();
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.session.close();
+        }
+        assertTrue(bytes > 0);
+    }
+
+    /**
+     * 传输方式的名称
+     *
+     * @return 名称
+     */
+    protected String transport() {
+        return "servlet";
+    }
+
+    /**
+     * websocket的访问地址
+     *
+     * @return 地址
+     */
+    protected String websocketUrl() {
+        return "ws://127.0.0.1:" + this.port + "/rtsp";
+    }
+
+    /**
+     * 无界面的订阅者，只统计收到的数据和延迟
+     */
+    private static class Subscriber extends AbstractWebSocketHandler {
+
+        private final int channelNumber;
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private final AtomicLong messages = new AtomicLong();
+
+        /**
+         * 延迟，单位微秒
+         */
+        private final Histogram latency = new Histogram(3);
+
+        private WebSocketSession session;
+
+        private volatile long firstMediaNanos;
+
+        private volatile boolean measuring;
+
+        Subscriber(int channelNumber) {
+            this.channelNumber = channelNumber;
+        }
+
+        void reset() {
+            synchronized (this) {
+                this.latency.reset();
+            }
+            this.bytes.set(0);
+            this.messages.set(0);
+            this.measuring = true;
+        }
+
+        @Override
+        protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+            long now = System.nanoTime();
+            ByteBuffer payload = message.getPayload();
+            if (this.firstMediaNanos == 0) {
+                this.firstMediaNanos = now;
+            }
+            if (!this.measuring) {
+                return;
+            }
+            this.bytes.addAndGet(payload.remaining());
+            this.messages.incrementAndGet();
+            // 前4个字节是通道编号
+            long sentNanos = H264LoopStream.findLastTimestamp(payload, payload.position() + 4, payload.limit());
+            if (sentNanos > 0) {
+                synchronized (this) {
+                    this.latency.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(now - sentNanos)));
+                }
+            }
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+            if (this.measuring) {
+                this.messages.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 进程资源采样
+     */
+    private static class ResourceSampler {
+
+        private final com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        private final ThreadMXBean thread = ManagementFactory.getThreadMXBean();
+
+        private final int processors = Runtime.getRuntime().availableProcessors();
+
+        private final long startNanos = System.nanoTime();
+
+        private final long startCpuNanos = this.os.getProcessCpuTime();
+
+        private final long startGcCount = gcCount();
+
+        private final long startGcMillis = gcMillis();
+
+        private long heapSum;
+
+        private long heapMax;
+
+        private int threadMax;
+
+        private int samples;
+
+        void sample() {
+            long used = this.memory.getHeapMemoryUsage().getUsed();
+            this.heapSum += used;
+            this.heapMax = Math.max(this.heapMax, used);
+            this.threadMax = Math.max(this.threadMax, this.thread.getThreadCount());
+            this.samples++;
+        }
+
+        void print() {
+            double wallNanos = System.nanoTime() - this.startNanos;
+            double cpu = (this.os.getProcessCpuTime() - this.startCpuNanos) / wallNanos;
+            System.out.printf("cpu          : %.0f%% of one core, %.1f%% of %d cores%n", cpu * 100, cpu * 100 / this.processors, this.processors);
+            System.out.printf("heap MB      : avg=%.1f max=%.1f, gc count=%d, gc time=%dms%n",
+                    this.heapSum / Math.max(1, this.samples) / 1024.0 / 1024, this.heapMax / 1024.0 / 1024,
+                    gcCount() - this.startGcCount, gcMillis() - this.startGcMillis);
+            System.out.printf("threads      : max=%d%n", this.threadMax);
+        }
+
+        private static long gcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+        }
+
+        private static long gcMillis() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.properties.ClusterProperties;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterRouterTest {
+
+    @Test
+    void disabledAllLocal() {
+        ClusterRouter router = new ClusterRouter(new ClusterProperties());
+        assertFalse(router.isEnabled());
+        assertNull(router.ownerOf(1001));
+        assertTrue(router.isLocal(1001));
+    }
+
+    @Test
+    void distributeEvenlyAndDeterministic() {
+        ClusterRouter router1 = createRouter("node1", "node1", "node2", "node3");
+        ClusterRouter router2 = createRouter("node2", "node1", "node2", "node3");
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            // 各节点独立计算的归属一致
+            assertEquals(router1.ownerOf(i).getId(), router2.ownerOf(i).getId());
+            assertEquals(router1.ownerOf(i).getId().equals("node1"), router1.isLocal(i));
+            assertEquals(router2.ownerOf(i).getId().equals("node2"), router2.isLocal(i));
+            counts.merge(router1.ownerOf(i).getId(), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        counts.values().forEach(x -> assertTrue(x > 700 && x < 1300, "count: " + x));
+    }
+
+    @Test
+    void rebalanceMoveMinimal() {
+        ClusterRouter router = createRouter("node1", "node1", "node2", "node3");
+        Map<Integer, String> before = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            before.put(i, router.ownerOf(i).getId());
+        }
+
+        // 新增成员，只有迁移到新成员的通道归属变化
+        router.update(createMembers("node1", "node2", "node3", "node4"));
+        int moved = 0;
+        for (int i = 0; i < 3000; i++) {
+            String owner = router.ownerOf(i).getId();
+            if (!owner.equals(before.get(i))) {
+                assertEquals("node4", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 450 && moved < 1050, "moved: " + moved);
+
+        // 移除成员，只有原属于该成员的通道归属变化
+        router.update(createMembers("node1", "node3"));
+        for (int i = 0; i < 3000; i++) {
+            if (!before.get(i).equals("node2")) {
+                assertEquals(before.get(i), router.ownerOf(i).getId());
+            }
+        }
+    }
+
+    private static ClusterRouter createRouter(String selfId, String... ids) {
+        ClusterProperties properties = new ClusterProperties();
+        properties.setEnabled(true);
+        properties.setSelfId(selfId);
+        properties.setMembers(createMembers(ids));
+        return new ClusterRouter(properties);
+    }
+
+    private static List<ClusterMember> createMembers(String... ids) {
+        List<ClusterMember> members = new ArrayList<>();
+        Arrays.stream(ids).forEach(x -> members.add(ClusterMember.of(x, "ws://127.0.0.1/" + x)));
+        return members;
+    }
+}
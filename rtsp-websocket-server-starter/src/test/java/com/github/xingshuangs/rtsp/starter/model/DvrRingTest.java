@@ -0,0 +1,86 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DvrRingTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void seekKeyFrameAndReadInTime() throws Exception {
+        DvrRing ring = new DvrRing(this.directory, 4096, 4);
+        // 预分配固定大小的分段文件
+        assertEquals(4096, Files.size(this.directory.resolve("segment-3.dat")));
+        assertNull(ring.seek(0));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.append(data(i, 100), i % 5 == 0, 1000 + i * 100L));
+        }
+        assertEquals(2, ring.getKeyFrameCount());
+        assertEquals(900, ring.getDuration());
+
+        // 定位到之前最近的关键帧
+        DvrRing.Cursor cursor = ring.seek(1700);
+        assertEquals(1500, cursor.getTime());
+        // 只读取已到时间的记录
+        assertEquals(5, ring.read(cursor, 1600)[0]);
+        assertEquals(6, ring.read(cursor, 1600)[0]);
+        assertNull(ring.read(cursor, 1600));
+        for (int i = 7; i < 10; i++) {
+            assertEquals(i, ring.read(cursor, Long.MAX_VALUE)[0]);
+        }
+        // 读到最新位置后等待新的数据
+        assertNull(ring.read(cursor, Long.MAX_VALUE));
+        ring.append(data(10, 100), false, 2000);
+        assertEquals(10, ring.read(cursor, Long.MAX_VALUE)[0]);
+        assertTrue(cursor.isValid());
+
+        // 早于最旧的数据则从最旧的关键帧开始
+        assertEquals(1000, ring.seek(0).getTime());
+        // 超过分段大小的数据忽略
+        assertFalse(ring.append(new byte[4096], true, 3000));
+    }
+
+    @Test
+    void overwriteOldestSegment() throws Exception {
+        DvrRing ring = new DvrRing(this.directory, 1024, 3);
+        // 每个分段可写3条记录，第一个关键帧之后跨分段连续读取
+        for (int i = 0; i < 6; i++) {
+            ring.append(data(i, 300), i % 3 == 0, i * 100L);
+        }
+        DvrRing.Cursor cursor = ring.seek(0);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, ring.read(cursor, Long.MAX_VALUE)[0]);
+        }
+
+        // 写满后覆盖最旧的分段，其关键帧索引被丢弃，读取位置失效
+        DvrRing.Cursor oldest = ring.seek(0);
+        for (int i = 6; i < 12; i++) {
+            ring.append(data(i, 300), i % 3 == 0, i * 100L);
+        }
+        assertNull(ring.read(oldest, Long.MAX_VALUE));
+        assertFalse(oldest.isValid());
+        assertEquals(300, ring.seek(0).getTime());
+        assertEquals(3, ring.getKeyFrameCount());
+
+        // 重置后之前的读取位置全部失效
+        DvrRing.Cursor latest = ring.seek(Long.MAX_VALUE);
+        ring.reset();
+        assertNull(ring.read(latest, Long.MAX_VALUE));
+        assertFalse(latest.isValid());
+        assertNull(ring.seek(Long.MAX_VALUE));
+    }
+
+    private static byte[] data(int tag, int length) {
+        byte[] data = new byte[length];
+        data[0] = (byte) tag;
+        return data;
+    }
+}
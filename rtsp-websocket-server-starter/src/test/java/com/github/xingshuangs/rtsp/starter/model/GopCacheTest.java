@@ -0,0 +1,69 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.xingshuangs.rtsp.starter.utils.Fmp4UtilTest.createMediaSegment;
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class GopCacheTest {
+
+    @Test
+    void cacheSinceLastKeyFrame() {
+        GopCacheBudget budget = new GopCacheBudget(1024 * 1024);
+        GopCache gopCache = new GopCache(1024 * 1024, budget);
+        // 没有关键帧之前不缓存
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(false, 100)));
+        assertEquals(0, gopCache.getFrameCount());
+
+        Fmp4Frame keyFrame = Fmp4Frame.create(1001, createMediaSegment(true, 100));
+        gopCache.add(keyFrame);
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(false, 100)));
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(false, 100)));
+        assertEquals(3, gopCache.getFrameCount());
+        assertEquals(gopCache.getBytes(), budget.getUsedBytes());
+
+        List<Fmp4Frame> frames = new ArrayList<>();
+        gopCache.forEach(frames::add);
+        assertSame(keyFrame, frames.get(0));
+
+        // 新的关键帧重新开始缓存
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(true, 100)));
+        assertEquals(1, gopCache.getFrameCount());
+        assertEquals(gopCache.getBytes(), budget.getUsedBytes());
+    }
+
+    @Test
+    void dropGopOverChannelLimit() {
+        GopCacheBudget budget = new GopCacheBudget(1024 * 1024);
+        GopCache gopCache = new GopCache(500, budget);
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(true, 100)));
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(false, 100)));
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(false, 100)));
+        assertEquals(0, gopCache.getFrameCount());
+        assertEquals(0, budget.getUsedBytes());
+
+        // 超出上限后，直到下一个关键帧才恢复缓存
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(false, 10)));
+        assertEquals(0, gopCache.getFrameCount());
+        gopCache.add(Fmp4Frame.create(1001, createMediaSegment(true, 10)));
+        assertEquals(1, gopCache.getFrameCount());
+    }
+
+    @Test
+    void dropGopOverGlobalLimit() {
+        GopCacheBudget budget = new GopCacheBudget(500);
+        GopCache gopCache1 = new GopCache(1024 * 1024, budget);
+        GopCache gopCache2 = new GopCache(1024 * 1024, budget);
+        gopCache1.add(Fmp4Frame.create(1001, createMediaSegment(true, 300)));
+        gopCache2.add(Fmp4Frame.create(1002, createMediaSegment(true, 300)));
+        assertEquals(1, gopCache1.getFrameCount());
+        assertEquals(0, gopCache2.getFrameCount());
+
+        gopCache1.clear();
+        assertEquals(0, budget.getUsedBytes());
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static com.github.xingshuangs.rtsp.starter.utils.Fmp4UtilTest.createMediaSegment;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class HttpStreamConnectionTest {
+
+    private static final byte[] HEADER = new byte[]{0x00, 0x00, 0x00, 0x08, 'f', 't', 'y', 'p'};
+
+    @Test
+    void writeHeaderThenMediaWhenReady() throws Exception {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        ServletOutputStream outputStream = mockOutputStream(received);
+        AsyncContext asyncContext = mockAsyncContext(outputStream);
+        HttpStreamConnection connection = new HttpStreamConnection(new HttpStreamSink(asyncContext), Runnable::run, new WebsocketProperties());
+        byte[] keyFrame = createMediaSegment(true, 100);
+
+        // 视频头之前的媒体片段丢弃，文本消息忽略
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, keyFrame)));
+        connection.sendMessage(new TextMessage("codec"));
+        assertEquals(0, connection.getSendQueueSize());
+
+        // 容器回调可写之前只入队，不写出
+        when(outputStream.isReady()).thenReturn(false);
+        assertTrue(connection.sendFrame(Fmp4Frame.create(1001, HEADER)));
+        assertTrue(connection.sendFrame(Fmp4Frame.create(1001, keyFrame)));
+        assertEquals(2, connection.getSendQueueSize());
+        verify(outputStream, never()).write(any(byte[].class), anyInt(), anyInt());
+
+        // 可写后写出，响应体只有视频数据，不含视频通道编号
+        connection.onWritePossible();
+        assertEquals(2, connection.getSendQueueSize());
+        when(outputStream.isReady()).thenReturn(true);
+        connection.onWritePossible();
+        assertEquals(0, connection.getSendQueueSize());
+        verify(outputStream).flush();
+        byte[] expected = Arrays.copyOf(HEADER, HEADER.length + keyFrame.length);
+        System.arraycopy(keyFrame, 0, expected, HEADER.length, keyFrame.length);
+        assertArrayEquals(expected, received.toByteArray());
+        assertEquals(expected.length, connection.getSentBytes().get());
+
+        // 重复的视频头不再发送，视频头变化后结束响应
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, HEADER)));
+        assertEquals(0, connection.getSendQueueSize());
+        verify(asyncContext, never()).complete();
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, new byte[]{0x00, 0x00, 0x00, 0x09, 'f', 't', 'y', 'p', 0x01})));
+        verify(asyncContext).complete();
+        assertFalse(connection.getSink().isOpen());
+    }
+
+    @Test
+    void completeWhenChannelRemoved() throws Exception {
+        AsyncContext asyncContext = mockAsyncContext(mockOutputStream(new ByteArrayOutputStream()));
+        HttpStreamConnection connection = new HttpStreamConnection(new HttpStreamSink(asyncContext), Runnable::run, new WebsocketProperties());
+        connection.addChannelNumber(1001);
+
+        assertNull(connection.removeChannelNumber(1002));
+        verify(asyncContext, never()).complete();
+        assertEquals(RtspAddress.DEFAULT_VARIANT, connection.removeChannelNumber(1001));
+        verify(asyncContext).complete();
+        connection.getSink().close(CloseStatus.NORMAL);
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    void completeOnWriteError() throws Exception {
+        AsyncContext asyncContext = mockAsyncContext(mockOutputStream(new ByteArrayOutputStream()));
+        HttpStreamConnection connection = new HttpStreamConnection(new HttpStreamSink(asyncContext), Runnable::run, new WebsocketProperties());
+        connection.sendFrame(Fmp4Frame.create(1001, HEADER));
+
+        // 写出失败后结束异步请求，容器不再转发到错误页面
+        connection.onError(new IOException("Broken pipe"));
+        verify(asyncContext).complete();
+        assertFalse(connection.getSink().isOpen());
+        assertEquals(0, connection.getSendQueueSize());
+    }
+
+    @Test
+    void drainLimitedPerTask() throws Exception {
+        ServletOutputStream outputStream = mockOutputStream(new ByteArrayOutputStream());
+        when(outputStream.isReady()).thenReturn(true);
+        Deque<Runnable> tasks = new ArrayDeque<>();
+        HttpStreamConnection connection = new HttpStreamConnection(new HttpStreamSink(mockAsyncContext(outputStream)), tasks::add, new WebsocketProperties());
+        byte[] frame = createMediaSegment(false, 100);
+        connection.sendFrame(Fmp4Frame.create(1001, HEADER));
+        for (int i = 0; i < 100; i++) {
+            connection.sendFrame(Fmp4Frame.create(1001, frame));
+        }
+        assertEquals(101, connection.getSendQueueSize());
+        assertTrue(tasks.isEmpty());
+
+        // 单次调度写出的数量有上限，剩余的重新调度
+        connection.onWritePossible();
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        assertEquals(101 - WebsocketConnection.MAX_SEND_BATCH, connection.getSendQueueSize());
+        verify(outputStream).flush();
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        assertEquals(0, connection.getSendQueueSize());
+        assertTrue(tasks.isEmpty());
+    }
+
+    private static ServletOutputStream mockOutputStream(ByteArrayOutputStream received) throws Exception {
+        ServletOutputStream outputStream = mock(ServletOutputStream.class);
+        doAnswer(x -> {
+            received.write(x.getArgument(0), x.getArgument(1), x.getArgument(2));
+            return null;
+        }).when(outputStream).write(any(byte[].class), anyInt(), anyInt());
+        return outputStream;
+    }
+
+    private static AsyncContext mockAsyncContext(ServletOutputStream outputStream) throws Exception {
+        ServletResponse response = mock(ServletResponse.class);
+        when(response.getOutputStream()).thenReturn(outputStream);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/stream/1001");
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(asyncContext.getResponse()).thenReturn(response);
+        when(asyncContext.getRequest()).thenReturn(request);
+        return asyncContext;
+    }
+}
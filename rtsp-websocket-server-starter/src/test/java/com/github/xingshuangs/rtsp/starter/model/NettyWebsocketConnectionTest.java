@@ -0,0 +1,116 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+
+
+import static com.github.xingshuangs.rtsp.starter.utils.Fmp4UtilTest.createMediaSegment;
+import static org.junit.jupiter.api.Assertions.*;
+
+class NettyWebsocketConnectionTest {
+
+    @Test
+    void shareDirectBufferAcrossSubscribers() {
+        EmbeddedChannel channel1 = new EmbeddedChannel();
+        EmbeddedChannel channel2 = new EmbeddedChannel();
+        NettyWebsocketConnection connection1 = createConnection(channel1);
+        NettyWebsocketConnection connection2 = createConnection(channel2);
+        byte[] data = createMediaSegment(true, 2000);
+        Fmp4Frame frame = Fmp4Frame.create(1001, data);
+
+        connection1.sendMessage(new TextMessage("codec"));
+        connection1.sendFrame(frame);
+        connection2.sendFrame(frame);
+        frame.releaseDirectBuffer();
+        channel1.runPendingTasks();
+        channel2.runPendingTasks();
+
+        TextWebSocketFrame text = channel1.readOutbound();
+        assertEquals("codec", text.text());
+        text.release();
+        BinaryWebSocketFrame binary1 = channel1.readOutbound();
+        BinaryWebSocketFrame binary2 = channel2.readOutbound();
+        // 两个订阅者共享同一份直接内存，视频通道编号和视频数据是两个组件
+        ByteBuf shared = binary1.content().unwrap();
+        assertSame(shared, binary2.content().unwrap());
+        assertTrue(shared.isDirect());
+        assertEquals(2, shared.refCnt());
+        assertEquals(1001, binary1.content().readInt());
+        assertEquals(data.length, binary1.content().readableBytes());
+        assertEquals(4 + data.length, binary2.content().readableBytes());
+        assertEquals(4 + data.length, connection1.getSentBytes().get() - 5);
+        binary1.release();
+        assertEquals(1, shared.refCnt());
+        binary2.release();
+        assertEquals(0, shared.refCnt());
+
+        // 共享数据释放后再发送(GOP缓存回放)，单独申请一份
+        connection1.sendFrame(frame);
+        channel1.runPendingTasks();
+        BinaryWebSocketFrame replay = channel1.readOutbound();
+        assertEquals(1, replay.content().refCnt());
+        replay.release();
+    }
+
+    @Test
+    void shareCachedDirectBufferOnReplay() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NettyWebsocketConnection connection = createConnection(channel);
+        Fmp4Frame frame = Fmp4Frame.create(1001, createMediaSegment(true, 100));
+        GopCache gopCache = new GopCache(1024 * 1024, new GopCacheBudget(1024 * 1024));
+        gopCache.add(frame);
+
+        connection.sendFrame(frame);
+        frame.releaseDirectBuffer();
+        channel.runPendingTasks();
+        BinaryWebSocketFrame live = channel.readOutbound();
+        ByteBuf shared = live.content().unwrap();
+        live.release();
+        // GOP缓存持有共享的直接内存，回放时不再申请
+        assertEquals(1, shared.refCnt());
+        gopCache.forEach(connection::sendFrame);
+        channel.runPendingTasks();
+        BinaryWebSocketFrame replay = channel.readOutbound();
+        assertSame(shared, replay.content().unwrap());
+        replay.release();
+
+        // 移出缓存后释放
+        gopCache.clear();
+        assertEquals(0, shared.refCnt());
+    }
+
+    @Test
+    void releaseUnsentFramesOnClose() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NettyWebsocketConnection connection = createConnection(channel);
+        Fmp4Frame frame = Fmp4Frame.create(1001, createMediaSegment(true, 100));
+
+        // 通道不可写时不写出，数据帧在发送队列中等待
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        connection.sendFrame(frame);
+        ByteBuf shared = frame.retainedDirectBuffer(channel.alloc()).unwrap();
+        shared.release();
+        frame.releaseDirectBuffer();
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(1, connection.getSendQueueSize());
+        assertEquals(1, shared.refCnt());
+
+        // 未发送的数据帧在连接关闭时释放
+        channel.close();
+        connection.onClosed();
+        assertEquals(0, connection.getSendQueueSize());
+        assertEquals(0, shared.refCnt());
+        connection.sendFrame(frame);
+        assertEquals(0, connection.getSendQueueSize());
+    }
+
+    private static NettyWebsocketConnection createConnection(EmbeddedChannel channel) {
+        return new NettyWebsocketConnection(new NettyWebsocketSink(channel), new WebsocketProperties());
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.enums.EOverflowPolicy;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static com.github.xingshuangs.rtsp.starter.utils.Fmp4UtilTest.createMediaSegment;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ReactiveWebsocketConnectionTest {
+
+    @Test
+    void sendOnDemand() {
+        WebsocketProperties properties = new WebsocketProperties();
+        properties.setSendQueueCapacity(4);
+        properties.setOverflowPolicy(EOverflowPolicy.DROP_NEWEST);
+        ReactiveWebsocketConnection connection = new ReactiveWebsocketConnection(new ReactiveWebsocketSink(mockSession()), properties);
+        DemandSubscriber subscriber = new DemandSubscriber();
+        connection.outbound().subscribe(subscriber);
+
+        // 下游请求1条，只写出1条，其余在发送队列中积压，超过队列深度则丢弃
+        subscriber.request(1);
+        connection.sendMessage(new TextMessage("0"));
+        int length = media().getPayloadLength();
+        for (int i = 1; i <= 6; i++) {
+            connection.sendMessage(media());
+        }
+        assertEquals(1, subscriber.messages.size());
+        assertEquals(WebSocketMessage.Type.TEXT, subscriber.messages.get(0).getType());
+        assertEquals(4, connection.getSendQueueSize());
+        assertEquals(2, connection.getDropCount().get());
+        assertEquals(4 * length, connection.getPendingBytes().get());
+
+        // 下游有了新的需求后继续写出
+        subscriber.request(10);
+        assertEquals(5, subscriber.messages.size());
+        assertEquals(WebSocketMessage.Type.BINARY, subscriber.messages.get(4).getType());
+        assertEquals(length, subscriber.messages.get(4).getPayload().readableByteCount());
+        assertEquals(0, connection.getSendQueueSize());
+        assertEquals(0, connection.getPendingBytes().get());
+        assertEquals(1 + 4 * length, connection.getSentBytes().get());
+
+        // 需求未用完时直接写出
+        connection.sendMessage(new TextMessage("1"));
+        assertEquals(6, subscriber.messages.size());
+
+        connection.complete();
+        assertTrue(subscriber.completed);
+        assertFalse(connection.getSink().isOpen());
+        connection.sendMessage(new TextMessage("2"));
+        assertEquals(0, connection.getSendQueueSize());
+    }
+
+    private static BinaryMessage media() {
+        return Fmp4Frame.create(1001, createMediaSegment(false, 16)).toBinaryMessage();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WebSocketSession mockSession() {
+        DataBufferFactory factory = new DefaultDataBufferFactory();
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("1");
+        when(session.textMessage(anyString())).thenAnswer(x -> new WebSocketMessage(WebSocketMessage.Type.TEXT,
+                factory.wrap(((String) x.getArgument(0)).getBytes())));
+        when(session.binaryMessage(any())).thenAnswer(x -> new WebSocketMessage(WebSocketMessage.Type.BINARY,
+                ((Function<DataBufferFactory, DataBuffer>) x.getArgument(0)).apply(factory)));
+        return session;
+    }
+
+    /**
+     * 手动请求的订阅者
+     */
+    private static class DemandSubscriber extends BaseSubscriber<WebSocketMessage> {
+
+        private final List<WebSocketMessage> messages = new CopyOnWriteArrayList<>();
+
+        private volatile boolean completed;
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            // 不自动请求
+        }
+
+        @Override
+        protected void hookOnNext(WebSocketMessage value) {
+            this.messages.add(value);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            this.completed = true;
+        }
+    }
+}
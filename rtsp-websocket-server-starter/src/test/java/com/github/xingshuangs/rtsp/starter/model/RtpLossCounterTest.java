@@ -0,0 +1,70 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+class RtpLossCounterTest {
+
+    @Test
+    void sampleLossInWindow() {
+        RtpLossCounter counter = new RtpLossCounter();
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 != 0 || i == 0) {
+                counter.onPacket(rtp(1000 + i));
+            }
+        }
+        assertEquals(100, counter.getExpected());
+        assertEquals(91, counter.getReceived());
+        assertEquals(0.09, counter.sample(), 1e-9);
+        assertEquals(9, counter.getWindowLost());
+
+        // 新的窗口只统计新收到的包
+        for (int i = 100; i < 150; i++) {
+            counter.onPacket(rtp(1000 + i));
+        }
+        assertEquals(0, counter.sample());
+        assertEquals(50, counter.getWindowExpected());
+        assertEquals(0, counter.sample());
+        assertEquals(0, counter.getWindowExpected());
+    }
+
+    @Test
+    void sequenceWrapAndReorder() {
+        RtpLossCounter counter = new RtpLossCounter();
+        counter.onPacket(rtp(65534));
+        counter.onPacket(rtp(0));
+        // 乱序到达的包不推进最大序列号
+        counter.onPacket(rtp(65535));
+        counter.onPacket(rtp(1));
+        counter.onPacket(rtp(3));
+        assertEquals(6, counter.getExpected());
+        assertEquals(5, counter.getReceived());
+        assertEquals(1, counter.getExpected() - counter.getReceived());
+
+        // 重复包不会产生负的丢包
+        counter.sample();
+        counter.onPacket(rtp(3));
+        assertEquals(0, counter.sample());
+        assertEquals(0, counter.getWindowLost());
+    }
+
+    @Test
+    void ignoreInvalidPacket() {
+        RtpLossCounter counter = new RtpLossCounter();
+        counter.onPacket(new byte[4]);
+        counter.onPacket(null);
+        assertEquals(0, counter.getExpected());
+        assertEquals(0, counter.sample());
+    }
+
+    private static byte[] rtp(int sequence) {
+        byte[] data = new byte[12];
+        data[0] = (byte) 0x80;
+        data[1] = 96;
+        data[2] = (byte) (sequence >> 8);
+        data[3] = (byte) sequence;
+        return data;
+    }
+}
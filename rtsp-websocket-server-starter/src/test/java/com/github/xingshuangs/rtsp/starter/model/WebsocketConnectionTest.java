@@ -0,0 +1,398 @@
+package com.github.xingshuangs.rtsp.starter.model;
+
+import com.github.xingshuangs.rtsp.starter.enums.EOverflowPolicy;
+import com.github.xingshuangs.rtsp.starter.load.H264LoopStream;
+import com.github.xingshuangs.rtsp.starter.load.MockRtspServer;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xingshuangs.rtsp.starter.utils.Fmp4UtilTest.createMediaSegment;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+
+class WebsocketConnectionTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final CountDownLatch sendStarted = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        this.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void sendMessageNotBlockedBySlowSession() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketConnection connection = this.createConnection(session, EOverflowPolicy.DROP_OLDEST);
+
+        long start = System.currentTimeMillis();
+        connection.sendMessage(media(0));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            connection.sendMessage(media(i));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(4, connection.getSendQueueSize());
+        assertEquals(6, connection.getDropCount().get());
+    }
+
+    @Test
+    void dropOldestKeepCodecAndHeader() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketConnection connection = this.createConnection(session, EOverflowPolicy.DROP_OLDEST);
+
+        connection.sendMessage(media(0));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        BinaryMessage header = Fmp4Frame.create(1002, new byte[]{0x00, 0x00, 0x00, 0x0C, 'f', 't', 'y', 'p', 0, 0, 0, 0}).toBinaryMessage();
+        connection.sendMessage(new TextMessage("codec"));
+        connection.sendMessage(header);
+        connection.sendMessage(media(1));
+        connection.sendMessage(media(2));
+        // 丢弃最早的媒体片段，codec和视频头保留
+        connection.sendMessage(media(3));
+        connection.sendMessage(media(4));
+        assertEquals(4, connection.getSendQueueSize());
+        assertEquals(2, connection.getDropCount().get());
+        assertTrue(connection.getWaitKeyFrameChannels().containsAll(Arrays.asList(1002, 1003)));
+        verify(session, never()).close(any());
+
+        this.release.countDown();
+        verify(session, timeout(5000).times(5)).sendMessage(any());
+        verify(session).sendMessage(new TextMessage("codec"));
+        verify(session).sendMessage(header);
+        verify(session).sendMessage(media(4));
+        verify(session, never()).sendMessage(media(1));
+    }
+
+    @Test
+    void dropOldestTerminateWithoutMedia() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketConnection connection = this.createConnection(session, EOverflowPolicy.DROP_OLDEST);
+
+        connection.sendMessage(media(0));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            connection.sendMessage(new TextMessage(String.valueOf(i)));
+        }
+        // 队列中没有可丢弃的媒体片段，codec等文本消息不能丢弃，关闭连接
+        this.release.countDown();
+        verify(session, timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        assertEquals(0, connection.getDropCount().get());
+    }
+
+    @Test
+    void dropNewest() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketConnection connection = this.createConnection(session, EOverflowPolicy.DROP_NEWEST);
+
+        connection.sendMessage(media(0));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 10; i++) {
+            connection.sendMessage(media(i));
+        }
+        this.release.countDown();
+        verify(session, timeout(5000).times(5)).sendMessage(any());
+        verify(session).sendMessage(media(4));
+        verify(session, never()).sendMessage(media(5));
+        assertEquals(6, connection.getDropCount().get());
+    }
+
+    @Test
+    void terminate() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketConnection connection = this.createConnection(session, EOverflowPolicy.TERMINATE);
+
+        connection.sendMessage(new TextMessage("0"));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++) {
+            connection.sendMessage(new TextMessage(String.valueOf(i)));
+        }
+        this.release.countDown();
+        verify(session, timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void stalledSessionsNotBlockHealthySession() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            WebsocketProperties properties = new WebsocketProperties();
+            properties.setSendTimeLimit(200);
+            // 慢速连接的异步发送一直不完成
+            List<WebSocketSession> stalledSessions = new ArrayList<>();
+            List<WebsocketConnection> stalled = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                WebSocketSession session = asyncSession("stalled" + i, (payload, handler) -> {
+                });
+                stalledSessions.add(session);
+                stalled.add(new WebsocketConnection(session, pool, properties));
+            }
+            CountDownLatch received = new CountDownLatch(10);
+            WebsocketConnection healthy = new WebsocketConnection(asyncSession("healthy", (payload, handler) -> {
+                received.countDown();
+                handler.onResult(new SendResult());
+            }), pool, properties);
+
+            for (int i = 0; i < 10; i++) {
+                for (WebsocketConnection connection : stalled) {
+                    connection.sendMessage(media(i));
+                }
+                healthy.sendMessage(media(i));
+            }
+            // 发送线程不阻塞在慢速连接上，健康的连接照常收到全部消息
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertEquals(0, healthy.getSendQueueSize());
+            stalled.forEach(x -> assertEquals(9, x.getSendQueueSize()));
+
+            // 超过发送时间上限后，慢速连接在下次发送时被关闭
+            TimeUnit.MILLISECONDS.sleep(300);
+            stalled.forEach(x -> x.sendMessage(media(10)));
+            for (WebSocketSession session : stalledSessions) {
+                verify(session, timeout(5000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void releaseMessageEnqueuedAfterClose() {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("1");
+        // 入队前的检查通过，入队时连接已关闭并清空了发送队列
+        when(session.isOpen()).thenReturn(true, false);
+        WebsocketConnection connection = new WebsocketConnection(session, x -> {
+        }, new WebsocketProperties());
+
+        connection.sendMessage(media(0));
+        assertEquals(0, connection.getSendQueueSize());
+        assertEquals(0, connection.getPendingBytes().get());
+    }
+
+    @Test
+    void catchUpNotDroppedByHighWaterMark() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketProperties properties = new WebsocketProperties();
+        properties.setHighWaterMark(300);
+        WebsocketConnection connection = new WebsocketConnection(session, this.executor, properties);
+
+        // 补发的GOP缓存超过高水位也全部放入发送队列
+        assertTrue(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(true, 100)), true));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 6; i++) {
+            assertTrue(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(false, 100)), true));
+        }
+        assertEquals(0, connection.getDropCount().get());
+        // 之后实时的数据帧仍按高水位丢帧
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(false, 100))));
+
+        this.release.countDown();
+        verify(session, timeout(5000).times(7)).sendMessage(any());
+        assertEquals(1, connection.getDropCount().get());
+    }
+
+    @Test
+    void dropFramesUntilKeyFrame() throws Exception {
+        WebSocketSession session = this.blockingSession();
+        WebsocketProperties properties = new WebsocketProperties();
+        properties.setHighWaterMark(300);
+        WebsocketConnection connection = new WebsocketConnection(session, this.executor, properties);
+
+        Fmp4Frame k1 = Fmp4Frame.create(1001, createMediaSegment(true, 100));
+        Fmp4Frame p1 = Fmp4Frame.create(1001, createMediaSegment(false, 100));
+        assertTrue(connection.sendFrame(k1));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(connection.sendFrame(p1));
+        // 超过高水位，丢弃直到下一个关键帧
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(false, 100))));
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(false, 100))));
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(true, 100))));
+        // 视频头不受影响
+        assertTrue(connection.sendFrame(Fmp4Frame.create(1002, new byte[16])));
+
+        this.release.countDown();
+        verify(session, timeout(5000).times(3)).sendMessage(any());
+        while (connection.getPendingBytes().get() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertFalse(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(false, 100))));
+        assertTrue(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(true, 100))));
+        assertTrue(connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(false, 100))));
+        verify(session, timeout(5000).times(5)).sendMessage(any());
+        assertEquals(4, connection.getDropCount().get());
+    }
+
+    @Test
+    void resumeOnIdrOfProxyOutput() throws Exception {
+        List<Fmp4Frame> frames = new ArrayList<>();
+        try (MockRtspServer server = new MockRtspServer(H264LoopStream.synthetic(320, 240, 100, 20, 1024)).start()) {
+            for (byte[] data : server.recordFragments(12)) {
+                frames.add(Fmp4Frame.create(1001, data));
+            }
+        }
+        List<Fmp4Frame> media = frames.subList(1, frames.size());
+        int first = 0;
+        while (!media.get(first).isKeyFrame()) {
+            first++;
+        }
+        WebSocketSession session = this.blockingSession();
+        WebsocketProperties properties = new WebsocketProperties();
+        properties.setHighWaterMark(1);
+        WebsocketConnection connection = new WebsocketConnection(session, this.executor, properties);
+
+        assertTrue(connection.sendFrame(frames.get(0)));
+        assertTrue(this.sendStarted.await(5, TimeUnit.SECONDS));
+        // 超过高水位开始丢帧
+        assertFalse(connection.sendFrame(media.get(first)));
+        this.release.countDown();
+        while (connection.getPendingBytes().get() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        properties.setHighWaterMark(Integer.MAX_VALUE);
+        // 代理输出的P帧片段同样标记了同步sample，只有IDR片段才能恢复发送
+        boolean resumed = false;
+        int dropped = 0;
+        for (Fmp4Frame frame : media.subList(first + 1, media.size())) {
+            resumed |= frame.isKeyFrame();
+            assertEquals(resumed, connection.sendFrame(frame));
+            if (!resumed) {
+                dropped++;
+            }
+        }
+        assertTrue(resumed);
+        assertTrue(dropped >= 2);
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    void batchFramesOfMultipleChannels() throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("1");
+        when(session.isOpen()).thenReturn(true);
+        WebsocketProperties properties = new WebsocketProperties();
+        properties.setBatchMaxBytes(1024);
+        WebsocketConnection connection = new WebsocketConnection(session, Runnable::run, properties);
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        assertEquals(200, connection.enableBatch(1000, scheduler));
+
+        // 攒批间隔内的数据帧合并为一个二进制消息，只调度一次定时发送
+        connection.sendFrame(Fmp4Frame.create(1001, new byte[16]));
+        connection.sendFrame(Fmp4Frame.create(1002, createMediaSegment(true, 100)));
+        connection.sendFrame(Fmp4Frame.create(1003, createMediaSegment(true, 100)));
+        verify(session, never()).sendMessage(any());
+        ArgumentCaptor<Runnable> flushCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(flushCaptor.capture(), eq(200L), eq(TimeUnit.MILLISECONDS));
+        flushCaptor.getValue().run();
+        ArgumentCaptor<WebSocketMessage> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(session).sendMessage(captor.capture());
+        ByteBuffer payload = ((BinaryMessage) captor.getValue()).getPayload();
+        assertEquals(Fmp4FrameBatch.BATCH_MARKER, payload.getInt(0));
+        assertEquals(1001, payload.getInt(4));
+        assertEquals(16, payload.getInt(8));
+        List<Integer> numbers = new ArrayList<>();
+        Fmp4FrameBatch.foreachChannelNumber(payload, numbers::add);
+        assertEquals(Arrays.asList(1001, 1002, 1003), numbers);
+
+        // 文本消息先发送攒批中的数据帧，单个数据帧保持原有格式
+        connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(true, 100)));
+        connection.sendMessage(new TextMessage("codec"));
+        verify(session, times(3)).sendMessage(captor.capture());
+        assertEquals(1001, ((BinaryMessage) captor.getAllValues().get(2)).getPayload().getInt(0));
+        assertEquals(new TextMessage("codec"), captor.getAllValues().get(3));
+
+        // 达到字节数上限立即发送
+        for (int i = 0; i < 5; i++) {
+            connection.sendFrame(Fmp4Frame.create(1001 + i, new byte[300]));
+        }
+        verify(session, times(4)).sendMessage(any());
+
+        // 关闭批量发送，攒批中的数据帧立即发送，之后逐帧发送
+        connection.disableBatch();
+        verify(session, times(5)).sendMessage(any());
+        connection.sendFrame(Fmp4Frame.create(1001, createMediaSegment(true, 100)));
+        verify(session, times(6)).sendMessage(any());
+        assertFalse(connection.isBatchEnabled());
+    }
+
+    /**
+     * 视频通道编号为1001+index的媒体片段消息
+     */
+    private static BinaryMessage media(int index) {
+        return Fmp4Frame.create(1001 + index, createMediaSegment(false, 16)).toBinaryMessage();
+    }
+
+    private WebSocketSession blockingSession() throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("1");
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(x -> {
+            this.sendStarted.countDown();
+            this.release.await();
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    /**
+     * 创建使用容器异步发送的会话
+     *
+     * @param id     会话编号
+     * @param sender 异步发送的处理
+     * @return 会话
+     */
+    private static WebSocketSession asyncSession(String id, AsyncSender sender) {
+        RemoteEndpoint.Async async = mock(RemoteEndpoint.Async.class);
+        doAnswer(x -> {
+            sender.send(x.getArgument(0), x.getArgument(1));
+            return null;
+        }).when(async).sendBinary(any(ByteBuffer.class), any(SendHandler.class));
+        Session nativeSession = mock(Session.class);
+        when(nativeSession.getUserProperties()).thenReturn(new HashMap<>());
+        when(nativeSession.getAsyncRemote()).thenReturn(async);
+        WebSocketSession session = mock(WebSocketSession.class, withSettings().extraInterfaces(NativeWebSocketSession.class));
+        when(((NativeWebSocketSession) session).getNativeSession()).thenReturn(nativeSession);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        return session;
+    }
+
+    private interface AsyncSender {
+
+        void send(ByteBuffer payload, SendHandler handler);
+    }
+
+    private WebsocketConnection createConnection(WebSocketSession session, EOverflowPolicy policy) {
+        WebsocketProperties properties = new WebsocketProperties();
+        properties.setSendQueueCapacity(4);
+        properties.setOverflowPolicy(policy);
+        return new WebsocketConnection(session, this.executor, properties);
+    }
+}
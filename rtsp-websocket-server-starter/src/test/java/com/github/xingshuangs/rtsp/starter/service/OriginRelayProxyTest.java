@@ -0,0 +1,127 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import com.github.xingshuangs.rtsp.starter.RtspWebsocketServerStarterApplication;
+import com.github.xingshuangs.rtsp.starter.load.H264LoopStream;
+import com.github.xingshuangs.rtsp.starter.load.MockRtspServer;
+import com.github.xingshuangs.rtsp.starter.model.ChannelStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本机启动源节点和边缘节点，边缘节点的多个订阅者共享一条到源节点的连接，摄像头只被源节点拉取一次
+ */
+class OriginRelayProxyTest {
+
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    private MockRtspServer server;
+
+    @AfterEach
+    void tearDown() {
+        this.contexts.forEach(ConfigurableApplicationContext::close);
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    @Test
+    void relayFromOrigin() throws Exception {
+        this.server = new MockRtspServer(H264LoopStream.synthetic(640, 368, 25, 50, 4096)).start();
+        int originPort = freePort();
+        int edgePort = freePort();
+        RtspManager origin = this.startNode("--server.port=" + originPort);
+        RtspManager edge = this.startNode("--server.port=" + edgePort,
+                "--rtsp.edge.enabled=true",
+                "--rtsp.edge.origin-url=ws://127.0.0.1:" + originPort + "/rtsp");
+
+        // 边缘节点的两个订阅者都收到codec和数据帧
+        List<Subscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Subscriber subscriber = new Subscriber();
+            subscriber.session = this.connect("ws://127.0.0.1:" + edgePort + "/rtsp", subscriber);
+            subscriber.session.sendMessage(new TextMessage("{\"type\":\"SUBSCRIBE\",\"number\":9001,\"content\":\"\"}"));
+            subscribers.add(subscriber);
+        }
+        for (Subscriber subscriber : subscribers) {
+            assertTrue(subscriber.frames.await(10, TimeUnit.SECONDS));
+            assertTrue(subscriber.texts.stream().anyMatch(x -> x.contains("\"type\":\"SUBSCRIBE\"")));
+        }
+
+        // 摄像头只有一个rtsp会话，源节点只有边缘节点一个订阅者
+        assertEquals(1, this.server.getPlayingCount());
+        assertEquals(1, origin.getSubscriberCount(9001));
+        assertEquals(2, edge.getSubscriberCount(9001));
+        ChannelStatus status = edge.getChannelStatuses().get(0);
+        assertTrue(status.isStreaming());
+        assertEquals("ws://127.0.0.1:" + originPort + "/rtsp", status.getOrigin());
+        assertNull(origin.getChannelStatuses().get(0).getOrigin());
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.session.close();
+        }
+    }
+
+    private RtspManager startNode(String... args) {
+        List<String> list = new ArrayList<>();
+        list.add("--logging.level.com.github.xingshuangs=warn");
+        list.add("--rtsp.addresses[0].number=9001");
+        list.add("--rtsp.addresses[0].url=" + this.server.getUrl("live/0"));
+        list.addAll(Arrays.asList(args));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(RtspWebsocketServerStarterApplication.class)
+                .run(list.toArray(new String[0]));
+        this.contexts.add(context);
+        return context.getBean(RtspManager.class);
+    }
+
+    private WebSocketSession connect(String url, Subscriber subscriber) throws Exception {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxBinaryMessageBufferSize(1024 * 1024);
+        return new StandardWebSocketClient(container).doHandshake(subscriber, url).get(5, TimeUnit.SECONDS);
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class Subscriber extends AbstractWebSocketHandler {
+
+        private final BlockingQueue<String> texts = new LinkedBlockingQueue<>();
+
+        private final CountDownLatch frames = new CountDownLatch(10);
+
+        private WebSocketSession session;
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+            this.texts.add(message.getPayload());
+        }
+
+        @Override
+        protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+            assertEquals(9001, message.getPayload().getInt(0));
+            this.frames.countDown();
+        }
+    }
+}
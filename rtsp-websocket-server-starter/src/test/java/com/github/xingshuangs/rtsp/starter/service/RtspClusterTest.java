@@ -0,0 +1,137 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import com.github.xingshuangs.rtsp.starter.RtspWebsocketServerStarterApplication;
+import com.github.xingshuangs.rtsp.starter.model.ChannelStatus;
+import com.github.xingshuangs.rtsp.starter.model.ClusterMember;
+import com.github.xingshuangs.rtsp.starter.model.RtspConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 本机启动两个节点组成集群，订阅其他节点的通道时重定向到所属节点
+ */
+class RtspClusterTest {
+
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    /**
+     * 只建立连接不应答的rtsp服务端，握手在测试期间保持进行中，rtsp连接不会因连接失败被提前移除
+     */
+    private ServerSocket silentRtspServer;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        this.contexts.forEach(ConfigurableApplicationContext::close);
+        if (this.silentRtspServer != null) {
+            this.silentRtspServer.close();
+        }
+    }
+
+    @Test
+    void redirectToOwnerNode() throws Exception {
+        int port1 = freePort();
+        int port2 = freePort();
+        this.silentRtspServer = new ServerSocket(0);
+        RtspManager node1 = this.startNode("node1", port1, port2);
+        RtspManager node2 = this.startNode("node2", port1, port2);
+
+        // 两个节点对通道归属的计算一致
+        Integer remote = node1.getChannelStatuses().stream()
+                .filter(x -> "node2".equals(x.getOwner())).map(ChannelStatus::getNumber).findFirst().orElse(null);
+        assertNotNull(remote);
+        assertTrue(node1.isRemoteChannel(remote));
+        assertFalse(node2.isRemoteChannel(remote));
+
+        // 向node1订阅node2的通道，重定向到node2后订阅成功
+        String subscribe = "{\"type\":\"SUBSCRIBE\",\"number\":" + remote + ",\"content\":\"\"}";
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        WebSocketSession session1 = this.connect("ws://127.0.0.1:" + port1 + "/rtsp", received);
+        session1.sendMessage(new TextMessage(subscribe));
+        String redirect = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(redirect);
+        assertTrue(redirect.contains("\"type\":\"REDIRECT\""));
+        assertTrue(redirect.contains("ws://127.0.0.1:" + port2 + "/rtsp"));
+
+        WebSocketSession session2 = this.connect("ws://127.0.0.1:" + port2 + "/rtsp", received);
+        session2.sendMessage(new TextMessage(subscribe));
+        String reply = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertFalse(reply.contains("REDIRECT"));
+        // 回复在rtsp连接map的compute内下发，可能早于rtsp连接放入map
+        assertNotNull(waitRtspConnection(node2, remote));
+        assertNull(node1.getRtspConnection(remote));
+
+        // node2下线，通道归属node1，node2上的订阅者被重定向到node1
+        node2.updateClusterMembers(Collections.singletonList(node1.getClusterMembers().get(0)));
+        String moved = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(moved);
+        assertTrue(moved.contains("\"type\":\"REDIRECT\""));
+        assertTrue(moved.contains("ws://127.0.0.1:" + port1 + "/rtsp"));
+        session1.close();
+        session2.close();
+    }
+
+    private RtspManager startNode(String selfId, int port1, int port2) {
+        // 与命令行启动相同，参数优先于application.yml
+        String url = "rtsp://127.0.0.1:" + this.silentRtspServer.getLocalPort() + "/live";
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(RtspWebsocketServerStarterApplication.class)
+                .run("--server.port=" + ("node1".equals(selfId) ? port1 : port2),
+                        "--logging.level.com.github.xingshuangs=warn",
+                        "--rtsp.cluster.enabled=true",
+                        "--rtsp.cluster.self-id=" + selfId,
+                        "--rtsp.cluster.members[0].id=node1",
+                        "--rtsp.cluster.members[0].url=ws://127.0.0.1:" + port1 + "/rtsp",
+                        "--rtsp.cluster.members[1].id=node2",
+                        "--rtsp.cluster.members[1].url=ws://127.0.0.1:" + port2 + "/rtsp",
+                        "--rtsp.addresses[0].number=1001",
+                        "--rtsp.addresses[0].url=" + url,
+                        "--rtsp.addresses[1].number=1002",
+                        "--rtsp.addresses[1].url=" + url,
+                        "--rtsp.addresses[2].number=1003",
+                        "--rtsp.addresses[2].url=" + url,
+                        "--rtsp.addresses[3].number=1004",
+                        "--rtsp.addresses[3].url=" + url);
+        this.contexts.add(context);
+        return context.getBean(RtspManager.class);
+    }
+
+    private WebSocketSession connect(String url, BlockingQueue<String> received) throws Exception {
+        return new StandardWebSocketClient().doHandshake(new TextWebSocketHandler() {
+            @Override
+            protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                received.add(message.getPayload());
+            }
+        }, url).get(5, TimeUnit.SECONDS);
+    }
+
+    private static RtspConnection waitRtspConnection(RtspManager manager, Integer channelNumber) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        RtspConnection rtspConnection;
+        while ((rtspConnection = manager.getRtspConnection(channelNumber)) == null && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return rtspConnection;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
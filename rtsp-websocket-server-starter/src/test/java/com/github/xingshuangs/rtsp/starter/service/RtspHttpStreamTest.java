@@ -0,0 +1,124 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import com.github.xingshuangs.rtsp.starter.RtspWebsocketServerStarterApplication;
+import com.github.xingshuangs.rtsp.starter.load.H264LoopStream;
+import com.github.xingshuangs.rtsp.starter.load.MockRtspServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.io.DataInputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * HTTP流与websocket订阅者共享同一个rtsp连接，先收到视频头再收到媒体片段
+ */
+class RtspHttpStreamTest {
+
+    private ConfigurableApplicationContext context;
+
+    private MockRtspServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (this.context != null) {
+            this.context.close();
+        }
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    @Test
+    void streamSharedWithWebsocket() throws Exception {
+        this.server = new MockRtspServer(H264LoopStream.synthetic(640, 368, 25, 50, 4096)).start();
+        int port = freePort();
+        this.context = new SpringApplicationBuilder(RtspWebsocketServerStarterApplication.class)
+                .run("--server.port=" + port,
+                        "--logging.level.com.github.xingshuangs=warn",
+                        "--rtsp.addresses[0].number=9001",
+                        "--rtsp.addresses[0].url=" + this.server.getUrl("live/0"));
+        RtspManager rtspManager = this.context.getBean(RtspManager.class);
+        RtspHttpStreamHandler handler = this.context.getBean(RtspHttpStreamHandler.class);
+
+        // 不存在的通道和码流返回404
+        assertEquals(404, open(port, "/stream/9002").getResponseCode());
+        assertEquals(404, open(port, "/stream/9001?variant=sub").getResponseCode());
+
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxBinaryMessageBufferSize(1024 * 1024);
+        CountDownLatch frames = new CountDownLatch(10);
+        WebSocketSession session = new StandardWebSocketClient(container).doHandshake(new AbstractWebSocketHandler() {
+            @Override
+            protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+                frames.countDown();
+            }
+        }, "ws://127.0.0.1:" + port + "/rtsp").get(5, TimeUnit.SECONDS);
+        session.sendMessage(new TextMessage("{\"type\":\"SUBSCRIBE\",\"number\":9001,\"content\":\"\"}"));
+
+        HttpURLConnection connection = open(port, "/stream/9001");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("video/mp4", connection.getContentType());
+        assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+        List<String> boxes = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(connection.getInputStream())) {
+            // 响应体是连续的FMP4 box
+            while (boxes.size() < 20) {
+                byte[] header = new byte[8];
+                input.readFully(header);
+                int size = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16) | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+                boxes.add(new String(header, 4, 4, StandardCharsets.US_ASCII));
+                input.readFully(new byte[size - 8]);
+            }
+            assertTrue(frames.await(10, TimeUnit.SECONDS));
+
+            // 摄像头只有一个rtsp会话，websocket和HTTP两个订阅者
+            assertEquals(1, this.server.getPlayingCount());
+            assertEquals(2, rtspManager.getSubscriberCount(9001));
+            assertEquals(1, handler.getConnectionCount());
+        }
+        assertEquals("ftyp", boxes.get(0));
+        assertEquals("moov", boxes.get(1));
+        assertEquals("moof", boxes.get(2));
+        assertEquals("mdat", boxes.get(3));
+
+        // 客户端断开后，写出失败时移除订阅
+        connection.disconnect();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (rtspManager.getSubscriberCount(9001) > 1 && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals(1, rtspManager.getSubscriberCount(9001));
+        assertEquals(0, handler.getConnectionCount());
+        session.close();
+    }
+
+    private static HttpURLConnection open(int port, String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setReadTimeout(10_000);
+        return connection;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.model.WebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import com.github.xingshuangs.rtsp.starter.properties.WebsocketProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.*;
+
+
+class RtspMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final RtspMetrics rtspMetrics = new RtspMetrics(this.registry, createProperties());
+
+    @Test
+    void recordFragment() {
+        this.rtspMetrics.recordFragment(1001, 100, TimeUnit.MILLISECONDS.toNanos(2));
+        this.rtspMetrics.recordFragment(1001, 200, TimeUnit.MILLISECONDS.toNanos(4));
+        // 未配置的通道忽略
+        this.rtspMetrics.recordFragment(9999, 200, 0);
+
+        assertEquals(2, this.registry.get("rtsp.channel.fragments").tag("channel", "1001").counter().count());
+        assertEquals(300, this.registry.get("rtsp.channel.bytes").tag("channel", "1001").counter().count());
+        assertEquals(2, this.registry.get("rtsp.channel.fanout").tag("channel", "1001").timer().count());
+        assertEquals(6, this.registry.get("rtsp.channel.fanout").tag("channel", "1001").timer().totalTime(TimeUnit.MILLISECONDS), 0.001);
+    }
+
+    @Test
+    void recordFragmentWithoutAllocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        Integer channelNumber = 1001;
+        // 预热，排除类加载和JIT编译前的干扰
+        for (int i = 0; i < 500000; i++) {
+            this.rtspMetrics.recordFragment(channelNumber, 1024, 1000);
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            this.rtspMetrics.recordFragment(channelNumber, 1024, 1000);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - start;
+        // 平均每帧远小于1个字节，即数据帧路径上不分配
+        assertTrue(allocated < 100000, "allocated " + allocated);
+    }
+
+    @Test
+    void bindAndUnbindSession() {
+        RtspProperties rtspProperties = createProperties();
+        rtspProperties.getMetrics().setSessionMetersEnabled(true);
+        RtspMetrics metrics = new RtspMetrics(this.registry, rtspProperties);
+        WebsocketConnection connection = createConnection("s1");
+        connection.getDropCount().addAndGet(3);
+
+        metrics.bindSession(connection);
+        assertEquals(3, this.registry.get("rtsp.session.dropped.frames").tag("session", "s1").functionCounter().count());
+        assertEquals(0, this.registry.get("rtsp.session.queue.depth").tag("session", "s1").gauge().value());
+
+        metrics.unbindSession(connection);
+        assertNull(this.registry.find("rtsp.session.dropped.frames").tag("session", "s1").functionCounter());
+    }
+
+    @Test
+    void sessionSummaryWithoutSessionTag() {
+        WebsocketConnection connection1 = createConnection("s1");
+        WebsocketConnection connection2 = createConnection("s2");
+        connection1.getDropCount().addAndGet(3);
+        connection2.getDropCount().addAndGet(4);
+        connection1.getSentBytes().addAndGet(100);
+
+        this.rtspMetrics.bindSession(connection1);
+        this.rtspMetrics.bindSession(connection2);
+        // 默认不注册按连接的指标
+        assertNull(this.registry.find("rtsp.session.dropped.frames").functionCounter());
+        assertEquals(2, this.registry.get("rtsp.sessions").gauge().value());
+        assertEquals(7, this.registry.get("rtsp.sessions.dropped.frames").functionCounter().count());
+
+        // 关闭的连接仍计入汇总的计数
+        this.rtspMetrics.unbindSession(connection1);
+        assertEquals(1, this.registry.get("rtsp.sessions").gauge().value());
+        assertEquals(7, this.registry.get("rtsp.sessions.dropped.frames").functionCounter().count());
+        assertEquals(100, this.registry.get("rtsp.sessions.sent.bytes").functionCounter().count());
+        assertEquals(0, this.registry.get("rtsp.sessions.queue.depth.max").gauge().value());
+    }
+
+    private static WebsocketConnection createConnection(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        return new WebsocketConnection(session, Runnable::run, new WebsocketProperties());
+    }
+
+    private static RtspProperties createProperties() {
+        RtspProperties rtspProperties = new RtspProperties();
+        RtspAddress rtspAddress = new RtspAddress();
+        rtspAddress.setNumber(1001);
+        rtspAddress.setUrl("rtsp://127.0.0.1:554/h264/ch1/main/av_stream");
+        rtspProperties.setAddresses(Collections.singletonList(rtspAddress));
+        return rtspProperties;
+    }
+}
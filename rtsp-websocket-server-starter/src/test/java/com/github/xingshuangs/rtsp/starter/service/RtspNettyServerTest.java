@@ -0,0 +1,99 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import com.github.xingshuangs.rtsp.starter.model.Fmp4Frame;
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.model.WebsocketConnection;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.xingshuangs.rtsp.starter.utils.Fmp4UtilTest.createMediaSegment;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class RtspNettyServerTest {
+
+    private RtspNettyServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (this.server != null) {
+            this.server.stop();
+        }
+    }
+
+    @Test
+    void serveRtspProtocol() throws Exception {
+        RtspProperties rtspProperties = new RtspProperties();
+        RtspAddress rtspAddress = new RtspAddress();
+        rtspAddress.setNumber(1001);
+        rtspAddress.setUrl("rtsp://127.0.0.1:554/h264/ch1/main/av_stream");
+        rtspProperties.setAddresses(Collections.singletonList(rtspAddress));
+        rtspProperties.getNetty().setEnabled(true);
+        rtspProperties.getNetty().setPort(0);
+        RtspManager rtspManager = mock(RtspManager.class);
+        this.server = new RtspNettyServer(rtspManager, rtspProperties, new RtspMetrics(new SimpleMeterRegistry(), rtspProperties));
+        this.server.start();
+        assertTrue(this.server.isRunning());
+
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxBinaryMessageBufferSize(1024 * 1024);
+        WebSocketSession session = new StandardWebSocketClient(container).doHandshake(new AbstractWebSocketHandler() {
+            @Override
+            protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+                received.add(message.getPayload());
+            }
+
+            @Override
+            protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+                ByteBuffer payload = message.getPayload();
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                received.add(bytes);
+            }
+        }, "ws://127.0.0.1:" + this.server.getPort() + "/rtsp").get(5, TimeUnit.SECONDS);
+
+        // 文本消息交给RtspManager处理
+        String subscribe = "{\"type\":\"SUBSCRIBE\",\"number\":1001,\"content\":\"\"}";
+        session.sendMessage(new TextMessage(subscribe));
+        ArgumentCaptor<WebsocketConnection> captor = ArgumentCaptor.forClass(WebsocketConnection.class);
+        verify(rtspManager, timeout(5000)).handleMessage(captor.capture(), eq(new TextMessage(subscribe)));
+        WebsocketConnection connection = captor.getValue();
+
+        // 发送文本消息和数据帧
+        byte[] data = createMediaSegment(true, 100_000);
+        Fmp4Frame frame = Fmp4Frame.create(1001, data);
+        connection.sendMessage(new TextMessage("codec"));
+        connection.sendFrame(frame);
+        frame.releaseDirectBuffer();
+        assertEquals("codec", received.poll(5, TimeUnit.SECONDS));
+        byte[] bytes = (byte[]) received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(bytes);
+        assertEquals(4 + data.length, bytes.length);
+        assertEquals(1001, ByteBuffer.wrap(bytes).getInt());
+        assertEquals(data[data.length - 1], bytes[bytes.length - 1]);
+
+        // 连接关闭后移除订阅
+        session.close();
+        verify(rtspManager, timeout(5000)).remove(connection);
+        verify(rtspManager, never()).handleMessage(any(), eq(new TextMessage("codec")));
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import com.github.xingshuangs.rtsp.starter.model.RtspAddress;
+import com.github.xingshuangs.rtsp.starter.properties.RtspProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+
+class RtspPrewarmServiceTest {
+
+    private final ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void tearDown() {
+        this.scheduledExecutor.shutdownNow();
+    }
+
+    @Test
+    void readyAfterAllPrewarmChannelsStreaming() {
+        RtspProperties rtspProperties = new RtspProperties();
+        rtspProperties.setAddresses(Arrays.asList(createAddress(1001, true), createAddress(1002, true), createAddress(1003, false)));
+        RtspManager rtspManager = mock(RtspManager.class);
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        RtspPrewarmService service = new RtspPrewarmService(rtspManager, rtspProperties, publisher, this.scheduledExecutor);
+
+        service.run(null);
+        verify(rtspManager).prewarm(1001);
+        verify(rtspManager).prewarm(1002);
+        verify(rtspManager, never()).prewarm(1003);
+
+        // 预热通道未全部推流，撤回应用的就绪状态
+        service.onReadinessStateChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+        verify(publisher).publishEvent(argThat((ApplicationEvent x) -> isReadinessEvent(x, ReadinessState.REFUSING_TRAFFIC)));
+        assertFalse(service.isReady());
+
+        // 全部推流后上报就绪
+        when(rtspManager.isStreaming(1001)).thenReturn(true);
+        when(rtspManager.isStreaming(1002)).thenReturn(true);
+        verify(publisher, timeout(5000)).publishEvent(argThat((ApplicationEvent x) -> isReadinessEvent(x, ReadinessState.ACCEPTING_TRAFFIC)));
+        assertTrue(service.isReady());
+    }
+
+    @Test
+    void readyWithoutPrewarmChannels() {
+        RtspProperties rtspProperties = new RtspProperties();
+        rtspProperties.setAddresses(Arrays.asList(createAddress(1001, false)));
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        RtspPrewarmService service = new RtspPrewarmService(mock(RtspManager.class), rtspProperties, publisher, this.scheduledExecutor);
+
+        service.run(null);
+        service.onReadinessStateChange(new AvailabilityChangeEvent<>(this, ReadinessState.ACCEPTING_TRAFFIC));
+        assertTrue(service.isReady());
+        verifyNoInteractions(publisher);
+    }
+
+    private static boolean isReadinessEvent(ApplicationEvent event, ReadinessState state) {
+        return event instanceof AvailabilityChangeEvent && ((AvailabilityChangeEvent<?>) event).getState() == state;
+    }
+
+    private static RtspAddress createAddress(Integer number, boolean prewarm) {
+        RtspAddress rtspAddress = new RtspAddress();
+        rtspAddress.setNumber(number);
+        rtspAddress.setUrl("rtsp://127.0.0.1:554/h264/ch1/main/av_stream");
+        rtspAddress.setPrewarm(prewarm);
+        return rtspAddress;
+    }
+}
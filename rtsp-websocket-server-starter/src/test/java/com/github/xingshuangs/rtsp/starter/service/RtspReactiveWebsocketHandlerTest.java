@@ -0,0 +1,53 @@
+package com.github.xingshuangs.rtsp.starter.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive")
+class RtspReactiveWebsocketHandlerTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Test
+    void subscribeOverReactiveTransport() {
+        assertTrue(this.applicationContext.getBeansOfType(RtspWebsocketHandler.class).isEmpty());
+        assertFalse(this.applicationContext.containsBean("websocketSendExecutor"));
+
+        List<String> messages = new CopyOnWriteArrayList<>();
+        ReactorNettyWebSocketClient client = new ReactorNettyWebSocketClient();
+        client.execute(URI.create("ws://127.0.0.1:" + this.port + "/rtsp"), session ->
+                session.send(Mono.just(session.textMessage("{\"type\":\"SUBSCRIBE\",\"number\":9999,\"content\":\"\"}")))
+                        .thenMany(session.receive().take(1).map(WebSocketMessage::getPayloadAsText).doOnNext(messages::add))
+                        .then())
+                .block(Duration.ofSeconds(10));
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).contains("ERROR"));
+        assertTrue(messages.get(0).contains("9999"));
+
+        // 页面和接口在响应式模式下同样可用
+        WebClient webClient = WebClient.create("http://127.0.0.1:" + this.port);
+        String numbers = webClient.get().uri("/channel/number").retrieve().bodyToMono(String.class).block(Duration.ofSeconds(10));
+        assertTrue(numbers.contains("1001"));
+        String page = webClient.get().uri("/").retrieve().bodyToMono(String.class).block(Duration.ofSeconds(10));
+        assertTrue(page.contains("rtspStream.js"));
+    }
+}
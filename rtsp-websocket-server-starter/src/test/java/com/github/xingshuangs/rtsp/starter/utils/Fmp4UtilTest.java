@@ -0,0 +1,148 @@
+package com.github.xingshuangs.rtsp.starter.utils;
+
+import com.github.xingshuangs.iot.common.buff.ByteWriteBuff;
+import com.github.xingshuangs.rtsp.starter.load.H264LoopStream;
+import com.github.xingshuangs.rtsp.starter.load.MockRtspServer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class Fmp4UtilTest {
+
+    /**
+     * 构建一个只有一个sample的H.264媒体片段，结构为moof[mfhd, traf[tfhd, tfdt, trun]] + mdat
+     *
+     * @param keyFrame 是否关键帧
+     * @param dataSize mdat中数据的大小
+     * @return 媒体片段
+     */
+    public static byte[] createMediaSegment(boolean keyFrame, int dataSize) {
+        byte[] nalu = new byte[dataSize - 4];
+        nalu[0] = (byte) (keyFrame ? 0x65 : 0x41);
+        return createMediaSegment(nalu);
+    }
+
+    /**
+     * 构建一个只有一个sample的媒体片段，sample由若干4个字节长度前缀的NALU组成，
+     * 与rtsp-fmp4代理的输出一致，sample_flags总是标记为同步sample
+     *
+     * @param nalus NALU
+     * @return 媒体片段
+     */
+    public static byte[] createMediaSegment(byte[]... nalus) {
+        int dataSize = 0;
+        for (byte[] nalu : nalus) {
+            dataSize += 4 + nalu.length;
+        }
+        ByteWriteBuff sample = ByteWriteBuff.newInstance(dataSize);
+        for (byte[] nalu : nalus) {
+            sample.putInteger(nalu.length).putBytes(nalu);
+        }
+        byte[] mfhd = box("mfhd", ByteWriteBuff.newInstance(8).putInteger(0).putInteger(1).getData());
+        byte[] tfhd = box("tfhd", ByteWriteBuff.newInstance(8).putInteger(0).putInteger(1).getData());
+        byte[] tfdt = box("tfdt", ByteWriteBuff.newInstance(8).putInteger(0).putInteger(0).getData());
+        // is_leading(2) depends_on(2) | is_depended_on(2) has_redundancy(2) padding(3) non_sync(1) | priority(16)
+        byte[] trun = box("trun", ByteWriteBuff.newInstance(28)
+                .putInteger(0x000F01)
+                .putInteger(1)
+                .putInteger(0)
+                .putInteger(3600)
+                .putInteger(dataSize)
+                .putInteger(0x02000000)
+                .putInteger(0)
+                .getData());
+        byte[] traf = box("traf", concat(tfhd, tfdt, trun));
+        byte[] moof = box("moof", concat(mfhd, traf));
+        byte[] mdat = box("mdat", sample.getData());
+        return concat(moof, mdat);
+    }
+
+    @Test
+    void isKeyFrame() {
+        assertTrue(Fmp4Util.isKeyFrame(createMediaSegment(true, 16)));
+        // 代理把每个片段的第一个sample都标记为同步sample，以mdat中的NALU为准
+        assertFalse(Fmp4Util.isKeyFrame(createMediaSegment(false, 16)));
+        // 跳过AUD、SEI、SPS、PPS
+        assertTrue(Fmp4Util.isKeyFrame(createMediaSegment(new byte[]{0x09, 0x10}, new byte[]{0x06, 0x05},
+                new byte[]{0x67, 0x42}, new byte[]{0x68, (byte) 0xCE}, new byte[]{0x65, (byte) 0x88})));
+        assertFalse(Fmp4Util.isKeyFrame(createMediaSegment(new byte[]{0x09, 0x30}, new byte[]{0x41, (byte) 0x9A})));
+        assertFalse(Fmp4Util.isKeyFrame(box("ftyp", new byte[16])));
+        assertFalse(Fmp4Util.isKeyFrame(new byte[3]));
+    }
+
+    @Test
+    void isKeyFrameHevc() {
+        // IDR_W_RADL(19)、CRA(21)为IRAP，TRAIL_R(1)不是，VPS(32)、SEI(39)跳过
+        assertTrue(Fmp4Util.isKeyFrame(createMediaSegment(new byte[]{0x40, 0x01}, new byte[]{0x26, 0x01}), true));
+        assertTrue(Fmp4Util.isKeyFrame(createMediaSegment(new byte[]{0x4E, 0x01}, new byte[]{0x2A, 0x01}), true));
+        assertFalse(Fmp4Util.isKeyFrame(createMediaSegment(new byte[]{0x4E, 0x01}, new byte[]{0x02, 0x01}), true));
+        // H.264的IDR按H.265解析不是IRAP
+        assertFalse(Fmp4Util.isKeyFrame(createMediaSegment(true, 16), true));
+    }
+
+    @Test
+    void isKeyFrameMalformedLength() {
+        // 第一个NALU的长度被改为0x7FFFFFFF，不能越界也不能因偏移量溢出而抛异常
+        byte[] data = createMediaSegment(new byte[]{0x06, 0x05}, new byte[]{0x65, (byte) 0x88});
+        int offset = data.length - 12;
+        data[offset] = 0x7F;
+        data[offset + 1] = (byte) 0xFF;
+        data[offset + 2] = (byte) 0xFF;
+        data[offset + 3] = (byte) 0xFF;
+        assertFalse(Fmp4Util.isKeyFrame(data));
+        assertFalse(Fmp4Util.isKeyFrame(data, true));
+    }
+
+    @Test
+    void isKeyFrameOfProxyOutput() throws Exception {
+        // 每个GOP20帧，代理在IDR处或者满5帧后遇到P帧时输出片段，每个GOP一个关键帧片段和三个P帧开头的片段
+        try (MockRtspServer server = new MockRtspServer(H264LoopStream.synthetic(320, 240, 100, 20, 1024)).start()) {
+            List<byte[]> fragments = server.recordFragments(16);
+            List<byte[]> media = fragments.subList(1, fragments.size());
+            long keyFrames = media.stream().filter(Fmp4Util::isKeyFrame).count();
+            assertTrue(keyFrames >= 3 && keyFrames <= 5, "keyFrames=" + keyFrames);
+            assertTrue(media.size() - keyFrames >= 10);
+        }
+    }
+
+    @Test
+    void isMediaSegment() {
+        assertTrue(Fmp4Util.isMediaSegment(createMediaSegment(false, 16)));
+        assertFalse(Fmp4Util.isMediaSegment(box("ftyp", new byte[16])));
+    }
+
+    @Test
+    void isMoofOnlyAndMediaData() {
+        byte[] segment = createMediaSegment(true, 16);
+        int moofSize = ((segment[0] & 0xFF) << 24) | ((segment[1] & 0xFF) << 16) | ((segment[2] & 0xFF) << 8) | (segment[3] & 0xFF);
+        assertFalse(Fmp4Util.isMoofOnly(segment));
+        assertTrue(Fmp4Util.isMoofOnly(Arrays.copyOf(segment, moofSize)));
+        assertTrue(Fmp4Util.isMediaData(Arrays.copyOfRange(segment, moofSize, segment.length)));
+        assertFalse(Fmp4Util.isMediaData(segment));
+    }
+
+    private static byte[] box(String type, byte[] content) {
+        return ByteWriteBuff.newInstance(8 + content.length)
+                .putInteger(8 + content.length)
+                .putBytes(type.getBytes(StandardCharsets.US_ASCII))
+                .putBytes(content)
+                .getData();
+    }
+
+    private static byte[] concat(byte[]... items) {
+        int length = 0;
+        for (byte[] item : items) {
+            length += item.length;
+        }
+        ByteWriteBuff buff = ByteWriteBuff.newInstance(length);
+        for (byte[] item : items) {
+            buff.putBytes(item);
+        }
+        return buff.getData();
+    }
+}